@@ -0,0 +1,183 @@
+/* Created on Oct 19, 2026 by Florian Leitner.
+ * Copyright 2026. All rights reserved. */
+package es.fnl.fsm;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This matcher finds <b>approximate</b> occurrences of a pattern sequence in <i>Lists</i> or
+ * <i>Iterators</i>, i.e., subsequences that can be turned into the pattern with at most <i>k</i>
+ * substitutions, insertions, or deletions of elements (the Levenshtein distance).
+ * <p>
+ * The matcher uses <b>Myers'</b> bit-parallel dynamic programming algorithm, with the pattern cut
+ * into blocks of 64 elements (Hyyro's extension); each element of the sequence costs a table
+ * lookup and a few bit operations per block, i.e., a scan takes O(n&middot;&lceil;m/64&rceil;)
+ * time. As the algorithm determines where occurrences <i>end</i>, the matcher reports end offsets
+ * rather than start offsets.
+ * <p>
+ * As with the exact matchers, elements are compared using <code>equals(Object)</code>. Note that
+ * the empty pattern is illegal, while a <code>null</code> in the pattern is allowed to match a
+ * <code>null</code> in the sequence if at the right position.
+ * 
+ * @author Florian Leitner
+ */
+public final class ApproximateMatcher<E> extends MatcherBase<E> {
+  /** The match vectors of each element in the pattern. */
+  private final Map<E, long[]> peq;
+  /** The maximum number of edits. */
+  private final int k;
+  /** The number of 64-element blocks the pattern is cut into. */
+  private final int blocks;
+  /** The bit of the last pattern element in the last block. */
+  private final long lastBit;
+  /** The match vector of elements that do not occur in the pattern. */
+  private final long[] mismatch;
+
+  /**
+   * Create a matcher for a pattern sequence, preprocessing the match vectors.
+   * 
+   * @param pattern sequence that should lead to a match
+   * @param k the maximum number of edits an occurrence may have
+   * @throws IllegalArgumentException if the pattern is empty or <code>k</code> is negative or not
+   *         less than the pattern's length
+   */
+  public ApproximateMatcher(final List<E> pattern, int k) {
+    super(pattern);
+    if (k < 0 || k >= end)
+      throw new IllegalArgumentException("illegal number of edits " + k + " for a pattern of " +
+          end + " elements");
+    this.k = k;
+    blocks = (end + 63) / 64;
+    lastBit = 1L << ((end - 1) % 64);
+    mismatch = new long[blocks];
+    peq = new HashMap<E, long[]>();
+    for (int i = 0; i < end; i++) {
+      long[] eq = peq.get(this.pattern.get(i));
+      if (eq == null) {
+        eq = new long[blocks];
+        peq.put(this.pattern.get(i), eq);
+      }
+      eq[i / 64] |= 1L << (i % 64);
+    }
+  }
+
+  /** Returns the maximum number of edits an occurrence may have. */
+  public int edits() {
+    return k;
+  }
+
+  @Override
+  public int radix() {
+    return peq.size();
+  }
+
+  /**
+   * Find the end of the first approximate occurrence of the pattern in the <code>sequence</code>.
+   * 
+   * @param sequence list to search
+   * @return the offset after the last element of the occurrence or <code>-1</code> if there is none
+   * @see ApproximateMatcher#find(List, int)
+   */
+  public int find(final List<E> sequence) {
+    return find(sequence, 0);
+  }
+
+  /**
+   * Find the end of the first approximate occurrence of the pattern in the <code>sequence</code>
+   * that starts at or after the <code>offset</code>.
+   * <p>
+   * The occurrence found is the one that ends first; as it has at most <i>k</i> edits, it starts at
+   * least <code>length() - k</code> elements before the returned offset.
+   * 
+   * @param sequence list to search
+   * @param offset index in sequence where to start the search
+   * @return the offset after the last element of the occurrence or <code>-1</code> if there is none
+   */
+  public int find(final List<E> sequence, int offset) {
+    if (probe == null) return search(sequence.subList(offset, sequence.size()).iterator(), offset,
+        null);
+    probe.begin();
+    try {
+      return search(sequence.subList(offset, sequence.size()).iterator(), offset, probe.call);
+    } finally {
+      probe.end(this);
+    }
+  }
+
+  /**
+   * Determine if the pattern approximately matches anywhere in a stream.
+   * <p>
+   * The iteration will halt <i>after</i> the last element of an occurrence has been found or
+   * consumes the entire stream otherwise.
+   * 
+   * @param seqIt the sequence stream to scan
+   * @return <code>true</code> if the stream contained an occurrence
+   */
+  public boolean scan(final Iterator<E> seqIt) {
+    if (probe == null) return search(seqIt, 0, null) != -1;
+    probe.begin();
+    try {
+      return search(seqIt, 0, probe.call) != -1;
+    } finally {
+      probe.end(this);
+    }
+  }
+
+  /**
+   * Myers' search, counting into <code>call</code> unless it is <code>null</code>.
+   * <p>
+   * The vertical deltas of each column of the dynamic programming matrix (pattern by sequence) are
+   * encoded as positive (<code>pv</code>) and negative (<code>mv</code>) bit vectors; the score
+   * is the edit distance of the whole pattern to the best alignment ending at the current element.
+   * 
+   * @param seqIt the sequence to search
+   * @param offset of the first element in the sequence
+   * @param call stats (may be <code>null</code>)
+   * @return the offset after the end of the first occurrence or <code>-1</code>
+   */
+  private int search(final Iterator<E> seqIt, int offset, final MatchStats call) {
+    final long[] pv = new long[blocks];
+    final long[] mv = new long[blocks];
+    int score = end;
+    for (int b = 0; b < blocks; b++)
+      pv[b] = -1L;
+    while (seqIt.hasNext()) {
+      final long[] eqs = vector(seqIt.next());
+      int carry = 0; // the horizontal delta entering the block from above
+      for (int b = 0; b < blocks; b++) {
+        final long high = (b == blocks - 1) ? lastBit : Long.MIN_VALUE;
+        long eq = eqs[b];
+        final long xv = eq | mv[b];
+        if (carry < 0) eq |= 1L;
+        final long xh = (((eq & pv[b]) + pv[b]) ^ pv[b]) | eq;
+        long ph = mv[b] | ~(xh | pv[b]);
+        long mh = pv[b] & xh;
+        final int out = ((ph & high) != 0) ? 1 : ((mh & high) != 0) ? -1 : 0;
+        ph <<= 1;
+        mh <<= 1;
+        if (carry < 0) mh |= 1L;
+        else if (carry > 0) ph |= 1L;
+        pv[b] = mh | ~(xv | ph);
+        mv[b] = ph & xv;
+        carry = out;
+      }
+      score += carry;
+      offset++;
+      if (call != null) {
+        call.offsets++;
+        call.comparisons += blocks;
+      }
+      if (score <= k) return offset;
+    }
+    return -1;
+  }
+
+  /** Return the match vector of an element. */
+  private long[] vector(final E element) {
+    final long[] eq = peq.get(element);
+    return (eq == null) ? mismatch : eq;
+  }
+}
@@ -2,18 +2,38 @@ package es.fnl.fsm;
 
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Queue;
 import java.util.Set;
+import java.util.TreeMap;
 
 /**
  * A priority queue for breadth-first search that can backtrack the list of states that lead to
  * some particular state.
  * <p>
  * Items are queued by their offsets, i.e., higher offsets are queued later.
+ * <p>
+ * By default, the moves to every item ever queued are kept until the search is over. A compacting
+ * queue instead drops the moves that can no longer be backtracked once they have grown beyond
+ * twice the number kept by the last compaction: targets are never queued at offsets below the
+ * item just removed (the frontier), so only the items at or beyond the frontier, the suspended
+ * and {@link #pin(QueueItem) pinned} items, and the items with capture states on their paths are
+ * kept, each linked directly to its closest kept predecessor. As the capture groups are
+ * determined from the capture states on the backtracked path alone, this does not change them, and
+ * the memory used is proportional to the frontier (plus the capture states on its paths).
+ * <p>
+ * The queues of the searches that one {@link Matcher#find()} makes at successive start offsets can
+ * {@link #share(Claims) share} the items they reach: as an item reached by a search with an earlier
+ * start offset leads to the same matches, a later search does not queue it again.
+ * <p>
+ * The {@link Run runs} from an item are {@link #expand(QueueItem, Run, Set) expanded} one element
+ * at a time, in offset order with the items, so a run with a large (or no) maximum does not queue
+ * its targets at all offsets it could reach at once.
  * 
  * @author Florian Leitner
  */
@@ -22,16 +42,44 @@ final class BFSQueue<E> {
   private Map<QueueItem<State<E>>, QueueItem<State<E>>> moves;
   private Map<QueueItem<State<E>>, Double> weights;
   private Queue<QueueItem<State<E>>> queue;
+  private List<QueueItem<State<E>>> suspended;
+  private Queue<Expansion<E>> runs; // the runs being expanded
+  private List<Expansion<E>> suspendedRuns;
+  private Map<QueueItem<State<E>>, Set<Run<E>>> expanded; // the runs started from each item
+  private final boolean compacting;
+  private QueueItem<State<E>> pinned = null; // an item whose moves must be kept
+  private int threshold = MIN_COMPACTION; // the number of moves that triggers the next compaction
+  private Claims<E> claims = null; // the items reached by searches with earlier start offsets
+  /** The minimum number of moves before a compaction is made. */
+  private static final int MIN_COMPACTION = 256;
 
   BFSQueue() {
+    this(false);
+  }
+
+  /**
+   * Create a new queue.
+   * 
+   * @param compacting <code>true</code> to drop the moves that cannot be backtracked anymore
+   */
+  BFSQueue(boolean compacting) {
+    this.compacting = compacting;
     start = null;
     moves = new HashMap<QueueItem<State<E>>, QueueItem<State<E>>>();
     weights = new HashMap<QueueItem<State<E>>, Double>();
     queue = new PriorityQueue<QueueItem<State<E>>>();
+    suspended = new LinkedList<QueueItem<State<E>>>();
+    runs = new PriorityQueue<Expansion<E>>();
+    suspendedRuns = new LinkedList<Expansion<E>>();
+    expanded = new HashMap<QueueItem<State<E>>, Set<Run<E>>>();
   }
 
   BFSQueue(int offset, State<E> init) {
-    this();
+    this(offset, init, false);
+  }
+
+  BFSQueue(int offset, State<E> init, boolean compacting) {
+    this(compacting);
     setStart(offset, init);
   }
 
@@ -43,12 +91,21 @@ final class BFSQueue<E> {
    */
   void setStart(int offset, State<E> init) {
     if (init == null) throw new IllegalArgumentException("init state may never be null");
-    if (queue.size() != 0 || moves.size() != 0)
+    if (size() != 0 || moves.size() != 0)
       throw new IllegalStateException("tracer already running");
     start = new QueueItem<State<E>>(offset, init);
     queue.add(start);
   }
 
+  /**
+   * Share the items reached with the searches made at later start offsets.
+   * 
+   * @param claims of the searches of the current find, made in order of their start offsets
+   */
+  void share(Claims<E> claims) {
+    this.claims = claims;
+  }
+
   /**
    * Add the all target states that can be reached to the queue.
    * 
@@ -64,6 +121,7 @@ final class BFSQueue<E> {
       if (t != null) {
         QueueItem<State<E>> target = new QueueItem<State<E>>(off, t);
         if (!moves.containsKey(target)) {
+          if (claims != null && !claims.claim(off, t)) continue; // reached by an earlier search
           moves.put(target, src);
           weights.put(target, w);
           queue.add(target);
@@ -76,6 +134,41 @@ final class BFSQueue<E> {
     }
   }
 
+  /**
+   * Start expanding a run from some item, unless it has been started before (e.g., before the item
+   * was suspended).
+   * 
+   * @param src queue item from where the run is made
+   * @param r the run to make
+   * @param trgts states to where the run leads
+   */
+  void expand(QueueItem<State<E>> src, Run<E> r, Set<State<E>> trgts) {
+    Set<Run<E>> started = expanded.get(src);
+    if (started == null) {
+      started = new HashSet<Run<E>>();
+      expanded.put(src, started);
+    }
+    if (started.add(r)) runs.add(new Expansion<E>(src.index(), 0, 0.0, src, r, trgts));
+  }
+
+  /** Continue expanding a run. */
+  void expand(Expansion<E> run) {
+    runs.add(run);
+  }
+
+  /**
+   * Return <code>true</code> if the next item to process is the expansion of a run, i.e., if it is
+   * not behind the head of the queue.
+   */
+  boolean isExpanding() {
+    return !runs.isEmpty() && (queue.isEmpty() || runs.peek().offset <= queue.peek().index());
+  }
+
+  /** Return the next run to expand. */
+  Expansion<E> removeExpansion() {
+    return runs.remove();
+  }
+
   /**
    * Find the list of states that were visited at each offset to reach this particular state.
    * 
@@ -96,13 +189,192 @@ final class BFSQueue<E> {
     return bt;
   }
 
-  /** Return <code>true</code> if the queue is empty. */
+  /** Return the offset of the start state. */
+  int start() {
+    return start.index();
+  }
+
+  /**
+   * Set an item aside that could not be expanded because the end of the input sequence was
+   * reached.
+   */
+  void suspend(QueueItem<State<E>> item) {
+    suspended.add(item);
+  }
+
+  /** Set a run aside that could not be expanded because the end of the input was reached. */
+  void suspend(Expansion<E> run) {
+    suspendedRuns.add(run);
+  }
+
+  /** Return <code>true</code> if any items or runs have been suspended. */
+  boolean isSuspended() {
+    return !suspended.isEmpty() || !suspendedRuns.isEmpty();
+  }
+
+  /** Put all suspended items and runs back on the queue. */
+  void resume() {
+    queue.addAll(suspended);
+    suspended.clear();
+    runs.addAll(suspendedRuns);
+    suspendedRuns.clear();
+  }
+
+  /** Return <code>true</code> if the queue is empty (including the runs being expanded). */
   boolean isEmpty() {
-    return queue.isEmpty();
+    return queue.isEmpty() && runs.isEmpty();
   }
 
-  /** Return the head of the queue. */
+  /** Return the number of items in the queue (including the runs being expanded). */
+  int size() {
+    return queue.size() + runs.size();
+  }
+
+  /** Return the head of the queue (compacting the moves if necessary). */
   QueueItem<State<E>> remove() {
-    return queue.remove();
+    final QueueItem<State<E>> head = queue.remove();
+    if (compacting && moves.size() > threshold) compact(head.index());
+    return head;
+  }
+
+  /**
+   * Keep the moves to an item even if it is behind the frontier (replacing any previously pinned
+   * item), e.g., the best match found so far.
+   */
+  void pin(QueueItem<State<E>> item) {
+    pinned = item;
+  }
+
+  /** Return the number of moves (back-pointers) currently kept. */
+  int moves() {
+    return moves.size();
+  }
+
+  /**
+   * Drop all moves that cannot be backtracked from any item at or beyond the frontier, any
+   * suspended item, the source of any run being expanded, or the pinned item, and link the kept
+   * items directly to their closest kept predecessor.
+   * 
+   * @param frontier the offset of the item just removed from the queue
+   */
+  private void compact(int frontier) {
+    final Map<QueueItem<State<E>>, QueueItem<State<E>>> kept =
+        new HashMap<QueueItem<State<E>>, QueueItem<State<E>>>();
+    final Map<QueueItem<State<E>>, Double> keptWeights = new HashMap<QueueItem<State<E>>, Double>();
+    final Map<QueueItem<State<E>>, QueueItem<State<E>>> closest =
+        new HashMap<QueueItem<State<E>>, QueueItem<State<E>>>();
+    final LinkedList<QueueItem<State<E>>> roots = new LinkedList<QueueItem<State<E>>>();
+    for (QueueItem<State<E>> item : moves.keySet())
+      if (item.index() >= frontier) roots.add(item);
+    roots.addAll(suspended);
+    for (Expansion<E> run : runs)
+      roots.add(run.source);
+    for (Expansion<E> run : suspendedRuns)
+      roots.add(run.source);
+    if (pinned != null && moves.containsKey(pinned)) roots.add(pinned);
+    for (QueueItem<State<E>> item : roots)
+      if (!item.equals(start)) keptWeights.put(item, weights.get(item));
+    while (!roots.isEmpty()) {
+      final QueueItem<State<E>> item = roots.remove();
+      if (item.equals(start) || kept.containsKey(item)) continue;
+      final QueueItem<State<E>> predecessor = closest(moves.get(item), frontier, closest);
+      kept.put(item, predecessor);
+      roots.add(predecessor);
+    }
+    moves = kept;
+    weights = keptWeights;
+    final Iterator<QueueItem<State<E>>> sources = expanded.keySet().iterator();
+    while (sources.hasNext()) // items behind the frontier are never expanded again
+      if (sources.next().index() < frontier) sources.remove();
+    threshold = Math.max(MIN_COMPACTION, 2 * kept.size());
+  }
+
+  /**
+   * Return the closest item on the backtracked path from (and including) an item that has to be
+   * kept: the start, an item with a capture state, or an item at or beyond the frontier.
+   * 
+   * @param item to start from
+   * @param frontier the offset of the item just removed from the queue
+   * @param closest the items already resolved (updated)
+   * @return the closest item to keep
+   */
+  private QueueItem<State<E>> closest(QueueItem<State<E>> item, int frontier,
+      Map<QueueItem<State<E>>, QueueItem<State<E>>> closest) {
+    final List<QueueItem<State<E>>> path = new LinkedList<QueueItem<State<E>>>();
+    while (!item.equals(start) && !item.get().isCapturing() && item.index() < frontier) {
+      final QueueItem<State<E>> known = closest.get(item);
+      if (known != null) {
+        item = known;
+        break;
+      }
+      path.add(item);
+      item = moves.get(item);
+    }
+    for (QueueItem<State<E>> skipped : path)
+      closest.put(skipped, item);
+    return item;
+  }
+
+  /**
+   * A run being expanded from an item: after each element the run matches, its targets are queued
+   * at the next offset (once its minimum is reached) and the expansion continues from there (until
+   * its maximum is reached).
+   */
+  static final class Expansion<E> implements Comparable<Expansion<E>> {
+    final int offset; // of the next element the run has to match
+    final int count; // the number of elements matched so far
+    final double weight; // the IC gained so far
+    final QueueItem<State<E>> source;
+    final Run<E> run;
+    final Set<State<E>> targets;
+
+    Expansion(int offset, int count, double weight, QueueItem<State<E>> source, Run<E> run,
+        Set<State<E>> targets) {
+      this.offset = offset;
+      this.count = count;
+      this.weight = weight;
+      this.source = source;
+      this.run = run;
+      this.targets = targets;
+    }
+
+    /** Return the expansion after the run matched the element at the current offset. */
+    Expansion<E> next() {
+      return new Expansion<E>(offset + 1, count + 1, weight + run.weight(), source, run, targets);
+    }
+
+    /** Sort on the offset. */
+    public int compareTo(Expansion<E> o) {
+      return offset - o.offset;
+    }
+  }
+
+  /**
+   * The items reached by the searches of one {@link Matcher#find()}, which are made in the order
+   * of their start offsets.
+   * <p>
+   * If a search reaches an item that a search with an earlier start offset has reached before, any
+   * match it could make from there would also be made by the earlier search, with an earlier start
+   * offset, and therefore be found first; if the earlier search was suspended, so was the item. So
+   * the later search can drop the item, and the searches suspended at the end of the input do not
+   * pile up when they all reach the same states (e.g., in a repeated wildcard).
+   */
+  static final class Claims<E> {
+    private final TreeMap<Integer, Set<State<E>>> items = new TreeMap<Integer, Set<State<E>>>();
+
+    /** Claim an item, returning <code>false</code> if it had been claimed before. */
+    boolean claim(int offset, State<E> state) {
+      Set<State<E>> states = items.get(offset);
+      if (states == null) {
+        states = new HashSet<State<E>>();
+        items.put(offset, states);
+      }
+      return states.add(state);
+    }
+
+    /** Drop the claims on all offsets before the start offset of the next search. */
+    void release(int start) {
+      items.headMap(start).clear();
+    }
   }
 }
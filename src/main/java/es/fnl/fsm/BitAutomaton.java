@@ -0,0 +1,197 @@
+/* Created on Oct 19, 2026 by Florian Leitner.
+ * Copyright 2026. All rights reserved. */
+package es.fnl.fsm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * The position (Glushkov) automaton of a small {@link Pattern}, simulated with the bits of a single
+ * <code>long</code>.
+ * <p>
+ * Each element-consuming transition of the NFA is a position (bit); a set of positions represents
+ * the transitions that were just made. The epsilon transitions are folded into the
+ * {@link #follow(long) follow} relation between positions, so advancing over an element costs the
+ * element's {@link #mask(Object, MatchStats) mask} of matching positions, eight table lookups, and
+ * an AND, instead of queue operations over states.
+ * <p>
+ * Only patterns with at most 64 transitions and no runs (counted repetitions or gaps) can be
+ * compiled; see {@link #compile(State, State)}.
+ * <p>
+ * It should never be necessary to directly use this class of the generic FSA implementation.
+ * 
+ * @author Florian Leitner
+ */
+final class BitAutomaton<E> {
+  /** The maximum number of positions (transitions) of a pattern. */
+  static final int MAX_POSITIONS = 64;
+  /** <code>true</code> if the pattern matches the empty sequence. */
+  final boolean nullable;
+  /** <code>true</code> if the pattern has capture groups. */
+  final boolean capturing;
+  /** The positions that can be taken first. */
+  final long first;
+  /** The positions after which the pattern can accept. */
+  final long last;
+  private final Transition<E>[] transitions; // the distinct transitions
+  private final long[] positions; // the positions of each transition
+  private final long[][] follow; // the positions following each byte of positions
+  private final long[][] precede; // the positions preceding each byte of positions
+
+  @SuppressWarnings("unchecked")
+  private BitAutomaton(boolean nullable, boolean capturing, long first, long last,
+      List<Transition<E>> labels, List<Integer> labelOf, long[] follows) {
+    this.nullable = nullable;
+    this.capturing = capturing;
+    this.first = first;
+    this.last = last;
+    transitions = labels.toArray((Transition<E>[]) new Transition<?>[labels.size()]);
+    positions = new long[transitions.length];
+    for (int i = 0; i < labelOf.size(); i++)
+      positions[labelOf.get(i)] |= 1L << i;
+    final long[] precedes = new long[follows.length];
+    for (int i = 0; i < follows.length; i++)
+      for (int j = 0; j < follows.length; j++)
+        if ((follows[i] & (1L << j)) != 0) precedes[j] |= 1L << i;
+    follow = table(follows);
+    precede = table(precedes);
+  }
+
+  /** Build the lookup table of the union of a relation over each byte of a set of positions. */
+  private static long[][] table(long[] relation) {
+    final long[][] table = new long[(relation.length + 7) / 8][256];
+    for (int i = 0; i < relation.length; i++) {
+      final int chunk = i / 8, bit = 1 << (i % 8);
+      for (int b = bit; b < 256; b = (b + 1) | bit)
+        table[chunk][b] |= relation[i];
+    }
+    return table;
+  }
+
+  /**
+   * Compile the position automaton of the pattern.
+   * 
+   * @param entry state of the pattern
+   * @param exit state of the pattern
+   * @return the automaton or <code>null</code> if the pattern has runs or more than
+   *         {@link #MAX_POSITIONS} transitions
+   */
+  static <E> BitAutomaton<E> compile(State<E> entry, State<E> exit) {
+    final List<State<E>> states = new Pattern<E>(entry, exit).states();
+    final List<State<E>> sources = new ArrayList<State<E>>();
+    final List<State<E>> targets = new ArrayList<State<E>>();
+    final List<Transition<E>> labels = new ArrayList<Transition<E>>();
+    final List<Integer> labelOf = new ArrayList<Integer>();
+    final Map<Transition<E>, Integer> index = new HashMap<Transition<E>, Integer>();
+    boolean capturing = false;
+    for (State<E> s : states) {
+      if (s.runs.size() > 0) return null;
+      if (s.isCapturing()) capturing = true;
+      for (Transition<E> t : s.transitions.keySet()) {
+        Integer label = index.get(t);
+        if (label == null) {
+          label = labels.size();
+          index.put(t, label);
+          labels.add(t);
+        }
+        for (State<E> target : s.transitions.get(t)) {
+          if (sources.size() == MAX_POSITIONS) return null;
+          sources.add(s);
+          targets.add(target);
+          labelOf.add(label);
+        }
+      }
+    }
+    // the positions leaving from each state
+    final Map<State<E>, Long> leaving = new HashMap<State<E>, Long>();
+    for (int i = 0; i < sources.size(); i++) {
+      final Long bits = leaving.get(sources.get(i));
+      leaving.put(sources.get(i), ((bits == null) ? 0L : bits) | (1L << i));
+    }
+    final Map<State<E>, Long> after = new HashMap<State<E>, Long>(); // positions after a state
+    final Set<State<E>> accepting = new HashSet<State<E>>(); // states that reach a final state
+    for (State<E> s : states) {
+      long bits = 0L;
+      boolean accepts = false;
+      for (State<E> c : closure(s)) {
+        if (leaving.containsKey(c)) bits |= leaving.get(c);
+        if (c.isFinal()) accepts = true;
+      }
+      after.put(s, bits);
+      if (accepts) accepting.add(s);
+    }
+    final long[] follows = new long[sources.size()];
+    long last = 0L;
+    for (int i = 0; i < follows.length; i++) {
+      follows[i] = after.get(targets.get(i));
+      if (accepting.contains(targets.get(i))) last |= 1L << i;
+    }
+    return new BitAutomaton<E>(accepting.contains(entry), capturing, after.get(entry), last,
+        labels, labelOf, follows);
+  }
+
+  /** Return the epsilon closure of a state. */
+  private static <E> Set<State<E>> closure(State<E> state) {
+    final Set<State<E>> closure = new HashSet<State<E>>();
+    final Queue<State<E>> queue = new LinkedList<State<E>>();
+    closure.add(state);
+    queue.add(state);
+    while (!queue.isEmpty()) {
+      for (State<E> next : queue.remove().epsilonTransitions)
+        if (closure.add(next)) queue.add(next);
+    }
+    return closure;
+  }
+
+  /**
+   * Return the positions whose transitions match an element.
+   * 
+   * @param element to test
+   * @param call stats to count the transition tests into (<code>null</code> if not instrumented)
+   */
+  long mask(E element, MatchStats call) {
+    long mask = 0L;
+    for (int i = 0; i < transitions.length; i++)
+      if (transitions[i].matches(element)) mask |= positions[i];
+    if (call != null) call.comparisons += transitions.length;
+    return mask;
+  }
+
+  /**
+   * Return the positions whose transitions match an element of a shared input.
+   * 
+   * @param input shared with other matchers, caching the transition tests
+   * @param offset of the element to test
+   * @param call stats to count the transition tests into (<code>null</code> if not instrumented)
+   */
+  long mask(SharedInput<E> input, int offset, MatchStats call) {
+    long mask = 0L;
+    for (int i = 0; i < transitions.length; i++)
+      if (input.test(transitions[i], offset)) mask |= positions[i];
+    if (call != null) call.comparisons += transitions.length;
+    return mask;
+  }
+
+  /** Return the positions that can be taken after any of the given positions. */
+  long follow(long set) {
+    return union(follow, set);
+  }
+
+  /** Return the positions after which any of the given positions can be taken. */
+  long precede(long set) {
+    return union(precede, set);
+  }
+
+  private static long union(long[][] table, long set) {
+    long union = 0L;
+    for (int chunk = 0; chunk < table.length && set != 0; chunk++, set >>>= 8)
+      union |= table[chunk][(int) set & 0xFF];
+    return union;
+  }
+}
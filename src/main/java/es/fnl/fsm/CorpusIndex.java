@@ -0,0 +1,472 @@
+/* Created on Oct 19, 2026 by Florian Leitner.
+ * Copyright 2026. All rights reserved. */
+package es.fnl.fsm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A suffix array index over a fixed sequence (corpus) for repeated <b>exact pattern matching</b>.
+ * <p>
+ * The corpus elements are interned (mapped to integer IDs, using <code>equals(Object)</code>, as
+ * the exact matchers do), and the sorted suffixes of the interned sequence are stored together
+ * with their longest common prefix (LCP) lengths. Building the index takes O(n log n) time, after
+ * which {@link #find(List)} and {@link #count(List)} cost O(m log n) per pattern and
+ * {@link #findAll(List)} a further O(k log k) for the k offsets found, independent of the corpus
+ * length. (The first call of {@link #find(List)} builds a range minimum table over the suffix
+ * array in O(n) time, which takes fewer than n / 10 ints, so that find does not depend on the
+ * number of occurrences.)
+ * <p>
+ * An index can be {@link #save(File) saved} to a file and {@link #load(File) loaded} again, in
+ * which case the interned corpus, the suffix array, and the LCP array are memory-mapped rather
+ * than read into the heap; only the vocabulary of distinct elements is deserialized. As each array
+ * is mapped into a buffer of its own, which holds at most {@link Integer#MAX_VALUE} bytes, only
+ * indices of corpora with at most {@value #MAX_SAVED} elements (2 GB per array) can be saved.
+ * <p>
+ * Indices are immutable and therefore <b>thread-safe</b>.
+ * 
+ * @author Florian Leitner
+ */
+public final class CorpusIndex<E> {
+  /** The distinct elements of the corpus, by ID. */
+  private final List<E> vocabulary;
+  /** The IDs of the distinct elements. */
+  private final Map<E, Integer> ids;
+  /** The interned corpus. */
+  private final IntBuffer text;
+  /** The offsets of the suffixes of the corpus in lexicographic order. */
+  private final IntBuffer suffixes;
+  /** The length of the common prefix of each suffix and the one preceding it in the array. */
+  private final IntBuffer lcp;
+  /** The length of the corpus. */
+  private final int size;
+  /** The lowest offset in each run of 2<sup>k</sup> blocks of suffixes, by k (built on demand). */
+  private volatile int[][] minima = null;
+
+  /** The number of suffixes per block of the range minimum table. */
+  private static final int BLOCK = 256;
+
+  private static final int MAGIC = 0x46534d49; // "FSMI"
+  // magic number, length, vocabulary size, and byte order (0 for big-endian)
+  private static final int HEADER = 16;
+  /** The maximum length of a corpus whose index can be saved. */
+  static final int MAX_SAVED = Integer.MAX_VALUE / 4;
+  /** The size of the chunks in which the arrays are written. */
+  private static final int CHUNK = 1 << 16;
+
+  /**
+   * Index a corpus.
+   * 
+   * @param corpus sequence to index
+   */
+  public CorpusIndex(final List<E> corpus) {
+    size = corpus.size();
+    vocabulary = new ArrayList<E>();
+    ids = new HashMap<E, Integer>();
+    final int[] interned = new int[size];
+    int i = 0;
+    for (E element : corpus) {
+      Integer id = ids.get(element);
+      if (id == null) {
+        id = vocabulary.size();
+        ids.put(element, id);
+        vocabulary.add(element);
+      }
+      interned[i++] = id;
+    }
+    final int[] sa = sort(interned, vocabulary.size());
+    text = IntBuffer.wrap(interned);
+    suffixes = IntBuffer.wrap(sa);
+    lcp = IntBuffer.wrap(kasai(interned, sa));
+  }
+
+  /** Create an index from its (loaded) parts. */
+  private CorpusIndex(List<E> vocabulary, IntBuffer text, IntBuffer suffixes, IntBuffer lcp) {
+    this.vocabulary = vocabulary;
+    ids = new HashMap<E, Integer>();
+    for (int id = 0; id < vocabulary.size(); id++)
+      ids.put(vocabulary.get(id), id);
+    this.text = text;
+    this.suffixes = suffixes;
+    this.lcp = lcp;
+    size = text.capacity();
+  }
+
+  /**
+   * Sort the suffixes of an interned sequence by prefix doubling, ranking the suffixes by their
+   * first 2<sup>k</sup> elements in round k with a counting sort on the ranks of the previous
+   * round.
+   * 
+   * @param text the interned sequence
+   * @param radix the number of distinct IDs
+   * @return the suffix array
+   */
+  private static int[] sort(final int[] text, final int radix) {
+    final int n = text.length;
+    int[] sa = new int[n];
+    int[] rank = text.clone();
+    int[] order = new int[n];
+    int[] next = new int[n];
+    int[] count = new int[Math.max(radix, n) + 1];
+    for (int i = 0; i < n; i++)
+      order[i] = i;
+    countingSort(order, rank, sa, count, radix);
+    int ranks = rerank(sa, rank, next, 0);
+    int[] tmp = rank;
+    rank = next;
+    next = tmp;
+    for (int k = 1; ranks < n; k <<= 1) {
+      // order by the second key: suffixes shorter than k first, then by the rank at i + k
+      int p = 0;
+      for (int i = n - k; i < n; i++)
+        order[p++] = i;
+      for (int i = 0; i < n; i++)
+        if (sa[i] >= k) order[p++] = sa[i] - k;
+      countingSort(order, rank, sa, count, ranks);
+      ranks = rerank(sa, rank, next, k);
+      tmp = rank;
+      rank = next;
+      next = tmp;
+    }
+    return sa;
+  }
+
+  /** Stable sort of <code>order</code> into <code>sa</code> by the given keys. */
+  private static void countingSort(int[] order, int[] key, int[] sa, int[] count, int keys) {
+    Arrays.fill(count, 0, keys + 1, 0);
+    for (int i : order)
+      count[key[i] + 1]++;
+    for (int r = 1; r <= keys; r++)
+      count[r] += count[r - 1];
+    for (int i : order)
+      sa[count[key[i]]++] = i;
+  }
+
+  /**
+   * Rank the sorted suffixes, giving equal ranks to suffixes with the same first and second key.
+   * 
+   * @return the number of distinct ranks
+   */
+  private static int rerank(int[] sa, int[] rank, int[] next, int k) {
+    final int n = sa.length;
+    if (n == 0) return 0;
+    int r = 0;
+    next[sa[0]] = 0;
+    for (int i = 1; i < n; i++) {
+      int a = sa[i - 1], b = sa[i];
+      if (rank[a] != rank[b] || secondKey(rank, a, k) != secondKey(rank, b, k)) r++;
+      next[b] = r;
+    }
+    return r + 1;
+  }
+
+  /** Return the rank of the suffix <code>k</code> elements after <code>i</code>, if any. */
+  private static int secondKey(int[] rank, int i, int k) {
+    if (k == 0) return 0; // the initial ranking is by the first element only
+    return (i + k < rank.length) ? rank[i + k] : -1;
+  }
+
+  /** Compute the LCP array in linear time (Kasai et al.). */
+  private static int[] kasai(final int[] text, final int[] sa) {
+    final int n = text.length;
+    final int[] rank = new int[n];
+    final int[] lcp = new int[n];
+    for (int i = 0; i < n; i++)
+      rank[sa[i]] = i;
+    for (int i = 0, h = 0; i < n; i++) {
+      if (rank[i] > 0) {
+        final int j = sa[rank[i] - 1];
+        while (i + h < n && j + h < n && text[i + h] == text[j + h])
+          h++;
+        lcp[rank[i]] = h;
+        if (h > 0) h--;
+      } else {
+        h = 0;
+      }
+    }
+    return lcp;
+  }
+
+  /** Returns the length of the indexed corpus. */
+  public int size() {
+    return size;
+  }
+
+  /** Returns the number of distinct elements in the corpus. */
+  public int radix() {
+    return vocabulary.size();
+  }
+
+  /**
+   * Count the occurrences of a pattern in the corpus.
+   * 
+   * @param pattern sequence to count
+   * @return the number of (possibly overlapping) occurrences
+   * @throws IllegalArgumentException if the pattern is empty
+   */
+  public int count(final List<E> pattern) {
+    final int[] p = intern(pattern);
+    if (p == null) return 0;
+    return bound(p, true) - bound(p, false);
+  }
+
+  /**
+   * Find the first occurrence of a pattern in the corpus.
+   * 
+   * @param pattern sequence to find
+   * @return the lowest offset of the pattern in the corpus or <code>-1</code> if it does not occur
+   * @throws IllegalArgumentException if the pattern is empty
+   */
+  public int find(final List<E> pattern) {
+    final int[] p = intern(pattern);
+    if (p == null) return -1;
+    final int lo = bound(p, false);
+    final int hi = bound(p, true);
+    return (lo == hi) ? -1 : minimum(lo, hi);
+  }
+
+  /**
+   * Find the lowest offset of the suffixes ranked in [lo, hi), scanning the partial blocks at both
+   * ends and looking up the whole blocks between them in the range minimum table.
+   */
+  private int minimum(int lo, int hi) {
+    final int first = (lo + BLOCK - 1) / BLOCK; // the first whole block
+    final int last = hi / BLOCK; // the block after the last whole block
+    int offset = Integer.MAX_VALUE;
+    if (first >= last) {
+      for (int r = lo; r < hi; r++)
+        offset = Math.min(offset, suffixes.get(r));
+      return offset;
+    }
+    for (int r = lo; r < first * BLOCK; r++)
+      offset = Math.min(offset, suffixes.get(r));
+    for (int r = last * BLOCK; r < hi; r++)
+      offset = Math.min(offset, suffixes.get(r));
+    final int k = 31 - Integer.numberOfLeadingZeros(last - first);
+    final int[] runs = minima()[k]; // two (overlapping) runs of 2^k blocks cover [first, last)
+    return Math.min(offset, Math.min(runs[first], runs[last - (1 << k)]));
+  }
+
+  /** Return the range minimum table, building it on first use (by any thread). */
+  private int[][] minima() {
+    int[][] table = minima;
+    if (table == null) {
+      final int blocks = size / BLOCK;
+      int levels = 1;
+      while ((1 << levels) <= blocks)
+        levels++;
+      table = new int[levels][];
+      table[0] = new int[blocks];
+      for (int b = 0; b < blocks; b++) {
+        int offset = Integer.MAX_VALUE;
+        for (int r = b * BLOCK; r < (b + 1) * BLOCK; r++)
+          offset = Math.min(offset, suffixes.get(r));
+        table[0][b] = offset;
+      }
+      for (int k = 1; k < levels; k++) {
+        final int[] half = table[k - 1];
+        table[k] = new int[blocks - (1 << k) + 1];
+        for (int b = 0; b < table[k].length; b++)
+          table[k][b] = Math.min(half[b], half[b + (1 << (k - 1))]);
+      }
+      minima = table;
+    }
+    return table;
+  }
+
+  /**
+   * Find all occurrences of a pattern in the corpus.
+   * 
+   * @param pattern sequence to find
+   * @return the offsets of all (possibly overlapping) occurrences in ascending order
+   * @throws IllegalArgumentException if the pattern is empty
+   */
+  public int[] findAll(final List<E> pattern) {
+    final int[] p = intern(pattern);
+    if (p == null) return new int[0];
+    final int lo = bound(p, false);
+    int hi = lo;
+    if (lo < size && startsWith(suffixes.get(lo), p)) {
+      // the suffixes sharing the pattern as prefix follow the first one
+      for (hi = lo + 1; hi < size && lcp.get(hi) >= p.length; hi++) {}
+    }
+    final int[] offsets = new int[hi - lo];
+    for (int r = lo; r < hi; r++)
+      offsets[r - lo] = suffixes.get(r);
+    Arrays.sort(offsets);
+    return offsets;
+  }
+
+  /** Return the interned pattern or <code>null</code> if it has elements not in the corpus. */
+  private int[] intern(final List<E> pattern) {
+    if (pattern.size() == 0) throw new IllegalArgumentException("empty patterns are illegal");
+    final int[] p = new int[pattern.size()];
+    int i = 0;
+    for (E element : pattern) {
+      Integer id = ids.get(element);
+      if (id == null) return null;
+      p[i++] = id;
+    }
+    return p;
+  }
+
+  /** Check if the suffix at <code>offset</code> starts with the pattern. */
+  private boolean startsWith(int offset, int[] p) {
+    return compare(offset, p, 0) == 0;
+  }
+
+  /**
+   * Compare the suffix at an offset with a pattern, skipping a known common prefix.
+   * 
+   * @return a negative number if the suffix sorts before the pattern, zero if it starts with the
+   *         pattern, and a positive number otherwise; the magnitude minus one is the length of
+   *         the common prefix
+   */
+  private int compare(int offset, int[] p, int skip) {
+    int i = skip;
+    while (i < p.length && offset + i < size && text.get(offset + i) == p[i])
+      i++;
+    if (i == p.length) return 0;
+    if (offset + i == size || text.get(offset + i) < p[i]) return -(i + 1);
+    return i + 1;
+  }
+
+  /**
+   * Binary search for the first suffix that does not sort before the pattern or, if
+   * <code>upper</code> is set, that sorts after it, skipping the prefix the pattern shares with
+   * both ends of the search interval.
+   * 
+   * @return the rank of that suffix (<code>size()</code> if there is none)
+   */
+  private int bound(final int[] p, final boolean upper) {
+    int lo = 0, hi = size; // the rank found is in [lo, hi]
+    int loLcp = 0, hiLcp = 0; // the prefix the pattern shares with the suffixes at lo-1 and hi
+    while (lo < hi) {
+      final int mid = (lo + hi) >>> 1;
+      final int c = compare(suffixes.get(mid), p, Math.min(loLcp, hiLcp));
+      final boolean before = (c < 0 || upper && c == 0);
+      if (before) {
+        lo = mid + 1;
+        loLcp = (c == 0) ? p.length : -c - 1;
+      } else {
+        hi = mid;
+        hiLcp = (c == 0) ? p.length : c - 1;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * Save the index to a file.
+   * <p>
+   * The elements of the corpus have to be {@link java.io.Serializable serializable}, and the
+   * corpus may have at most {@value #MAX_SAVED} elements. The arrays are written in the native
+   * byte order, which the file records.
+   * 
+   * @param file to write
+   * @throws IOException if the file cannot be written, the elements cannot be serialized, or the
+   *         corpus is too long
+   */
+  public void save(final File file) throws IOException {
+    if (size > MAX_SAVED) throw new IOException("corpus too long to save: " + size);
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.setLength(0);
+      final FileChannel channel = raf.getChannel();
+      final ByteBuffer buffer = ByteBuffer.allocate(CHUNK); // big-endian for the header
+      buffer.putInt(MAGIC).putInt(size).putInt(vocabulary.size());
+      buffer.putInt((ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN) ? 0 : 1).flip();
+      write(channel, buffer);
+      buffer.order(ByteOrder.nativeOrder());
+      write(channel, text, buffer);
+      write(channel, suffixes, buffer);
+      write(channel, lcp, buffer);
+      // the vocabulary after the arrays
+      final ObjectOutputStream out = new ObjectOutputStream(Channels.newOutputStream(channel));
+      out.writeObject(new ArrayList<E>(vocabulary));
+      out.flush();
+      channel.force(false);
+    } finally {
+      raf.close();
+    }
+  }
+
+  /** Write an array to a channel in chunks, using a buffer (in the array's byte order). */
+  private static void write(FileChannel channel, IntBuffer array, ByteBuffer buffer)
+      throws IOException {
+    final IntBuffer source = array.duplicate();
+    source.clear();
+    while (source.hasRemaining()) {
+      buffer.clear();
+      final IntBuffer chunk = buffer.asIntBuffer();
+      final int n = Math.min(chunk.remaining(), source.remaining());
+      for (int i = 0; i < n; i++)
+        chunk.put(source.get());
+      buffer.limit(4 * n);
+      write(channel, buffer);
+    }
+  }
+
+  /** Write all remaining bytes of a buffer to a channel. */
+  private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining())
+      channel.write(buffer);
+  }
+
+  /**
+   * Load an index from a file, memory-mapping its arrays.
+   * 
+   * @param file to read
+   * @return the index
+   * @throws IOException if the file cannot be read or is not a saved index
+   */
+  @SuppressWarnings("unchecked")
+  public static <E> CorpusIndex<E> load(final File file) throws IOException {
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      final FileChannel channel = raf.getChannel();
+      final ByteBuffer header = ByteBuffer.allocate(HEADER);
+      while (header.hasRemaining() && channel.read(header) != -1) {}
+      header.flip();
+      if (header.remaining() < HEADER || header.getInt() != MAGIC)
+        throw new IOException("not a corpus index: " + file);
+      final int n = header.getInt();
+      header.getInt(); // the vocabulary size
+      final ByteOrder order =
+          (header.getInt() == 0) ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+      if (n < 0 || n > MAX_SAVED) throw new IOException("corrupt corpus index: " + file);
+      // the mappings remain valid after the file is closed
+      final IntBuffer text = map(channel, HEADER, n, order);
+      final IntBuffer suffixes = map(channel, HEADER + 4L * n, n, order);
+      final IntBuffer lcp = map(channel, HEADER + 8L * n, n, order);
+      channel.position(HEADER + 12L * n);
+      final List<E> vocabulary =
+          (List<E>) new ObjectInputStream(Channels.newInputStream(channel)).readObject();
+      return new CorpusIndex<E>(vocabulary, text, suffixes, lcp);
+    } catch (ClassNotFoundException e) {
+      throw new IOException("unknown element class: " + e.getMessage());
+    } finally {
+      raf.close();
+    }
+  }
+
+  /** Map <code>length</code> ints of a channel from <code>offset</code> (in bytes). */
+  private static IntBuffer map(FileChannel channel, long offset, int length, ByteOrder order)
+      throws IOException {
+    return channel.map(FileChannel.MapMode.READ_ONLY, offset, 4L * length).order(order)
+        .asIntBuffer();
+  }
+}
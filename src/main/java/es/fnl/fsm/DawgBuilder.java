@@ -0,0 +1,119 @@
+/* Created on Oct 19, 2026 by Florian Leitner.
+ * Copyright 2026. All rights reserved. */
+package es.fnl.fsm;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A builder that compiles an alternation of many literal sequences of transitions into a
+ * {@link Pattern} that is a minimal acyclic automaton (a DAWG), sharing the common prefixes and
+ * suffixes of the sequences.
+ * <p>
+ * Compared to an alternation built with nested {@link Pattern#branch(Pattern, Pattern) branches},
+ * where every sequence starts its own path behind a fan-out of epsilon transitions, the matcher
+ * only tests each distinct first transition once per offset, and the automaton has no more states
+ * than needed to tell the remaining suffixes apart. Transitions are shared if they are equal, so
+ * the sequences should reuse the same transition instances or transitions that implement
+ * <code>equals(Object)</code> and <code>hashCode()</code>.
+ * <p>
+ * The sequences are collected in a trie, so they can be added in any order; {@link #build()} then
+ * registers the states bottom-up, merging each state with an equivalent one (same acceptance and
+ * the same transitions into the same registered states) if it has been registered before, as in
+ * Daciuk's incremental construction. The pattern has a single exit state, so it can be used with
+ * {@link Pattern#chain(Pattern, Pattern)} and {@link Pattern#capture(Pattern)} like any other.
+ * 
+ * @author Florian Leitner
+ */
+public final class DawgBuilder<E> {
+  /** The root of the trie of all sequences added so far. */
+  private final Node<E> root = new Node<E>();
+  /** The number of distinct sequences added so far. */
+  private int size = 0;
+
+  /** A node of the trie. */
+  private static final class Node<E> {
+    final Map<Transition<E>, Node<E>> children = new HashMap<Transition<E>, Node<E>>();
+    boolean accept = false;
+  }
+
+  /**
+   * Add a sequence of transitions to the alternation.
+   * 
+   * @param sequence of transitions to match (if empty, the pattern matches the empty sequence)
+   * @return itself/this builder
+   */
+  public DawgBuilder<E> add(List<? extends Transition<E>> sequence) {
+    Node<E> node = root;
+    for (Transition<E> t : sequence) {
+      Node<E> child = node.children.get(t);
+      if (child == null) {
+        child = new Node<E>();
+        node.children.put(t, child);
+      }
+      node = child;
+    }
+    if (!node.accept) {
+      node.accept = true;
+      size++;
+    }
+    return this;
+  }
+
+  /** Returns the number of distinct sequences added so far. */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Compile the alternation of all sequences added so far into a new pattern.
+   * <p>
+   * The builder can be used to add more sequences and build further patterns afterwards.
+   * 
+   * @return a minimal NFA matching any of the sequences
+   * @throws IllegalStateException if no sequence has been added
+   */
+  public Pattern<E> build() {
+    if (size == 0) throw new IllegalStateException("no sequences added");
+    final State<E> exit = new State<E>();
+    State<E> entry = register(root, new HashMap<List<Object>, State<E>>(), exit);
+    if (entry == exit) {
+      // only the empty sequence was added
+      entry = new State<E>();
+      entry.addEpsilonTransition(exit);
+    }
+    return new Pattern<E>(entry, exit);
+  }
+
+  /**
+   * Return the registered state that is equivalent to a trie node, registering the node's
+   * descendants first.
+   * <p>
+   * All leaves accept, so they are all represented by the exit state; other accepting nodes get
+   * an epsilon transition to it.
+   * 
+   * @param node to register
+   * @param register of states by their signature (acceptance and transitions)
+   * @param exit state of the pattern
+   * @return the state representing the node
+   */
+  private State<E> register(Node<E> node, Map<List<Object>, State<E>> register, State<E> exit) {
+    if (node.children.isEmpty()) return exit;
+    final Map<Transition<E>, State<E>> targets =
+        new HashMap<Transition<E>, State<E>>(node.children.size() * 2);
+    for (Map.Entry<Transition<E>, Node<E>> child : node.children.entrySet())
+      targets.put(child.getKey(), register(child.getValue(), register, exit));
+    final List<Object> signature = Arrays.<Object> asList(node.accept, targets);
+    State<E> state = register.get(signature);
+    if (state == null) {
+      state = new State<E>();
+      for (Map.Entry<Transition<E>, State<E>> target : targets.entrySet())
+        state.addTransition(target.getKey(), target.getValue());
+      if (node.accept) state.addEpsilonTransition(exit);
+      register.put(signature, state);
+    }
+    return state;
+  }
+}
@@ -0,0 +1,444 @@
+/* Created on Oct 19, 2026 by Florian Leitner.
+ * Copyright 2026. All rights reserved. */
+package es.fnl.fsm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A multi-pattern <b>exact matcher</b> for (very large) dictionaries of sequences, using the
+ * <b>Aho-Corasick</b> automaton, i.e., the KMP failure function generalized to a trie of patterns.
+ * <p>
+ * The elements are interned (mapped to integer IDs, using <code>equals(Object)</code>, as the
+ * exact matchers do), and the automaton's tables are laid out in a single {@link IntBuffer}
+ * outside the heap (in the native byte order): each state's outgoing transitions are sorted by
+ * label (so they are found by binary search), and each state has a failure link, a link to the
+ * next state on its failure path that ends a dictionary entry, the index of the entry it ends (if
+ * any), and its depth. Therefore, the heap only holds the vocabulary of distinct elements,
+ * independent of the number and length of the dictionary entries; the tables are only built on the
+ * heap while the dictionary is compiled.
+ * As a buffer holds at most {@link Integer#MAX_VALUE} bytes, the tables are limited to 2 GB, i.e.,
+ * about 76 million states.
+ * <p>
+ * A dictionary can be {@link #save(File) saved} to a file and {@link #load(File) loaded} again, in
+ * which case the tables are memory-mapped read-only, so that all JVMs on a host that load the same
+ * file share the same pages; only the vocabulary is deserialized. The file records the byte order
+ * of the tables, so it can be loaded on a host with another native byte order (although the
+ * tables are slower to read there).
+ * <p>
+ * Dictionaries are immutable and therefore <b>thread-safe</b>.
+ * 
+ * @author Florian Leitner
+ */
+public final class DictionaryMatcher<E> {
+  /** The distinct elements of the dictionary, by ID. */
+  private final List<E> vocabulary;
+  /** The IDs of the distinct elements. */
+  private final Map<E, Integer> ids;
+  /** The bytes of the table. */
+  private final ByteBuffer data;
+  /** The automaton (see the section offsets below). */
+  private final IntBuffer table;
+  /** The number of states. */
+  private final int states;
+  /** The number of dictionary entries. */
+  private final int size;
+  // the offsets of the table sections: the first transition of each state (plus the end of the
+  // last state's transitions), the transition labels and targets, and the failure links, output
+  // links, entry indices, and depths of all states
+  private final int labels, targets, failure, link, output, depth;
+
+  private static final int MAGIC = 0x46534d44; // "FSMD"
+  // magic number, byte order (0 for big-endian), states, entries, and vocabulary size
+  private static final int HEADER = 20;
+
+  /**
+   * Compile a dictionary.
+   * <p>
+   * The entries are indexed in the order of the iteration; if an entry occurs more than once, its
+   * matches are reported with the index of its first occurrence.
+   * 
+   * @param entries sequences to match
+   * @throws IllegalArgumentException if any entry is empty or the tables would exceed 2 GB
+   */
+  public DictionaryMatcher(final Iterable<? extends List<E>> entries) {
+    vocabulary = new ArrayList<E>();
+    ids = new HashMap<E, Integer>();
+    final Trie trie = new Trie();
+    int count = 0;
+    for (List<E> entry : entries) {
+      if (entry.isEmpty()) throw new IllegalArgumentException("empty patterns are illegal");
+      int state = 0;
+      for (E element : entry) {
+        Integer id = ids.get(element);
+        if (id == null) {
+          id = vocabulary.size();
+          ids.put(element, id);
+          vocabulary.add(element);
+        }
+        state = trie.child(state, id);
+      }
+      if (trie.output[state] == -1) trie.output[state] = count;
+      count++;
+    }
+    size = count;
+    states = trie.size;
+    data = ByteBuffer.allocateDirect(tableSize(states)).order(ByteOrder.nativeOrder());
+    table = data.asIntBuffer();
+    labels = states + 1;
+    targets = labels + states - 1;
+    failure = targets + states - 1;
+    link = failure + states;
+    output = link + states;
+    depth = output + states;
+    compile(trie);
+  }
+
+  /**
+   * Return the size of the tables of an automaton.
+   * 
+   * @param states of the automaton
+   * @return the size in bytes
+   * @throws IllegalArgumentException if the tables would exceed 2 GB
+   */
+  static int tableSize(long states) {
+    final long bytes = 4L * (7L * states - 1);
+    if (bytes > Integer.MAX_VALUE)
+      throw new IllegalArgumentException("too many states for a 2 GB table: " + states);
+    return (int) bytes;
+  }
+
+  /** Create a dictionary from its (loaded) parts. */
+  private DictionaryMatcher(List<E> vocabulary, ByteBuffer data, int states, int size) {
+    this.vocabulary = vocabulary;
+    ids = new HashMap<E, Integer>();
+    for (int id = 0; id < vocabulary.size(); id++)
+      ids.put(vocabulary.get(id), id);
+    this.data = data;
+    table = data.asIntBuffer();
+    this.states = states;
+    this.size = size;
+    labels = states + 1;
+    targets = labels + states - 1;
+    failure = targets + states - 1;
+    link = failure + states;
+    output = link + states;
+    depth = output + states;
+  }
+
+  /**
+   * The trie of the dictionary entries while it is built, with the children of each node in a
+   * linked list (except for the root, whose children are indexed by label).
+   */
+  private static final class Trie {
+    int size = 1;
+    int[] label = new int[16];
+    int[] firstChild = new int[16];
+    int[] nextSibling = new int[16];
+    int[] output = new int[16];
+    int[] depth = new int[16];
+    int[] rootChild = new int[16];
+
+    Trie() {
+      output[0] = -1;
+    }
+
+    /** Return the child of a node with a label, adding it if necessary. */
+    int child(int node, int id) {
+      if (node == 0 && id < rootChild.length && rootChild[id] != 0) return rootChild[id];
+      if (node != 0) {
+        for (int c = firstChild[node]; c != 0; c = nextSibling[c])
+          if (label[c] == id) return c;
+      }
+      if (size == label.length) {
+        label = grow(label);
+        firstChild = grow(firstChild);
+        nextSibling = grow(nextSibling);
+        output = grow(output);
+        depth = grow(depth);
+      }
+      final int c = size++;
+      label[c] = id;
+      output[c] = -1;
+      depth[c] = depth[node] + 1;
+      nextSibling[c] = firstChild[node];
+      firstChild[node] = c;
+      if (node == 0) {
+        while (id >= rootChild.length)
+          rootChild = grow(rootChild);
+        rootChild[id] = c;
+      }
+      return c;
+    }
+
+    private static int[] grow(int[] array) {
+      final int[] grown = new int[array.length * 2];
+      System.arraycopy(array, 0, grown, 0, array.length);
+      return grown;
+    }
+  }
+
+  /**
+   * Lay out the trie in the table in breadth-first order, with the transitions of each state sorted
+   * by label, and compute the failure and output links in the same order.
+   */
+  private void compile(final Trie trie) {
+    final int[] node = new int[trie.size]; // the trie node of each state
+    int next = 1; // the next state number to assign
+    int edge = 0; // the next transition to write
+    long[] children = new long[16];
+    for (int s = 0; s < states; s++) {
+      final int n = node[s];
+      table.put(s, edge);
+      int k = 0;
+      for (int c = trie.firstChild[n]; c != 0; c = trie.nextSibling[c]) {
+        if (k == children.length) {
+          final long[] grown = new long[k * 2];
+          System.arraycopy(children, 0, grown, 0, k);
+          children = grown;
+        }
+        children[k++] = ((long) trie.label[c] << 32) | c;
+      }
+      Arrays.sort(children, 0, k);
+      for (int i = 0; i < k; i++) {
+        final int c = (int) children[i];
+        node[next] = c;
+        table.put(labels + edge, trie.label[c]);
+        table.put(targets + edge, next++);
+        edge++;
+      }
+      table.put(output + s, trie.output[n]);
+      table.put(depth + s, trie.depth[n]);
+    }
+    table.put(states, edge);
+    // failure and output links, in breadth-first order
+    table.put(failure, -1);
+    table.put(link, -1);
+    for (int s = 0; s < states; s++) {
+      for (int e = table.get(s), end = table.get(s + 1); e < end; e++) {
+        final int id = table.get(labels + e);
+        final int t = table.get(targets + e);
+        int f = (s == 0) ? -1 : table.get(failure + s);
+        int g = -1;
+        while (f != -1 && (g = transition(f, id)) == -1)
+          f = table.get(failure + f);
+        final int fail = (f == -1) ? 0 : g;
+        table.put(failure + t, fail);
+        table.put(link + t, (table.get(output + fail) != -1) ? fail : table.get(link + fail));
+      }
+    }
+  }
+
+  /** Return the target of the transition of a state with a label, or <code>-1</code> if none. */
+  private int transition(int state, int id) {
+    int lo = table.get(state), hi = table.get(state + 1) - 1;
+    while (lo <= hi) {
+      final int mid = (lo + hi) >>> 1;
+      final int label = table.get(labels + mid);
+      if (label < id) lo = mid + 1;
+      else if (label > id) hi = mid - 1;
+      else return table.get(targets + mid);
+    }
+    return -1;
+  }
+
+  /** Return the state reached from a state with an element, following failure links. */
+  private int step(int state, E element) {
+    final Integer id = ids.get(element);
+    if (id == null) return 0; // an unknown element: return to the initial state
+    for (int t; state != -1; state = table.get(failure + state))
+      if ((t = transition(state, id)) != -1) return t;
+    return 0;
+  }
+
+  /** Return the first state ending an entry on the failure path of a state, or <code>-1</code>. */
+  private int accepting(int state) {
+    return (table.get(output + state) != -1) ? state : table.get(link + state);
+  }
+
+  /** Returns the number of dictionary entries (including duplicates). */
+  public int size() {
+    return size;
+  }
+
+  /** Returns the number of states of the automaton. */
+  public int states() {
+    return states;
+  }
+
+  /** Returns the number of distinct elements in the dictionary. */
+  public int radix() {
+    return vocabulary.size();
+  }
+
+  /**
+   * Determine if any dictionary entry occurs in a stream.
+   * <p>
+   * The iteration will halt <i>after</i> the last element of the first occurrence has been found
+   * or consumes the entire stream otherwise.
+   * 
+   * @param seqIt the sequence stream to scan
+   * @return <code>true</code> if the stream contained an entry
+   */
+  public boolean scan(final Iterator<E> seqIt) {
+    int state = 0;
+    while (seqIt.hasNext()) {
+      state = step(state, seqIt.next());
+      if (accepting(state) != -1) return true;
+    }
+    return false;
+  }
+
+  /**
+   * Find the dictionary entry that occurs first in the <code>sequence</code>.
+   * 
+   * @param sequence to scan
+   * @return the offset of the entry that ends first (the longest one, if several end there) or
+   *         <code>-1</code> if no entry occurs
+   * @see DictionaryMatcher#find(List, int)
+   */
+  public int find(final List<E> sequence) {
+    return find(sequence, 0);
+  }
+
+  /**
+   * Find the dictionary entry that occurs first in the <code>sequence</code> at or after the
+   * <code>offset</code>.
+   * 
+   * @param sequence to scan
+   * @param offset index in sequence where to start
+   * @return the offset of the entry that ends first (the longest one, if several end there) or
+   *         <code>-1</code> if no entry occurs
+   */
+  public int find(final List<E> sequence, int offset) {
+    int state = 0;
+    for (Iterator<E> it = sequence.listIterator(offset); it.hasNext(); offset++) {
+      state = step(state, it.next());
+      final int accept = accepting(state);
+      if (accept != -1) return offset + 1 - table.get(depth + accept);
+    }
+    return -1;
+  }
+
+  /**
+   * Find all occurrences of the dictionary entries in the <code>sequence</code>.
+   * <p>
+   * The occurrences are returned as (start, end, entry) triples, ordered by their end offsets and
+   * the occurrences ending at the same offset from the longest to the shortest. I.e., the length
+   * of the resulting array will always be a multiple of three.
+   * 
+   * @param sequence to scan
+   * @return the start and end offset and the entry index of all (possibly overlapping) occurrences
+   */
+  public int[] findAll(final List<E> sequence) {
+    int[] found = new int[48];
+    int count = 0;
+    int state = 0;
+    int offset = 0;
+    for (E element : sequence) {
+      offset++;
+      state = step(state, element);
+      for (int s = accepting(state); s != -1; s = table.get(link + s)) {
+        if (count == found.length) {
+          final int[] grown = new int[count * 2];
+          System.arraycopy(found, 0, grown, 0, count);
+          found = grown;
+        }
+        found[count++] = offset - table.get(depth + s);
+        found[count++] = offset;
+        found[count++] = table.get(output + s);
+      }
+    }
+    final int[] triples = new int[count];
+    System.arraycopy(found, 0, triples, 0, count);
+    return triples;
+  }
+
+  /**
+   * Save the dictionary to a file, so that it can be {@link #load(File) loaded} (and its tables
+   * memory-mapped) again.
+   * <p>
+   * The elements have to be {@link java.io.Serializable serializable}.
+   * 
+   * @param file to write
+   * @throws IOException if the file cannot be written
+   */
+  public void save(final File file) throws IOException {
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.setLength(0);
+      final FileChannel channel = raf.getChannel();
+      final ByteBuffer header = ByteBuffer.allocate(HEADER);
+      header.putInt(MAGIC).putInt((data.order() == ByteOrder.BIG_ENDIAN) ? 0 : 1);
+      header.putInt(states).putInt(size).putInt(vocabulary.size()).flip();
+      write(channel, header);
+      write(channel, data.duplicate()); // the table, in its byte order
+      // the vocabulary after the table
+      final ObjectOutputStream out = new ObjectOutputStream(Channels.newOutputStream(channel));
+      out.writeObject(new ArrayList<E>(vocabulary));
+      out.flush();
+      channel.force(false);
+    } finally {
+      raf.close();
+    }
+  }
+
+  /** Write all remaining bytes of a buffer to a channel. */
+  private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+    buffer.rewind();
+    while (buffer.hasRemaining())
+      channel.write(buffer);
+  }
+
+  /**
+   * Load a dictionary from a file, memory-mapping its tables.
+   * 
+   * @param file to read
+   * @return the dictionary
+   * @throws IOException if the file cannot be read or is not a saved dictionary
+   */
+  @SuppressWarnings("unchecked")
+  public static <E> DictionaryMatcher<E> load(final File file) throws IOException {
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      final FileChannel channel = raf.getChannel();
+      final ByteBuffer header = ByteBuffer.allocate(HEADER);
+      while (header.hasRemaining() && channel.read(header) != -1) {}
+      header.flip();
+      if (header.remaining() < HEADER || header.getInt() != MAGIC)
+        throw new IOException("not a dictionary: " + file);
+      final ByteOrder order =
+          (header.getInt() == 0) ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+      final int states = header.getInt();
+      final int size = header.getInt();
+      if (states < 1 || 4L * (7L * states - 1) > Integer.MAX_VALUE)
+        throw new IOException("corrupt dictionary: " + file);
+      final int length = tableSize(states);
+      // the mapping remains valid after the file is closed
+      final ByteBuffer data =
+          channel.map(FileChannel.MapMode.READ_ONLY, HEADER, length).order(order);
+      channel.position(HEADER + (long) length);
+      final List<E> vocabulary =
+          (List<E>) new ObjectInputStream(Channels.newInputStream(channel)).readObject();
+      return new DictionaryMatcher<E>(vocabulary, data, states, size);
+    } catch (ClassNotFoundException e) {
+      throw new IOException("unknown element class: " + e.getMessage());
+    } finally {
+      raf.close();
+    }
+  }
+}
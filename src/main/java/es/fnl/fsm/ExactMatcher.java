@@ -2,7 +2,9 @@
  * Copyright 2013. All rights reserved. */
 package es.fnl.fsm;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -13,6 +15,18 @@ import java.util.Map;
  * As this is an exact matcher, elements are compared using <code>equals(Object)</code>. Note that
  * the empty pattern is illegal, while a <code>null</code> in the pattern is allowed to match a
  * <code>null</code> in the sequence if at the right position.
+ * <p>
+ * Plain Boyer-Moore makes O(n&middot;m) element comparisons in the worst case (periodic patterns
+ * and sequences). If comparisons are expensive, the matcher can be created in <i>linear</i> mode,
+ * which uses the <b>Apostolico-Giancarlo</b> variant: it remembers the length of the pattern
+ * suffix matched at each position of the sequence and skips over those comparisons later, making
+ * at most 2n comparisons (per call of {@link #find(List, int)}, or for all matches of
+ * {@link #findAll(List)}).
+ * <p>
+ * For long patterns over small alphabets (at least {@value #ORACLE_LENGTH} elements and at most
+ * one distinct element per {@value #ORACLE_RATIO} elements), the matcher delegates to an
+ * {@link OracleMatcher} instead, unless it is in linear mode or the oracle's transition table
+ * would have more than {@value #ORACLE_TABLE} entries.
  * 
  * @author Florian Leitner
  */
@@ -21,6 +35,19 @@ public final class ExactMatcher<E> extends MatcherBase<E> {
   private final Map<E, Integer> shifts;
   /** The Boyer-Moore suffix match jump table. */
   private final int[] suffix;
+  /** The lengths of the longest pattern suffix ending at each position (linear mode only). */
+  private final int[] suffixes;
+  /** The good suffix shift for a mismatch at each pattern position (linear mode only). */
+  private final int[] goodSuffix;
+  /** The factor oracle matcher used for long patterns over small alphabets (if any). */
+  private final OracleMatcher<E> oracle;
+
+  /** The minimum pattern length to use the factor oracle. */
+  static final int ORACLE_LENGTH = 32;
+  /** The minimum ratio of pattern length to radix to use the factor oracle. */
+  static final int ORACLE_RATIO = 8;
+  /** The maximum size of the factor oracle's transition table (16 MB). */
+  static final int ORACLE_TABLE = 1 << 22;
 
   /**
    * Create a matcher for a pattern sequence, preprocessing the offset and suffix jump tables.
@@ -29,6 +56,18 @@ public final class ExactMatcher<E> extends MatcherBase<E> {
    * @throws IllegalArgumentException if the pattern is empty
    */
   public ExactMatcher(final List<E> pattern) {
+    this(pattern, false);
+  }
+
+  /**
+   * Create a matcher for a pattern sequence, preprocessing the offset and suffix jump tables.
+   * 
+   * @param pattern sequence that should lead to a match
+   * @param linear if <code>true</code>, use the Apostolico-Giancarlo algorithm to guarantee a
+   *        linear number of element comparisons
+   * @throws IllegalArgumentException if the pattern is empty
+   */
+  public ExactMatcher(final List<E> pattern, boolean linear) {
     super(pattern);
     shifts = new HashMap<E, Integer>();
     suffix = new int[end];
@@ -47,6 +86,47 @@ public final class ExactMatcher<E> extends MatcherBase<E> {
       int slen = suffixLength(i);
       suffix[slen] = end - 1 - i + slen;
     }
+    if (linear) {
+      suffixes = suffixes();
+      goodSuffix = goodSuffix(suffixes);
+    } else {
+      suffixes = null;
+      goodSuffix = null;
+    }
+    if (!linear && end >= ORACLE_LENGTH && radix() * ORACLE_RATIO <= end &&
+        (end + 1L) * radix() <= ORACLE_TABLE) oracle = new OracleMatcher<E>(this.pattern);
+    else oracle = null;
+  }
+
+  /** Compute the length of the longest pattern suffix ending at each position of the pattern. */
+  private int[] suffixes() {
+    final int[] suff = new int[end];
+    suff[end - 1] = end;
+    for (int i = end - 2, f = 0, g = end - 1; i >= 0; --i) {
+      if (i > g && suff[i + end - 1 - f] < i - g) {
+        suff[i] = suff[i + end - 1 - f];
+      } else {
+        if (i < g) g = i;
+        f = i;
+        while (g >= 0 && match(pattern.get(g), g + end - 1 - f))
+          --g;
+        suff[i] = f - g;
+      }
+    }
+    return suff;
+  }
+
+  /** Compute the window shift for a mismatch at each position (or a match, at zero). */
+  private int[] goodSuffix(final int[] suff) {
+    final int[] shift = new int[end];
+    for (int i = 0; i < end; ++i)
+      shift[i] = end;
+    for (int i = end - 1, j = 0; i >= 0; --i)
+      if (suff[i] == i + 1) for (; j < end - 1 - i; ++j)
+        if (shift[j] == end) shift[j] = end - 1 - i;
+    for (int i = 0; i <= end - 2; ++i)
+      shift[end - 1 - suff[i]] = end - 1 - i;
+    return shift;
   }
 
   /** Check if the elements after <code>index</code> are also a prefix of the pattern. */
@@ -97,19 +177,185 @@ public final class ExactMatcher<E> extends MatcherBase<E> {
    * @return the offset of the match or <code>-1</code> if no match is found
    */
   public int find(final List<E> sequence, int offset) {
+    if (probe == null) return search(sequence, offset, null);
+    probe.begin();
+    try {
+      return search(sequence, offset, probe.call);
+    } finally {
+      probe.end(this);
+    }
+  }
+
+  /**
+   * Find all (possibly overlapping) offsets at which the pattern matches in the
+   * <code>sequence</code>.
+   * <p>
+   * In linear mode, this makes a single pass over the sequence; otherwise, it is the same as
+   * repeating {@link #find(List, int)} after each match.
+   * 
+   * @param sequence list to align the pattern with
+   * @return the offsets of all matches in ascending order
+   */
+  public int[] findAll(final List<E> sequence) {
+    final List<Integer> found = new ArrayList<Integer>();
+    if (probe != null) probe.begin();
+    try {
+      final MatchStats call = (probe == null) ? null : probe.call;
+      if (suffixes == null) {
+        for (int o = search(sequence, 0, call); o != -1; o = search(sequence, o + 1, call))
+          found.add(o);
+      } else {
+        searchLinear(sequence, 0, found, call);
+      }
+    } finally {
+      if (probe != null) probe.end(this);
+    }
+    final int[] offsets = new int[found.size()];
+    for (int i = 0; i < offsets.length; i++)
+      offsets[i] = found.get(i);
+    return offsets;
+  }
+
+  /**
+   * Splits the sequence around the (non-overlapping) matches of the pattern, dropping trailing
+   * empty pieces.
+   * 
+   * @param sequence list to split
+   * @return the pieces of the sequence
+   * @see #split(List, int)
+   */
+  public Iterable<List<E>> split(final List<E> sequence) {
+    return split(sequence, 0);
+  }
+
+  /**
+   * Splits the sequence around the (non-overlapping) matches of the pattern as
+   * {@link Pattern#split(List, int)} does, lazily finding each match with {@link #find(List, int)}
+   * when the piece before it is requested.
+   * <p>
+   * The pieces are {@link List#subList(int, int) views} of the sequence, which therefore must not
+   * be changed while splitting.
+   * 
+   * @param sequence list to split
+   * @param limit the maximum number of pieces if positive (the last piece being the remainder of
+   *        the sequence); if zero, trailing empty pieces are dropped; if negative, all pieces are
+   *        kept
+   * @return the pieces of the sequence
+   */
+  public Iterable<List<E>> split(final List<E> sequence, final int limit) {
+    return new Iterable<List<E>>() {
+      public Iterator<List<E>> iterator() {
+        return new Splitter<E>(sequence, limit) {
+          boolean findDelimiter(int from) {
+            if ((start = find(sequence, from)) == -1) return false;
+            end = start + ExactMatcher.this.end;
+            return true;
+          }
+        };
+      }
+    };
+  }
+
+  /**
+   * The Boyer-Moore search (or the linear or oracle search, if used), counting into
+   * <code>call</code> unless it is <code>null</code>.
+   */
+  private int search(final List<E> sequence, int offset, final MatchStats call) {
+    if (suffixes != null) return searchLinear(sequence, offset, null, call);
+    if (oracle != null) return oracle.search(sequence, offset, call);
     final int size = sequence.size();
     int pointer;
     for (offset += end - 1; offset < size;) {
-      for (pointer = end - 1; match(sequence.get(offset), pointer); --offset, --pointer)
-        if (pointer == 0) return offset;
+      for (pointer = end - 1; match(sequence.get(offset), pointer); --offset, --pointer) {
+        if (pointer == 0) {
+          if (call != null) {
+            call.offsets++;
+            call.comparisons += end;
+          }
+          return offset;
+        }
+      }
+      if (call != null) {
+        call.offsets++;
+        call.comparisons += end - pointer;
+      }
       E e = sequence.get(offset);
       offset += Math.max(suffix[end - 1 - pointer], (shifts.containsKey(e)) ? shifts.get(e) : end);
     }
     return -1;
   }
 
+  /**
+   * The Apostolico-Giancarlo search, counting into <code>call</code> unless it is
+   * <code>null</code>.
+   * <p>
+   * The length of the pattern suffix matched at each sequence position is kept in a ring buffer
+   * over the current window; when the comparison reaches such a position, the suffix lengths tell
+   * if the comparisons up to the end of that earlier match can be skipped, or if the outcome is
+   * already decided.
+   * 
+   * @param sequence list to align the pattern with
+   * @param offset index in sequence where to start the alignments
+   * @param found collects all matches if given, otherwise the search stops at the first one
+   * @param call stats (may be <code>null</code>)
+   * @return the offset of the (first) match or <code>-1</code> if no match is found
+   */
+  private int searchLinear(final List<E> sequence, int offset, final List<Integer> found,
+      final MatchStats call) {
+    final int size = sequence.size();
+    final int[] skip = new int[end]; // matched suffix lengths, by sequence position modulo end
+    int first = -1;
+    while (offset <= size - end) {
+      int i = end - 1;
+      while (i >= 0) {
+        final int k = skip[(offset + i) % end];
+        final int s = suffixes[i];
+        if (k > 0) {
+          if (k > s) {
+            // the earlier match ended within a shorter pattern suffix: a mismatch at i - s
+            if (i + 1 == s) i = -1;
+            else i -= s;
+            break;
+          }
+          i -= k;
+          if (k < s) break; // the earlier match ended with a mismatch at i
+        } else {
+          if (call != null) call.comparisons++;
+          if (match(sequence.get(offset + i), i)) --i;
+          else break;
+        }
+      }
+      if (call != null) call.offsets++;
+      final int shift;
+      if (i < 0) {
+        if (found == null) return offset;
+        if (first == -1) first = offset;
+        found.add(offset);
+        skip[(offset + end - 1) % end] = end;
+        shift = goodSuffix[0];
+      } else {
+        skip[(offset + end - 1) % end] = end - 1 - i;
+        final E e = sequence.get(offset + i);
+        final int badCharacter = ((shifts.containsKey(e)) ? shifts.get(e) : end) - end + 1 + i;
+        shift = Math.max(goodSuffix[i], badCharacter);
+      }
+      // forget the positions that enter the window
+      for (int p = offset + end; p < offset + end + Math.min(shift, end); p++)
+        skip[p % end] = 0;
+      offset += shift;
+    }
+    return first;
+  }
+
   @Override
   public int radix() {
     return shifts.size();
   }
+
+  /** Return the size of the jump tables (and of the oracle's table, if used). */
+  @Override
+  long weight() {
+    return end + shifts.size() + ((suffixes == null) ? 0 : 2L * end) +
+        ((oracle == null) ? 0 : oracle.weight());
+  }
 }
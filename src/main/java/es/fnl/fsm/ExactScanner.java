@@ -70,6 +70,12 @@ public final class ExactScanner<E> extends MatcherBase<E> {
     return dfa.size();
   }
 
+  /** Return the size of the transition tables, one per distinct element. */
+  @Override
+  long weight() {
+    return (long) dfa.size() * end;
+  }
+
   /**
    * Determine if the pattern matches anywhere in a stream.
    * <p>
@@ -80,9 +86,24 @@ public final class ExactScanner<E> extends MatcherBase<E> {
    * @return <code>true</code> if the stream contained the pattern
    */
   public boolean scan(final Iterator<E> seqIt) {
+    if (probe == null) return scan(seqIt, null);
+    probe.begin();
+    try {
+      return scan(seqIt, probe.call);
+    } finally {
+      probe.end(this);
+    }
+  }
+
+  /** The KMP scan, counting into <code>call</code> unless it is <code>null</code>. */
+  private boolean scan(final Iterator<E> seqIt, final MatchStats call) {
     int pointer = 0;
     while (seqIt.hasNext()) {
       pointer = transition(seqIt.next(), pointer);
+      if (call != null) {
+        call.offsets++;
+        call.comparisons++;
+      }
       if (pointer == end) return true;
     }
     return false;
@@ -0,0 +1,316 @@
+/* Created on Oct 19, 2026 by Florian Leitner.
+ * Copyright 2026. All rights reserved. */
+package es.fnl.fsm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The position (Glushkov) automaton of a {@link Pattern} that is too large for a
+ * {@link BitAutomaton}, determinized lazily: each DFA state is a set of positions, and the DFA
+ * states and their transitions are only built when a match operation needs them.
+ * <p>
+ * The positions are the element-consuming transitions of the NFA, as in the bit automaton. A
+ * forward DFA makes the matches of patterns without capture groups, and a reverse DFA scans the
+ * input backwards for the offsets where matches can start (see {@link Matcher}). The transitions of
+ * a DFA state are cached per element, so once the states that the input visits have been built,
+ * each element costs a single hash lookup; therefore, the elements must implement
+ * <code>equals(Object)</code> and <code>hashCode()</code> consistently with the transitions'
+ * {@link Transition#matches(Object) matches} (as, e.g., the exact matchers assume).
+ * <p>
+ * The cache is shared by all matchers of a pattern that {@link Matcher#setLazyDfa(boolean) use}
+ * it and all threads using them (as long as the pattern is not changed), and is lock-free:
+ * states are interned and transitions added with atomic <code>putIfAbsent</code> operations, so
+ * two threads at worst compute the same transition twice. To bound its memory, the cache is
+ * flushed when its states and transitions would take more than {@link #MAX_WORDS} words: as every
+ * state holds a set over all positions, a state is charged its positions (in words of 64) plus
+ * {@link #STATE_WORDS}, and a transition {@link #TRANSITION_WORDS}. Upon a flush, a new
+ * generation of states is started, and searches holding a state of an older generation move on to
+ * the current one the next time they miss a transition.
+ * <p>
+ * Only patterns without runs (counted repetitions or gaps) can be compiled; see
+ * {@link #compile(State, State)}.
+ * <p>
+ * It should never be necessary to directly use this class of the generic FSA implementation.
+ * 
+ * @author Florian Leitner
+ */
+final class LazyDfa<E> {
+  /** The maximum size of the cached states and transitions (per direction) before a flush. */
+  static final long MAX_WORDS = 1L << 19;
+  /** The (approximate) size of a state without its positions. */
+  static final int STATE_WORDS = 16;
+  /** The (approximate) size of a cached transition. */
+  static final int TRANSITION_WORDS = 4;
+  /** The key used for <code>null</code> elements in the transition maps. */
+  private static final Object NULL = new Object();
+  /** <code>true</code> if the pattern matches the empty sequence. */
+  final boolean nullable;
+  /** <code>true</code> if the pattern has capture groups. */
+  final boolean capturing;
+  private final BitSet first; // the positions that can be taken first
+  private final BitSet last; // the positions after which the pattern can accept
+  private final Transition<E>[] transitions; // the distinct transitions
+  private final BitSet[] positions; // the positions of each transition
+  private final BitSet[] follow; // the positions following each position
+  private final BitSet[] precede; // the positions preceding each position
+  private final int stateWords; // the size charged for a state
+  /** The forward DFA, whose states are the positions just taken. */
+  final Dfa forward;
+  /** The reverse DFA, whose states are the positions that lead to an accept state. */
+  final Dfa reverse;
+
+  @SuppressWarnings("unchecked")
+  private LazyDfa(boolean nullable, boolean capturing, BitSet first, BitSet last,
+      List<Transition<E>> labels, List<Integer> labelOf, List<BitSet> follows) {
+    this.nullable = nullable;
+    this.capturing = capturing;
+    this.first = first;
+    this.last = last;
+    transitions = labels.toArray((Transition<E>[]) new Transition<?>[labels.size()]);
+    positions = new BitSet[transitions.length];
+    for (int i = 0; i < positions.length; i++)
+      positions[i] = new BitSet();
+    for (int i = 0; i < labelOf.size(); i++)
+      positions[labelOf.get(i)].set(i);
+    follow = follows.toArray(new BitSet[follows.size()]);
+    precede = new BitSet[follow.length];
+    for (int i = 0; i < precede.length; i++)
+      precede[i] = new BitSet();
+    for (int i = 0; i < follow.length; i++)
+      for (int j = follow[i].nextSetBit(0); j >= 0; j = follow[i].nextSetBit(j + 1))
+        precede[j].set(i);
+    stateWords = STATE_WORDS + (follow.length + 63) / 64;
+    forward = new Dfa(true);
+    reverse = new Dfa(false);
+  }
+
+  /**
+   * Check if another lazy DFA was compiled from an automaton with the same positions, so that its
+   * cached states are valid for this one.
+   */
+  boolean sameAutomaton(LazyDfa<?> other) {
+    return nullable == other.nullable && capturing == other.capturing &&
+        first.equals(other.first) && last.equals(other.last) &&
+        Arrays.equals(transitions, other.transitions) &&
+        Arrays.equals(positions, other.positions) && Arrays.equals(follow, other.follow);
+  }
+
+  /**
+   * Compile the position automaton of the pattern.
+   * 
+   * @param entry state of the pattern
+   * @param exit state of the pattern
+   * @return the automaton or <code>null</code> if the pattern has runs
+   */
+  static <E> LazyDfa<E> compile(State<E> entry, State<E> exit) {
+    final List<State<E>> states = new Pattern<E>(entry, exit).states();
+    final List<State<E>> sources = new ArrayList<State<E>>();
+    final List<State<E>> targets = new ArrayList<State<E>>();
+    final List<Transition<E>> labels = new ArrayList<Transition<E>>();
+    final List<Integer> labelOf = new ArrayList<Integer>();
+    final Map<Transition<E>, Integer> index = new HashMap<Transition<E>, Integer>();
+    boolean capturing = false;
+    for (State<E> s : states) {
+      if (s.runs.size() > 0) return null;
+      if (s.isCapturing()) capturing = true;
+      for (Transition<E> t : s.transitions.keySet()) {
+        Integer label = index.get(t);
+        if (label == null) {
+          label = labels.size();
+          index.put(t, label);
+          labels.add(t);
+        }
+        for (State<E> target : s.transitions.get(t)) {
+          sources.add(s);
+          targets.add(target);
+          labelOf.add(label);
+        }
+      }
+    }
+    // the positions leaving from each state
+    final Map<State<E>, BitSet> leaving = new HashMap<State<E>, BitSet>();
+    for (int i = 0; i < sources.size(); i++) {
+      BitSet bits = leaving.get(sources.get(i));
+      if (bits == null) leaving.put(sources.get(i), bits = new BitSet());
+      bits.set(i);
+    }
+    final Map<State<E>, BitSet> after = new HashMap<State<E>, BitSet>(); // positions after a state
+    final Set<State<E>> accepting = new HashSet<State<E>>(); // states that reach a final state
+    for (State<E> s : states) {
+      final BitSet bits = new BitSet();
+      boolean accepts = false;
+      for (State<E> c : closure(s)) {
+        if (leaving.containsKey(c)) bits.or(leaving.get(c));
+        if (c.isFinal()) accepts = true;
+      }
+      after.put(s, bits);
+      if (accepts) accepting.add(s);
+    }
+    final List<BitSet> follows = new ArrayList<BitSet>(sources.size());
+    final BitSet last = new BitSet();
+    for (int i = 0; i < sources.size(); i++) {
+      follows.add(after.get(targets.get(i)));
+      if (accepting.contains(targets.get(i))) last.set(i);
+    }
+    return new LazyDfa<E>(accepting.contains(entry), capturing, after.get(entry), last, labels,
+        labelOf, follows);
+  }
+
+  /** Return the epsilon closure of a state. */
+  private static <E> Set<State<E>> closure(State<E> state) {
+    final Set<State<E>> closure = new HashSet<State<E>>();
+    final Queue<State<E>> queue = new LinkedList<State<E>>();
+    closure.add(state);
+    queue.add(state);
+    while (!queue.isEmpty()) {
+      for (State<E> next : queue.remove().epsilonTransitions)
+        if (closure.add(next)) queue.add(next);
+    }
+    return closure;
+  }
+
+  /** Return the number of positions (transitions) of the automaton. */
+  int size() {
+    return follow.length;
+  }
+
+  /** Return the positions whose transitions match an element. */
+  private BitSet mask(E element, MatchStats call) {
+    final BitSet mask = new BitSet();
+    for (int i = 0; i < transitions.length; i++)
+      if (transitions[i].matches(element)) mask.or(positions[i]);
+    if (call != null) call.comparisons += transitions.length;
+    return mask;
+  }
+
+  /** Return the union of a relation over a set of positions. */
+  private static BitSet union(BitSet[] relation, BitSet set) {
+    final BitSet union = new BitSet();
+    for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1))
+      union.or(relation[i]);
+    return union;
+  }
+
+  /** A state of a lazy DFA: a set of positions and its cached transitions. */
+  static final class Node {
+    /** The positions of the state (never changed). */
+    final BitSet set;
+    /**
+     * In the forward DFA, <code>true</code> if the pattern can accept after the positions; in the
+     * reverse DFA, <code>true</code> if a match can start before them.
+     */
+    final boolean accept;
+    /** <code>true</code> if the state has no positions, i.e., the search is over. */
+    final boolean dead;
+    private final Generation generation;
+    private final ConcurrentMap<Object, Node> next = new ConcurrentHashMap<Object, Node>();
+
+    Node(BitSet set, boolean accept, Generation generation) {
+      this.set = set;
+      this.accept = accept;
+      this.generation = generation;
+      dead = set.isEmpty();
+    }
+  }
+
+  /** The states interned since the last flush of a DFA's cache. */
+  private static final class Generation {
+    final ConcurrentMap<BitSet, Node> states = new ConcurrentHashMap<BitSet, Node>();
+    final AtomicLong words = new AtomicLong(); // the size of the states and transitions
+    Node start;
+  }
+
+  /** One direction of the lazy DFA, with its cache of states and transitions. */
+  final class Dfa {
+    private final boolean forward;
+    private volatile Generation generation;
+
+    Dfa(boolean forward) {
+      this.forward = forward;
+      generation = newGeneration();
+    }
+
+    private Generation newGeneration() {
+      final Generation g = new Generation();
+      if (forward) {
+        // a pseudo state that is followed by the first positions (and that is not interned)
+        g.start = new Node(first, nullable, g);
+      } else {
+        // all positions are live at the end of the input (the search would hit the end)
+        final BitSet all = new BitSet();
+        all.set(0, follow.length);
+        g.start = intern(g, all);
+      }
+      return g;
+    }
+
+    /** Return the state a search starts in. */
+    Node start() {
+      return generation.start;
+    }
+
+    /**
+     * Return the state reached from a state with an element (built and cached if necessary).
+     * 
+     * @param state the current state
+     * @param element the next element (the preceding one, for the reverse DFA)
+     * @param call stats to count the transition tests into (<code>null</code> if not instrumented)
+     * @return the next state
+     */
+    Node next(Node state, E element, MatchStats call) {
+      final Object key = (element == null) ? NULL : element;
+      Node next = state.next.get(key);
+      if (next != null) return next;
+      final Generation g = generation;
+      if (state.generation != g) {
+        // the cache was flushed: continue in the current generation
+        state = (state == state.generation.start) ? g.start : intern(g, state.set);
+        next = state.next.get(key);
+        if (next != null) return next;
+      }
+      final BitSet set = mask(element, call);
+      if (forward) {
+        set.and((state == g.start) ? first : union(follow, state.set));
+      } else {
+        final BitSet live = union(precede, state.set);
+        live.or(last);
+        set.and(live);
+      }
+      next = intern(g, set);
+      if (state.next.putIfAbsent(key, next) == null &&
+          g.words.addAndGet(TRANSITION_WORDS) > MAX_WORDS)
+        generation = newGeneration(); // flush
+      return next;
+    }
+
+    /** Return the interned state of a set of positions in a generation. */
+    private Node intern(Generation g, BitSet set) {
+      Node node = g.states.get(set);
+      if (node == null) {
+        final boolean accept = forward ? set.intersects(last) : nullable || set.intersects(first);
+        node = new Node(set, accept, g);
+        final Node known = g.states.putIfAbsent(set, node);
+        if (known != null) node = known;
+        else g.words.addAndGet(stateWords);
+      }
+      return node;
+    }
+
+    /** Return the number of states in the current generation of the cache. */
+    int states() {
+      return generation.states.size();
+    }
+  }
+}
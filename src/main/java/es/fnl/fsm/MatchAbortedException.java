@@ -0,0 +1,43 @@
+/* Created on Oct 19, 2026 by Florian Leitner.
+ * Copyright 2026. All rights reserved. */
+package es.fnl.fsm;
+
+/**
+ * Thrown when a {@link Matcher} gives up on a match attempt because its step budget or its time
+ * budget ran out, or because the matching thread was interrupted.
+ * <p>
+ * After this exception, the matcher is in the same state as after a failed match attempt.
+ * 
+ * @author Florian Leitner
+ */
+public class MatchAbortedException extends RuntimeException {
+  private static final long serialVersionUID = 1L;
+
+  /** The reasons why a match attempt can be aborted. */
+  public static enum Reason {
+    /** The maximum number of search steps was exceeded. */
+    STEPS,
+    /** The deadline of the attempt has passed. */
+    DEADLINE,
+    /** The thread running the attempt was interrupted. */
+    INTERRUPTED
+  }
+
+  private final Reason reason;
+
+  /**
+   * Create a new exception.
+   * 
+   * @param reason why the match attempt was aborted
+   * @param offset in the sequence the search had reached
+   */
+  public MatchAbortedException(Reason reason, int offset) {
+    super(String.format("match attempt aborted at offset %d (%s)", offset, reason));
+    this.reason = reason;
+  }
+
+  /** Returns the reason why the attempt was aborted. */
+  public Reason reason() {
+    return reason;
+  }
+}
@@ -0,0 +1,22 @@
+/* Created on Oct 19, 2026 by Florian Leitner.
+ * Copyright 2026. All rights reserved. */
+package es.fnl.fsm;
+
+/**
+ * A callback that receives the {@link MatchStats} of each single call made to an instrumented
+ * matcher, e.g., to bridge the counters to some metrics system.
+ * <p>
+ * The stats instance is reused by the matcher for each call; implementations that need to retain
+ * the counts have to copy them.
+ * 
+ * @author Florian Leitner
+ */
+public interface MatchListener {
+  /**
+   * Receive the counters of one match attempt.
+   * 
+   * @param source the matcher that made the attempt
+   * @param call the counters of that attempt
+   */
+  public void matched(Object source, MatchStats call);
+}
@@ -0,0 +1,82 @@
+/* Created on Oct 19, 2026 by Florian Leitner.
+ * Copyright 2026. All rights reserved. */
+package es.fnl.fsm;
+
+import java.util.Arrays;
+
+/**
+ * An immutable snapshot of a match made by a {@link Matcher}: the offsets of the entire match and
+ * of each capture group, stored as a single array of (start, end) pairs (as returned by
+ * {@link Matcher#groups()}).
+ * <p>
+ * Snapshots are not tied to the matcher that made them and can be freely shared between threads.
+ * 
+ * @author Florian Leitner
+ */
+public final class MatchResult {
+  private final int[] offsets;
+
+  /**
+   * Create a snapshot from the group offsets of a match.
+   * 
+   * @param offsets the (start, end) pairs of the match and its groups; not copied
+   */
+  MatchResult(int[] offsets) {
+    this.offsets = offsets;
+  }
+
+  /** Return the start offset of the match. */
+  public int start() {
+    return offsets[0];
+  }
+
+  /** Return the end offset of the match. */
+  public int end() {
+    return offsets[1];
+  }
+
+  /**
+   * Return the start offset of a group (zero for the entire match).
+   * 
+   * @throws IndexOutOfBoundsException if there is no such group
+   */
+  public int start(int group) {
+    if (group < 0 || group > groupCount()) throw new IndexOutOfBoundsException("no group " + group);
+    return offsets[group * 2];
+  }
+
+  /**
+   * Return the end offset of a group (zero for the entire match).
+   * 
+   * @throws IndexOutOfBoundsException if there is no such group
+   */
+  public int end(int group) {
+    if (group < 0 || group > groupCount()) throw new IndexOutOfBoundsException("no group " + group);
+    return offsets[group * 2 + 1];
+  }
+
+  /** Return the number of capturing groups. */
+  public int groupCount() {
+    return offsets.length / 2 - 1;
+  }
+
+  /** Return a copy of all group offset pairs (start, end), including the entire match. */
+  public int[] groups() {
+    return offsets.clone();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof MatchResult && Arrays.equals(offsets, ((MatchResult) o).offsets);
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(offsets);
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + Arrays.toString(offsets);
+  }
+}
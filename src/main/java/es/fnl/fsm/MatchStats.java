@@ -0,0 +1,97 @@
+/* Created on Oct 19, 2026 by Florian Leitner.
+ * Copyright 2026. All rights reserved. */
+package es.fnl.fsm;
+
+/**
+ * Hot-path counters collected by an instrumented {@link Matcher}, {@link ExactMatcher}, or
+ * {@link ExactScanner}.
+ * <p>
+ * Instrumentation is opt-in; see, e.g., {@link Matcher#enableStats(MatchListener)}. An instrumented
+ * matcher keeps one instance with the totals over all its calls and reports another instance with
+ * the counts of each single call to its {@link MatchListener listener}, if any. Counters that do
+ * not apply to a particular matcher (e.g., the queue size for the exact matchers) remain zero.
+ * 
+ * @author Florian Leitner
+ */
+public final class MatchStats {
+  long attempts;
+  long offsets;
+  long states;
+  long comparisons;
+  int peakQueue;
+  long backtrack;
+  long nanos;
+
+  /**
+   * Returns the number of match attempts, i.e., calls of <code>find</code>, <code>matches</code>,
+   * <code>lookingAt</code>, or <code>scan</code>.
+   */
+  public long attempts() {
+    return attempts;
+  }
+
+  /**
+   * Returns the number of offsets tried, i.e., the start positions searched by the pattern matcher,
+   * the alignments tried by the Boyer-Moore matcher, or the elements consumed by the KMP scanner.
+   */
+  public long offsets() {
+    return offsets;
+  }
+
+  /** Returns the number of states dequeued by the pattern matcher's breadth-first search. */
+  public long states() {
+    return states;
+  }
+
+  /**
+   * Returns the number of {@link Transition#matches(Object)} calls made by the pattern matcher or
+   * the number of element comparisons (or table lookups) made by the exact matchers.
+   */
+  public long comparisons() {
+    return comparisons;
+  }
+
+  /** Returns the maximum size the pattern matcher's search queue ever had. */
+  public int peakQueue() {
+    return peakQueue;
+  }
+
+  /** Returns the total length of the paths backtracked to find capture groups. */
+  public long backtrack() {
+    return backtrack;
+  }
+
+  /** Returns the nanoseconds spent on match attempts. */
+  public long nanos() {
+    return nanos;
+  }
+
+  /** Reset all counters to zero. */
+  public void reset() {
+    attempts = 0;
+    offsets = 0;
+    states = 0;
+    comparisons = 0;
+    peakQueue = 0;
+    backtrack = 0;
+    nanos = 0;
+  }
+
+  /** Add the counts of <code>other</code> to this instance. */
+  void add(MatchStats other) {
+    attempts += other.attempts;
+    offsets += other.offsets;
+    states += other.states;
+    comparisons += other.comparisons;
+    peakQueue = Math.max(peakQueue, other.peakQueue);
+    backtrack += other.backtrack;
+    nanos += other.nanos;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s[attempts=%d offsets=%d states=%d comparisons=%d peakQueue=%d "
+        + "backtrack=%d nanos=%d]", MatchStats.class.getSimpleName(), attempts, offsets, states,
+        comparisons, peakQueue, backtrack, nanos);
+  }
+}
@@ -4,11 +4,19 @@ package es.fnl.fsm;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.TimeUnit;
 
 /**
  * An engine that performs match operation on a sequence of generic elements <code>E</code> by
@@ -28,18 +36,52 @@ import java.util.Stack;
  * Each of these methods returns a Boolean value indicating success or failure. More information
  * about a successful match can be obtained by querying the state of the matcher.
  * <p>
+ * The match operations can be restricted to a {@link #region(int, int) region} of the input, so
+ * that one matcher can scan many windows of a long sequence without copying them.
+ * <p>
  * The explicit state of a matcher includes the start and end indices of the most recent successful
  * match. It also includes the start and end indices of the input subsequence captured by each
  * capturing group in the pattern as well as a total count of such subsequences. As a convenience,
  * methods are also provided for returning these captured subsequences.
  * <p>
- * A few convenience methods present in Java's {@link java.util.regex.Matcher} are not implemented,
- * particularly <code>appendReplacement</code>, <code>appendTail</code>, and
- * <code>replaceAll</code>.
+ * As with Java's matcher, matches can be rewritten with {@link #appendReplacement(Collection,
+ * Rewriter) appendReplacement} and {@link #appendTail(Collection) appendTail}, or in a single call
+ * with {@link #replaceAll(Rewriter) replaceAll}; the input elements and replacements are appended
+ * to any collection in one forward pass, without creating views of the input.
  * <p>
  * Greedy vs. non-greedy behavior of the quantifiers can be modified by changing the
  * {@link #greedy} flag (default: non-greedy matching).
  * <p>
+ * The matcher can be instrumented to collect {@link MatchStats} on its hot path (see
+ * {@link #enableStats(MatchListener)}); if not instrumented, this costs a single branch per
+ * counter.
+ * <p>
+ * To bound the time spent on pathological patterns or input, the search steps (states dequeued and
+ * elements matched by runs or gaps) and the time spent per match attempt can be limited, and
+ * searches can be made to react to thread interruption, upon which a {@link MatchAbortedException}
+ * is thrown. To bound the memory used by long searches, they can
+ * {@link #setCompacting(boolean) drop} the back-pointers that can no longer be on the path of a
+ * match.
+ * <p>
+ * The input sequence can grow while matching: after elements are {@link #append(Object)
+ * appended}, a {@link #find()} resumes the searches suspended by a previous failed attempt, and
+ * {@link #hitEnd()} tells if more input could have changed the result of the last match operation.
+ * <p>
+ * On list input, {@link #find()} does not try the search at every offset: the pattern is run
+ * backwards over the input first (see {@link ReverseAutomaton}), marking the offsets where a match
+ * can start, so the (far more expensive) search that tracks capture groups is only made there.
+ * Patterns with at most 64 transitions and no runs are compiled to a bit-parallel automaton (see
+ * {@link BitAutomaton}) that makes this scan and, if the pattern has no capture groups, the search
+ * itself with a few bit operations per element. Larger patterns without runs can {@link
+ * #setLazyDfa(boolean) use} a lazily built DFA instead (see {@link LazyDfa}), which is shared by
+ * all matchers of the same pattern, across threads, and costs a hash lookup per element once the
+ * states the input visits are cached.
+ * <p>
+ * Instead of a list, a matcher can also scan a stream of elements (an {@link Iterator}, see
+ * {@link Pattern#matcher(Iterator)}), in which case the matcher only keeps the elements that are
+ * needed by the current match attempt, the offsets it reports are absolute offsets in the stream,
+ * and the groups it returns are copies of the matched elements.
+ * <p>
  * This class is <i>not</i> <b>thread-safe</b>.
  * 
  * @author Florian Leitner
@@ -47,27 +89,145 @@ import java.util.Stack;
 public final class Matcher<E> {
   final State<E> entry;
   final State<E> exit;
+  private final Pattern<E> owner; // the pattern that created this matcher (shares its automata)
   private List<E> seq;
+  private Window<E> window = null; // the lookback buffer over the input if it is a stream
   private int len; // length of the previous match (-1 if the previous match attempt failed)
   private int idx; // offset of the previous match (-1 if no previous match attempt was made)
   private int[][] captureGroups; // capture group offsets (int[][2] arrays)
   private BFSQueue<E> queue;
+  private boolean hitEnd = false; // the last match operation tried to read beyond the input
+  // the searches of the last failed find that were suspended at the end of the input
+  private LinkedList<BFSQueue<E>> suspended = new LinkedList<BFSQueue<E>>();
+  private int frontier = 0; // the input length when the searches were suspended
+  private BFSQueue.Claims<E> claims = null; // the items reached by the searches of a find
+  private int from = 0; // the start of the region
+  private int to = -1; // the end of the region (-1 if it is the end of the input)
+  private int appendPos = 0; // the offset of the first element not yet appended by a rewrite
+  private Probe probe = null; // the stats collector if this matcher is instrumented
+  private SharedInput<E> shared = null; // the transition tests shared with other matchers
+  private boolean compiled = false; // true once the automata below have been built
+  private BitAutomaton<E> bits = null; // the bit-parallel automaton if the pattern is small enough
+  private boolean lazyDfa = false; // use the lazy DFA for large patterns without runs
+  private LazyDfa<E> dfa = null; // the lazy DFA if it is not, but has no runs (and it is used)
+  private ReverseAutomaton<E> reverse = null; // the reversed pattern if it has runs
+  private long[] masks = null; // the bit automaton's masks of the input elements
+  private BitSet masked = new BitSet(); // the offsets of the elements that have a mask
+  private BitSet starts = null; // the offsets where find has to make a (forward) search
+  private int startsFrom; // the first offset covered by the starts
+  private int startsTo; // the offset after the last one covered by the starts
+  private int startsSize; // the input length when the starts were scanned
+  private int scanLength; // the number of elements the next scan covers (at most)
+  private long stepLimit = 0; // maximum number of search steps per call (0 if unlimited)
+  private long timeout = 0; // maximum nanoseconds per call (0 if unlimited)
+  private boolean interruptible = false; // check the thread's interrupt flag while searching
+  private boolean bounded = false; // true if any of the above limits apply
+  private boolean compacting = false; // drop the search's moves that cannot be backtracked anymore
+  private long steps; // the search steps left in the current call
+  private long deadline; // the nanoTime when the current call has to end
+  private int ticks; // the search steps until the next deadline and interrupt check
+  /**
+   * The number of search steps between two checks of the deadline and interrupt flag (as
+   * documented by {@link #setTimeout(long, TimeUnit)}).
+   */
+  private static final int CHECK_INTERVAL = 1024;
+  /** The result of a bit-parallel match that has to be repeated by the search. */
+  private static final int UNDECIDED = -2;
+  /** The number of elements covered by the first scan of {@link #skipToStart()}. */
+  private static final int MIN_SCAN = 256;
   /** A flag indicating whether quantifiers should behave greedily or not (the default). */
   public boolean greedy = false;
 
   /**
    * Creates a new Matcher object.
    * 
+   * @param owner pattern that creates the matcher (or <code>null</code>)
    * @param entry pattern state
    * @param exit pattern state
    * @param sequence to match
    */
-  Matcher(State<E> entry, State<E> exit, List<E> sequence) {
+  Matcher(Pattern<E> owner, State<E> entry, State<E> exit, List<E> sequence) {
+    this.owner = owner;
     this.entry = entry;
     this.exit = exit;
     reset(sequence);
   }
 
+  /**
+   * Creates a new Matcher object that reads a random access sequence directly instead of a copy;
+   * the sequence must not change while the matcher is used.
+   * 
+   * @param owner pattern that creates the matcher (or <code>null</code>)
+   * @param entry pattern state
+   * @param exit pattern state
+   * @param sequence to match
+   * @param copy <code>false</code> to read the sequence directly if it allows random access
+   */
+  Matcher(Pattern<E> owner, State<E> entry, State<E> exit, List<E> sequence, boolean copy) {
+    this.owner = owner;
+    this.entry = entry;
+    this.exit = exit;
+    useInput((copy || !(sequence instanceof RandomAccess)) ? new ArrayList<E>(sequence) : sequence);
+  }
+
+  /**
+   * Creates a new Matcher object that reads a shared input and caches its transition tests there,
+   * for the matchers of other patterns on the same input.
+   * 
+   * @param owner pattern that creates the matcher (or <code>null</code>)
+   * @param entry pattern state
+   * @param exit pattern state
+   * @param input shared with other matchers
+   */
+  Matcher(Pattern<E> owner, State<E> entry, State<E> exit, SharedInput<E> input) {
+    this(owner, entry, exit, input.sequence, false);
+    shared = input;
+  }
+
+  /**
+   * Creates a new Matcher object for a stream of elements.
+   * 
+   * @param owner pattern that creates the matcher (or <code>null</code>)
+   * @param entry pattern state
+   * @param exit pattern state
+   * @param stream to match
+   */
+  Matcher(Pattern<E> owner, State<E> entry, State<E> exit, Iterator<E> stream) {
+    this.owner = owner;
+    this.entry = entry;
+    this.exit = exit;
+    reset(stream);
+  }
+
+  /**
+   * Creates a new Matcher object that shares the input, configuration, and compiled automata of
+   * another matcher, but not its state.
+   * 
+   * @param other matcher to copy
+   */
+  private Matcher(Matcher<E> other) {
+    owner = other.owner;
+    entry = other.entry;
+    exit = other.exit;
+    seq = other.seq;
+    shared = other.shared;
+    from = other.from;
+    to = other.to;
+    idx = -1;
+    len = 1;
+    greedy = other.greedy;
+    stepLimit = other.stepLimit;
+    timeout = other.timeout;
+    interruptible = other.interruptible;
+    bounded = other.bounded;
+    compacting = other.compacting;
+    lazyDfa = other.lazyDfa;
+    compiled = other.compiled;
+    bits = other.bits;
+    dfa = other.dfa;
+    reverse = other.reverse;
+  }
+
   /** Returns the pattern that is interpreted by this matcher. */
   public Pattern<E> pattern() {
     return new Pattern<E>(entry, exit);
@@ -84,15 +244,211 @@ public final class Matcher<E> {
    * and {@link #group} methods.
    */
   public boolean find() {
-    // if no failed previous attempt is indicated
+    claims = new BFSQueue.Claims<E>();
+    try {
+      if (probe == null) return findNext();
+      probe.begin();
+      try {
+        return findNext();
+      } finally {
+        probe.end(this);
+      }
+    } finally {
+      claims = null;
+    }
+  }
+
+  /** Implements {@link #find()}. */
+  private boolean findNext() {
+    if (bounded) startBudget();
+    hitEnd = false;
     if (len != -1) {
-      int max = seq.size();
-      idx += len;
-      while ((len = match()) == -1 && idx++ < max) {}
+      // if no failed previous attempt is indicated
+      suspended.clear();
+      idx = (idx == -1) ? from : idx + len;
+      if (window != null) window.drop(idx);
+    } else if (suspended.isEmpty() || frontier == limit()) {
+      return false;
+    } else if (resume()) {
+      return true;
     }
+    while (true) {
+      if (window == null && idx >= 0 && idx <= limit() && !skipToStart()) {
+        len = -1;
+        break;
+      }
+      if ((len = match()) != -1) break;
+      if (window == null && queue != null && queue.isSuspended()) suspended.add(queue);
+      if (!hasElement(idx++)) break;
+      if (window != null) window.drop(idx);
+    }
+    frontier = limit();
     return (len != -1);
   }
 
+  /**
+   * Advance the current {@link #idx index} to the next offset where a forward search could match
+   * or hit the end of the input, skipping all others.
+   * <p>
+   * The offsets are found by running the {@link ReverseAutomaton reversed pattern} backwards over
+   * a chunk of the input that starts at the current index, treating the chunk's end as the end of
+   * the input: the offsets found are a superset of those the whole input would yield, as a search
+   * reaching the end of the chunk is kept. The chunk doubles in size with each scan (starting at
+   * {@link #MIN_SCAN} elements), so a match near the current index is found without scanning the
+   * whole input, while all following calls of {@link #find()} on the same input still scan each
+   * element once (and the elements of the last chunk again if elements are appended). A forward
+   * pass would not do: without backpointers, it can tell where the earliest match ends, but not
+   * where the leftmost match starts, and that match need not be the one ending first.
+   * 
+   * @return <code>false</code> if there are no more offsets to search, in which case the index
+   *         is set past the end of the input
+   */
+  private boolean skipToStart() {
+    final int end = limit();
+    if (starts == null || idx < startsFrom) {
+      startsTo = idx; // scan anew
+      scanLength = MIN_SCAN;
+    } else if (startsSize != end && (startsTo > startsSize || startsTo > end)) {
+      startsTo = idx; // the last chunk ended at the old end of the input
+    }
+    while (true) {
+      if (idx >= startsTo) {
+        final int stop = (int) Math.min(end, (long) idx + scanLength);
+        compile();
+        if (bits != null) {
+          starts = scanBits(stop);
+        } else if (dfa != null) {
+          starts = scanDfa(stop);
+        } else {
+          ReverseAutomaton<E>.Scan scan =
+              reverse.scan(seq, stop, (probe == null) ? null : probe.call);
+          while (scan.offset() >= idx) {
+            if (bounded) spendStep(scan.offset());
+            scan.step();
+          }
+          starts = scan.starts();
+        }
+        startsFrom = idx;
+        startsTo = (stop == end) ? end + 1 : stop;
+        startsSize = end;
+        if (scanLength < Integer.MAX_VALUE / 2) scanLength *= 2;
+      }
+      final int next = starts.nextSetBit(idx);
+      if (next != -1 && next < startsTo) {
+        idx = next;
+        return true;
+      } else if (startsTo > end) {
+        idx = end + 1;
+        return false;
+      }
+      idx = startsTo;
+    }
+  }
+
+  /**
+   * Scan the input backwards with the {@link BitAutomaton}, as {@link #skipToStart()} does with
+   * the reverse automaton: a position is live if it matches the element and the pattern can accept
+   * after it or a live position follows it; at the end of the scanned chunk, all positions are live
+   * (the search would hit the end).
+   * 
+   * @param end the offset after the last element of the chunk
+   * @return the offsets from the current index onwards where a search has to be made
+   */
+  private BitSet scanBits(int end) {
+    final BitSet offsets = (starts == null) ? new BitSet() : starts;
+    offsets.clear();
+    long live = -1L;
+    if (bits.nullable || bits.first != 0) offsets.set(end);
+    for (int p = end - 1; p >= idx; p--) {
+      if (bounded) spendStep(p);
+      live = mask(p) & (bits.last | bits.precede(live));
+      if (bits.nullable || (bits.first & live) != 0) offsets.set(p);
+    }
+    return offsets;
+  }
+
+  /**
+   * Scan the input backwards with the reverse {@link LazyDfa}, as {@link #scanBits(int)} does with
+   * the bit automaton.
+   * 
+   * @param end the offset after the last element of the chunk
+   * @return the offsets from the current index onwards where a search has to be made
+   */
+  private BitSet scanDfa(int end) {
+    final BitSet offsets = (starts == null) ? new BitSet() : starts;
+    final MatchStats call = (probe == null) ? null : probe.call;
+    offsets.clear();
+    LazyDfa.Node state = dfa.reverse.start();
+    if (state.accept) offsets.set(end);
+    for (int p = end - 1; p >= idx; p--) {
+      if (bounded) spendStep(p);
+      state = dfa.reverse.next(state, seq.get(p), call);
+      if (state.accept) offsets.set(p);
+    }
+    return offsets;
+  }
+
+  /**
+   * Look up the automata used to speed up the search (once); they are shared with all other
+   * matchers of the same pattern.
+   */
+  private void compile() {
+    if (!compiled) {
+      compiled = true;
+      final Pattern.Automata<E> automata = (owner == null) ?
+          new Pattern.Automata<E>(0, entry, exit, null) : owner.automata(entry, exit);
+      bits = automata.bits;
+      if (lazyDfa) dfa = automata.dfa;
+      if (bits == null && dfa == null) reverse = automata.reverse;
+    }
+  }
+
+
+  /** Return the bit automaton's mask of the element at <code>offset</code> (computed once). */
+  private long mask(int offset) {
+    if (masks == null || masks.length < seq.size()) {
+      long[] grown = new long[Math.max(seq.size(), (masks == null) ? 16 : masks.length * 2)];
+      if (masks != null) System.arraycopy(masks, 0, grown, 0, masks.length);
+      masks = grown;
+    }
+    if (!masked.get(offset)) {
+      final MatchStats call = (probe == null) ? null : probe.call;
+      masks[offset] =
+          (shared == null) ? bits.mask(seq.get(offset), call) : bits.mask(shared, offset, call);
+      masked.set(offset);
+    }
+    return masks[offset];
+  }
+
+  /**
+   * Resume the searches that were suspended at the end of the input by the last (failed) find,
+   * after elements were appended to the input.
+   * 
+   * @return <code>true</code> if any of the resumed searches found a match, in which case
+   *         {@link #idx} and {@link #len} are set to that match; otherwise, {@link #idx} is the
+   *         offset of the next start position that has not been searched yet
+   */
+  private boolean resume() {
+    final int next = idx; // the first offset not searched yet
+    final List<BFSQueue<E>> searches = suspended;
+    suspended = new LinkedList<BFSQueue<E>>();
+    for (BFSQueue<E> search : searches) {
+      queue = search;
+      idx = queue.start();
+      claims.release(idx);
+      queue.share(claims);
+      queue.resume();
+      captureGroups = new int[][] {};
+      if ((len = search()) != -1) {
+        suspended.clear();
+        return true;
+      }
+      if (queue.isSuspended()) suspended.add(queue);
+    }
+    idx = next;
+    return false;
+  }
+
   /**
    * Resets this matcher and then attempts to find the next subsequence of the input sequence that
    * matches the pattern, starting at the specified index.
@@ -101,14 +457,268 @@ public final class Matcher<E> {
    * and {@link #group} methods.
    * 
    * @throws IndexOutOfBoundsException if start is less than zero or greater than the length of the
-   *         input sequence
+   *         input sequence, or outside the {@link #region(int, int) region}
    */
   public boolean find(int start) {
+    if (start < from) throw new IndexOutOfBoundsException("offset precedes the region");
     idx = start;
     len = 0;
     return find();
   }
 
+  /**
+   * Returns an immutable snapshot of the last match.
+   * 
+   * @throws IllegalStateException if no match has yet been attempted, or if the previous match
+   *         operation failed
+   */
+  public MatchResult toMatchResult() {
+    return new MatchResult(groups());
+  }
+
+  /**
+   * Returns all (further) matches as immutable snapshots, in the order {@link #find()} finds them.
+   * <p>
+   * For list input, each iterator uses a new matcher that shares the input and settings of this
+   * matcher and starts at the beginning of the input, so the state of this matcher is not changed
+   * and several iterators can be consumed independently (e.g., by different threads, as long as
+   * the input is not appended to). For stream input, which can only be read once, the iterator
+   * uses this matcher itself, starting at its current position.
+   * <p>
+   * After an empty match, the next match is searched one element further on, so the iteration
+   * always ends.
+   */
+  public Iterable<MatchResult> results() {
+    return new Iterable<MatchResult>() {
+      public Iterator<MatchResult> iterator() {
+        return new Results((window == null) ? new Matcher<E>(Matcher.this) : Matcher.this);
+      }
+    };
+  }
+
+  /**
+   * Find the next match like {@link #find()}, but continue at the next element after an empty
+   * match (instead of finding it again).
+   */
+  boolean findFurther() {
+    if (len == 0 && idx != -1) return hasElement(idx) && find(idx + 1);
+    else return find();
+  }
+
+  /**
+   * Appends the elements from the end of the previous {@link #appendReplacement(Collection,
+   * Rewriter) replacement} (or the start of the {@link #region(int, int) region}) to the start of
+   * the current match, followed by the replacement of the match, to the sink.
+   * <p>
+   * Together with {@link #find()} and {@link #appendTail(Collection)}, this rewrites the input in
+   * one forward pass, as in Java's {@link java.util.regex.Matcher#appendReplacement(StringBuffer,
+   * String)}; the elements are copied one by one, without creating views of the input.
+   * 
+   * @param sink to append to
+   * @param rewriter producing the replacement of the current match
+   * @return itself/this matcher
+   * @throws IllegalStateException if no match has yet been attempted, or if the previous match
+   *         operation failed
+   * @throws UnsupportedOperationException if the input is a stream
+   */
+  public Matcher<E> appendReplacement(Collection<? super E> sink, Rewriter<E> rewriter) {
+    if (window != null) throw new UnsupportedOperationException("cannot rewrite a stream");
+    if (noMatch()) throw new IllegalStateException("no previous match");
+    for (int i = appendPos; i < idx; i++)
+      sink.add(seq.get(i));
+    rewriter.rewrite(this, sink);
+    appendPos = idx + len;
+    return this;
+  }
+
+  /**
+   * Appends the elements up to the current match and then the replacement elements to the sink.
+   * 
+   * @param sink to append to
+   * @param replacement of the current match
+   * @return itself/this matcher
+   * @see #appendReplacement(Collection, Rewriter)
+   */
+  public Matcher<E> appendReplacement(Collection<? super E> sink, List<? extends E> replacement) {
+    return appendReplacement(sink, constant(replacement));
+  }
+
+  /**
+   * Appends the elements from the end of the previous {@link #appendReplacement(Collection,
+   * Rewriter) replacement} (or the start of the region) to the end of the {@link #region(int, int)
+   * region} to the sink.
+   * 
+   * @param sink to append to
+   * @return the sink
+   * @throws UnsupportedOperationException if the input is a stream
+   */
+  public <C extends Collection<? super E>> C appendTail(C sink) {
+    if (window != null) throw new UnsupportedOperationException("cannot rewrite a stream");
+    for (int i = appendPos, end = limit(); i < end; i++)
+      sink.add(seq.get(i));
+    appendPos = limit();
+    return sink;
+  }
+
+  /**
+   * Appends the input subsequence captured by the given group during the previous match operation
+   * to the sink, copying the elements (e.g., for use by a {@link Rewriter}).
+   * 
+   * @param sink to append to
+   * @param group index of a capturing group in this matcher's pattern (zero for the entire match)
+   * @return itself/this matcher
+   * @throws IllegalStateException if no match has yet been attempted, or if the previous match
+   *         operation failed
+   * @throws IndexOutOfBoundsException if there is no capturing group in the pattern with the given
+   *         index
+   */
+  public Matcher<E> appendGroup(Collection<? super E> sink, int group) {
+    for (int i = start(group), end = end(group); i < end; i++)
+      sink.add(seq.get(i));
+    return this;
+  }
+
+  /**
+   * Rewrites the {@link #region(int, int) region} of the input, appending the elements between
+   * the matches and the replacement of each match to the sink, in a single forward pass.
+   * <p>
+   * The search restarts at the start of the region; after an empty match, the next match is
+   * searched one element further on.
+   * 
+   * @param sink to append to
+   * @param rewriter producing the replacement of each match
+   * @return the sink
+   * @throws UnsupportedOperationException if the input is a stream
+   */
+  public <C extends Collection<? super E>> C rewrite(C sink, Rewriter<E> rewriter) {
+    if (window != null) throw new UnsupportedOperationException("cannot rewrite a stream");
+    idx = -1;
+    len = 1;
+    suspended.clear();
+    appendPos = from;
+    while (findFurther())
+      appendReplacement(sink, rewriter);
+    return appendTail(sink);
+  }
+
+  /**
+   * Returns a copy of the {@link #region(int, int) region} of the input where every match is
+   * replaced with the elements produced by the rewriter.
+   * <p>
+   * The result list is allocated once, sized to the region.
+   * 
+   * @param rewriter producing the replacement of each match
+   * @return the rewritten input
+   * @throws UnsupportedOperationException if the input is a stream
+   * @see #rewrite(Collection, Rewriter)
+   */
+  public List<E> replaceAll(Rewriter<E> rewriter) {
+    return rewrite(new ArrayList<E>(limit() - from), rewriter);
+  }
+
+  /**
+   * Returns a copy of the {@link #region(int, int) region} of the input where every match is
+   * replaced with the replacement elements.
+   * 
+   * @param replacement of each match
+   * @return the rewritten input
+   * @throws UnsupportedOperationException if the input is a stream
+   * @see #rewrite(Collection, Rewriter)
+   */
+  public List<E> replaceAll(List<? extends E> replacement) {
+    return replaceAll(constant(replacement));
+  }
+
+  /** Return a rewriter that always appends the same replacement. */
+  private static <E> Rewriter<E> constant(final List<? extends E> replacement) {
+    return new Rewriter<E>() {
+      public void rewrite(Matcher<E> match, Collection<? super E> sink) {
+        sink.addAll(replacement);
+      }
+    };
+  }
+
+  /** The iterator over the {@link Matcher#results() results} of a matcher. */
+  private final class Results implements Iterator<MatchResult> {
+    private final Matcher<E> matcher;
+    private MatchResult next = null;
+    private boolean done = false;
+
+    Results(Matcher<E> matcher) {
+      this.matcher = matcher;
+    }
+
+    public boolean hasNext() {
+      if (next == null && !done) {
+        if (matcher.findFurther()) next = matcher.toMatchResult();
+        else done = true;
+      }
+      return next != null;
+    }
+
+    public MatchResult next() {
+      if (!hasNext()) throw new NoSuchElementException();
+      final MatchResult result = next;
+      next = null;
+      return result;
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * Returns <code>true</code> if the end of the input was hit by the search engine in the last
+   * match operation, i.e., if more input could have changed the result of the last match
+   * operation.
+   * <p>
+   * If a {@link #find()} failed and hit the end, a <code>find()</code> after
+   * {@link #append(Object) appending} elements to the input will resume the suspended searches of
+   * the failed attempt rather than start over. If a successful match hit the end (only possible in
+   * {@link #greedy} mode or for {@link #matches()}), more input could extend or break that match;
+   * to update it, the match has to be repeated (e.g., with <code>find(start())</code>).
+   */
+  public boolean hitEnd() {
+    return hitEnd;
+  }
+
+  /**
+   * Append an element to the input sequence, e.g., while the input is still arriving.
+   * <p>
+   * After a {@link #find()} that failed because it {@link #hitEnd() hit the end} of the input, the
+   * next <code>find()</code> resumes the searches that were suspended at the end rather than
+   * starting over. The searches of later start offsets do not keep the states that searches of
+   * earlier offsets have reached, so only searches in distinct states are suspended, and the cost
+   * of each update depends on the number of states of the pattern, not on the length of the input
+   * before it; however, each suspended search keeps its back-pointers (to determine the capture
+   * groups), so the memory used grows with the length of the unmatched input unless the matcher
+   * is {@link #setCompacting(boolean) compacting}.
+   * 
+   * @param element to append
+   * @return itself/this matcher
+   * @throws UnsupportedOperationException if the input is a stream
+   */
+  public Matcher<E> append(E element) {
+    if (window != null) throw new UnsupportedOperationException("cannot append to a stream");
+    seq.add(element);
+    return this;
+  }
+
+  /**
+   * Append elements to the input sequence.
+   * 
+   * @param elements to append
+   * @return itself/this matcher
+   * @throws UnsupportedOperationException if the input is a stream
+   * @see #append(Object)
+   */
+  public Matcher<E> appendAll(Collection<? extends E> elements) {
+    if (window != null) throw new UnsupportedOperationException("cannot append to a stream");
+    seq.addAll(elements);
+    return this;
+  }
+
   /**
    * Attempts to match the input sequence, starting at the beginning, against the pattern.
    * <p>
@@ -119,9 +729,25 @@ public final class Matcher<E> {
    * and {@link #group} methods.
    * 
    * @return <code>true</code> if any input sequence' prefix matches the pattern
+   * @throws IllegalStateException if the input is a stream that has moved on
    */
   public boolean lookingAt() {
-    idx = 0;
+    if (probe == null) return matchPrefix();
+    probe.begin();
+    try {
+      return matchPrefix();
+    } finally {
+      probe.end(this);
+    }
+  }
+
+  /** Implements {@link #lookingAt()}. */
+  private boolean matchPrefix() {
+    checkRewind();
+    if (bounded) startBudget();
+    hitEnd = false;
+    suspended.clear();
+    idx = from;
     return ((len = match()) != -1);
   }
 
@@ -130,10 +756,28 @@ public final class Matcher<E> {
    * <p>
    * If the match succeeds, more information can be obtained via the {@link #start}, {@link #end},
    * and {@link #group} methods.
+   * 
+   * @throws IllegalStateException if the input is a stream that has moved on
    */
   public boolean matches() {
-    idx = 0;
-    if ((len = match()) == seq.size()) {
+    if (probe == null) return matchAll();
+    probe.begin();
+    try {
+      return matchAll();
+    } finally {
+      probe.end(this);
+    }
+  }
+
+  /** Implements {@link #matches()}. */
+  private boolean matchAll() {
+    checkRewind();
+    if (bounded) startBudget();
+    hitEnd = false;
+    suspended.clear();
+    idx = from;
+    if ((len = match()) != -1 && !hasElement(idx + len)) {
+      hitEnd = true; // any more input would break this match
       return true;
     } else {
       len = -1; // set the flag indicating that this previous match failed
@@ -155,7 +799,7 @@ public final class Matcher<E> {
    */
   public List<E> group() {
     if (noMatch()) throw new IllegalStateException("no previous match");
-    return seq.subList(idx, idx + len);
+    return slice(idx, idx + len);
   }
 
   /**
@@ -175,7 +819,7 @@ public final class Matcher<E> {
     if (group == 0) return group();
     if (noMatch()) throw new IllegalStateException("no previous match");
     int[] o = captureGroups[group - 1];
-    return seq.subList(o[0], o[1]);
+    return slice(o[0], o[1]);
   }
 
   /** Returns the number of <b>capturing</b> groups in this matcher's pattern. */
@@ -263,21 +907,277 @@ public final class Matcher<E> {
     return captureGroups[group - 1][1];
   }
 
-  /** Resets this matcher, returning itself. */
+  /**
+   * Instrument this matcher, collecting {@link MatchStats} for all further calls of
+   * {@link #find()}, {@link #lookingAt()}, and {@link #matches()}.
+   * 
+   * @param listener to receive the stats of each call; may be <code>null</code>
+   * @return the (live) totals over all calls
+   */
+  public MatchStats enableStats(MatchListener listener) {
+    probe = new Probe(listener);
+    return probe.total;
+  }
+
+  /** Stop collecting stats (the default). */
+  public void disableStats() {
+    probe = null;
+  }
+
+  /** Returns the totals collected so far or <code>null</code> if stats are disabled. */
+  public MatchStats stats() {
+    return (probe == null) ? null : probe.total;
+  }
+
+  /**
+   * Limit the number of search steps (states visited) each call of {@link #find()},
+   * {@link #lookingAt()}, or {@link #matches()} may make.
+   * <p>
+   * Every element a run or gap is expanded by is a step of its own, so a gap with a large maximum
+   * cannot exceed the budget within a single step.
+   * 
+   * @param maxSteps the step budget per call; zero to remove the limit
+   * @return itself/this matcher
+   * @throws IllegalArgumentException if the budget is negative
+   */
+  public Matcher<E> setStepLimit(long maxSteps) {
+    if (maxSteps < 0) throw new IllegalArgumentException("negative step limit");
+    stepLimit = maxSteps;
+    bounded = (stepLimit > 0 || timeout > 0 || interruptible);
+    return this;
+  }
+
+  /**
+   * Limit the time each call of {@link #find()}, {@link #lookingAt()}, or {@link #matches()} may
+   * take.
+   * <p>
+   * The deadline is checked periodically (every 1024 search steps), so calls might slightly exceed
+   * it.
+   * 
+   * @param duration the time budget per call; zero to remove the limit
+   * @param unit of the duration
+   * @return itself/this matcher
+   * @throws IllegalArgumentException if the duration is negative
+   */
+  public Matcher<E> setTimeout(long duration, TimeUnit unit) {
+    if (duration < 0) throw new IllegalArgumentException("negative timeout");
+    timeout = unit.toNanos(duration);
+    bounded = (stepLimit > 0 || timeout > 0 || interruptible);
+    return this;
+  }
+
+  /**
+   * Make searches check (but not clear) the interrupt flag of the current thread periodically.
+   * 
+   * @param flag <code>true</code> to abort searches when the thread has been interrupted
+   * @return itself/this matcher
+   */
+  public Matcher<E> setInterruptible(boolean flag) {
+    interruptible = flag;
+    bounded = (stepLimit > 0 || timeout > 0 || interruptible);
+    return this;
+  }
+
+  /**
+   * Make searches drop the moves (back-pointers) that can no longer be on the path of a match's
+   * capture groups, instead of keeping a move to every state reached at every offset until the
+   * match attempt is over.
+   * <p>
+   * For patterns that repeat broad transitions over long inputs, this keeps the memory used by a
+   * search proportional to its frontier (the states reached at the current offset and beyond) and
+   * the capture states on their paths, at the cost of periodically compacting the moves. The
+   * matches and groups found are the same.
+   * 
+   * @param flag <code>true</code> to compact the search's moves
+   * @return itself/this matcher
+   */
+  public Matcher<E> setCompacting(boolean flag) {
+    compacting = flag;
+    return this;
+  }
+
+  /**
+   * Make the match operations use a lazily built DFA (see {@link LazyDfa}) for patterns that are
+   * too large for the bit-parallel automaton and have no runs, instead of the reversed pattern and
+   * the search.
+   * <p>
+   * The DFA caches its transitions by input element, so this is only correct if elements that are
+   * <code>equals(Object)</code> (and have the same <code>hashCode()</code>) match the same
+   * transitions of the pattern. The DFA is shared by all matchers of the same pattern that use it.
+   * 
+   * @param flag <code>true</code> to use the lazy DFA (<code>false</code> by default)
+   * @return itself/this matcher
+   */
+  public Matcher<E> setLazyDfa(boolean flag) {
+    if (flag != lazyDfa) {
+      lazyDfa = flag;
+      if (compiled && bits == null) {
+        compiled = false; // compile the other automaton
+        dfa = null;
+        reverse = null;
+        starts = null;
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Sets the limits of this matcher's region, the part of the input that the match operations
+   * consider, and resets the matcher.
+   * <p>
+   * {@link #find()} searches the region from its start, {@link #lookingAt()} matches at its start,
+   * and {@link #matches()} has to match the entire region; as the elements beyond the region are
+   * not read, reaching the end of the region {@link #hitEnd() hits the end}. All offsets (of the
+   * region and of the matches) are offsets in the whole input sequence.
+   * <p>
+   * Moving the region does not copy the input and keeps the masks of the input elements already
+   * computed, so one matcher can scan many windows (e.g., sentences) of a long sequence. Unlike
+   * Java's regular expressions, the patterns have no anchors or look-around, so there are no
+   * transparent or anchoring bounds to choose: the bounds are always opaque and anchoring.
+   * <p>
+   * The region is kept when elements are {@link #append(Object) appended} and until the matcher is
+   * {@link #reset()}, which restores the entire input as region.
+   * 
+   * @param start of the region (inclusive)
+   * @param end of the region (exclusive)
+   * @return itself/this matcher
+   * @throws IndexOutOfBoundsException if start or end are less than zero, start is greater than
+   *         end, or end is greater than the length of the input sequence
+   * @throws UnsupportedOperationException if the input is a stream
+   */
+  public Matcher<E> region(int start, int end) {
+    if (window != null) throw new UnsupportedOperationException("cannot set a region on a stream");
+    if (start < 0 || start > end || end > seq.size())
+      throw new IndexOutOfBoundsException("illegal region [" + start + ", " + end + ")");
+    from = start;
+    to = end;
+    appendPos = start;
+    idx = -1;
+    len = 1;
+    suspended.clear();
+    return this;
+  }
+
+  /** Returns the start index (inclusive) of this matcher's region. */
+  public int regionStart() {
+    return from;
+  }
+
+  /** Returns the end index (exclusive) of this matcher's region. */
+  public int regionEnd() {
+    return limit();
+  }
+
+  /**
+   * Resets this matcher, returning itself.
+   * <p>
+   * This also restores the entire input as {@link #region(int, int) region}.
+   * 
+   * @throws IllegalStateException if the input is a stream that has moved on
+   */
   public Matcher<E> reset() {
+    checkRewind();
+    from = 0;
+    to = -1;
+    appendPos = 0;
     idx = -1;
     len = 1;
+    suspended.clear();
     return this;
   }
+  /** Ensure the input can be matched from its start again (a stream has not moved on). */
+  private void checkRewind() {
+    if (window != null && window.base() > 0)
+      throw new IllegalStateException("cannot rewind the input stream");
+  }
+
 
   /** Resets this matcher with a new sequence, returning itself. */
   public Matcher<E> reset(List<E> input) {
-    seq = new ArrayList<E>(input);
+    return useInput(new ArrayList<E>(input));
+  }
+
+  /** Resets this matcher with the given list as its input (without copying it). */
+  private Matcher<E> useInput(List<E> input) {
+    seq = input;
+    shared = null;
+    window = null;
+    starts = null;
+    masked.clear();
+    from = 0;
+    to = -1;
+    appendPos = 0;
     idx = -1;
     len = 1;
+    suspended.clear();
     return this;
   }
 
+  /**
+   * Resets this matcher with a new stream, returning itself.
+   * <p>
+   * The elements of the stream are only consumed as far as needed by the match operations, and
+   * only the elements from the start of the current match attempt onwards are retained; all
+   * offsets reported by the matcher are the absolute offsets in the stream.
+   */
+  public Matcher<E> reset(Iterator<E> input) {
+    seq = window = new Window<E>(input);
+    from = 0;
+    to = -1;
+    idx = -1;
+    len = 1;
+    suspended.clear();
+    return this;
+  }
+
+  /** Check if the input has an element at <code>offset</code>, pulling it from a stream. */
+  private boolean hasElement(int offset) {
+    return offset < limit() || window != null && window.fill(offset);
+  }
+
+  /** Return the end of the region (the length of the input if no region was set). */
+  private int limit() {
+    return (to == -1) ? seq.size() : to;
+  }
+
+  /** Return the subsequence between the offsets; a copy if the input is a stream. */
+  private List<E> slice(int start, int end) {
+    if (window == null) return seq.subList(start, end);
+    else return new ArrayList<E>(seq.subList(start, end));
+  }
+
+  /** Start the step and time budget of a new call. */
+  private void startBudget() {
+    steps = stepLimit;
+    ticks = 1; // check the interrupt flag and deadline at the first step
+    if (timeout > 0) deadline = System.nanoTime() + timeout;
+  }
+
+  /**
+   * Spend one search step, checking the deadline and interrupt flag periodically.
+   * 
+   * @param offset the search has reached
+   * @throws MatchAbortedException if the budget is spent or the thread was interrupted
+   */
+  private void spendStep(int offset) {
+    MatchAbortedException.Reason reason = null;
+    if (stepLimit > 0 && --steps < 0) {
+      reason = MatchAbortedException.Reason.STEPS;
+    } else if (--ticks == 0) {
+      ticks = CHECK_INTERVAL;
+      if (interruptible && Thread.currentThread().isInterrupted())
+        reason = MatchAbortedException.Reason.INTERRUPTED;
+      else if (timeout > 0 && System.nanoTime() - deadline > 0)
+        reason = MatchAbortedException.Reason.DEADLINE;
+    }
+    if (reason != null) {
+      len = -1; // set the flag indicating that this match attempt failed
+      queue = null;
+      suspended.clear();
+      throw new MatchAbortedException(reason, offset);
+    }
+  }
+
   /** Check if there was a previously made match. */
   private boolean noMatch() {
     return (len == -1 || idx == -1);
@@ -290,34 +1190,149 @@ public final class Matcher<E> {
    * @return the match length or <code>-1</code> if no match was made
    */
   private int match() {
-    if (idx > seq.size()) throw new IndexOutOfBoundsException("offset exceeds sequence length");
+    if (idx > limit() && !hasElement(idx - 1))
+      throw new IndexOutOfBoundsException("offset exceeds sequence length");
     captureGroups = new int[][] {}; // reset capture groups
     // (capture groups will be built from the backtrace of the queue)
     if (entry.isFinal()) return 0; // a "match anything" pattern...
-    E element; // the currently consumed item
-    State<E> state = entry; // the currently processed state
-    int offset = idx; // the current position of the state machine in the sequence
-    queue = new BFSQueue<E>(offset, state); // start a new tracer queue
+    if (window == null) {
+      compile();
+      int length = UNDECIDED;
+      if (bits != null && !bits.capturing) length = matchBits();
+      else if (dfa != null && !dfa.capturing) length = matchDfa();
+      if (length != UNDECIDED) {
+        if (probe != null) probe.call.offsets++; // else, the search counts the offset
+        queue = null;
+        return length;
+      }
+    }
+    queue = new BFSQueue<E>(idx, entry, compacting); // start a new tracer queue
+    if (claims != null) {
+      // find searches the start offsets in order, so the items of earlier searches can be shared
+      claims.release(idx);
+      queue.share(claims);
+    }
+    return search();
+  }
+
+  /**
+   * Simulate the {@link BitAutomaton} from the current {@link #idx index}, for patterns without
+   * capture groups.
+   * <p>
+   * The simulation gives up as soon as it reaches the end of the input, so that the search takes
+   * care of suspending at and {@link #hitEnd() hitting} the end.
+   * 
+   * @return the match length, <code>-1</code> if no match was made, or {@link #UNDECIDED}
+   */
+  private int matchBits() {
+    final int end = limit();
+    if (idx >= end) return UNDECIDED;
+    int length = -1;
+    if (bits.nullable) {
+      if (!greedy) return 0;
+      length = 0;
+    }
+    long positions = bits.first;
+    for (int p = idx; p < end; p++) {
+      if (bounded) spendStep(p);
+      if (p > idx) positions = bits.follow(positions);
+      positions &= mask(p);
+      if (positions == 0) return length;
+      if (p + 1 == end) break;
+      if ((positions & bits.last) != 0) {
+        length = p + 1 - idx;
+        if (!greedy) return length;
+      }
+    }
+    return UNDECIDED;
+  }
+
+  /**
+   * Run the forward {@link LazyDfa} from the current {@link #idx index}, as {@link #matchBits()}
+   * does with the bit automaton.
+   * 
+   * @return the match length, <code>-1</code> if no match was made, or {@link #UNDECIDED}
+   */
+  private int matchDfa() {
+    final int end = limit();
+    if (idx >= end) return UNDECIDED;
+    final MatchStats call = (probe == null) ? null : probe.call;
+    int length = -1;
+    if (dfa.nullable) {
+      if (!greedy) return 0;
+      length = 0;
+    }
+    LazyDfa.Node state = dfa.forward.start();
+    for (int p = idx; p < end; p++) {
+      if (bounded) spendStep(p);
+      state = dfa.forward.next(state, seq.get(p), call);
+      if (state.dead) return length;
+      if (p + 1 == end) break;
+      if (state.accept) {
+        length = p + 1 - idx;
+        if (!greedy) return length;
+      }
+    }
+    return UNDECIDED;
+  }
+
+  /**
+   * Run the breadth-first search on the current {@link #queue} for a match starting at the current
+   * {@link #idx index}.
+   * <p>
+   * Items with states that would need to consume an element beyond the end of the input are
+   * {@link BFSQueue#suspend(QueueItem) suspended} on the queue, as are the runs that need to.
+   * 
+   * @return the match length or <code>-1</code> if no match was made
+   */
+  private int search() {
+    State<E> state; // the currently processed state
+    int offset; // the current position of the state machine in the sequence
     QueueItem<State<E>> match = null; // for greedy mode
     int length = -1; // for greedy mode
+    final MatchStats call = (probe == null) ? null : probe.call;
+    if (call != null) call.offsets++;
     // search for an accept state on the queue while there are items in it
     search:
     while (!queue.isEmpty()) {
+      if (call != null) {
+        call.states++;
+        if (queue.size() > call.peakQueue) call.peakQueue = queue.size();
+      }
+      if (queue.isExpanding()) {
+        expand(queue.removeExpansion(), call);
+        continue;
+      }
       QueueItem<State<E>> item = queue.remove();
       offset = item.index();
       state = item.get();
+      if (bounded) spendStep(offset);
       if (state.isFinal()) {
         // determine the length of this matching sequence
         length = offset - idx;
         match = item;
         if (!greedy) break search; // only keep looking in greedy mode
-      } else if (offset < seq.size()) {
-        element = seq.get(offset); // get the item in the sequence at the relevant index
-        for (Transition<E> t : state.transitions.keySet()) {
-          if (t.matches(element)) {
-            // add the result states of matching transitions (if they have not been added yet)
-            queue.addTransistions(offset + 1, item, state.transitions.get(t), t.weight());
+        queue.pin(match); // keep the path of the best match while looking on
+      } else {
+        boolean suspend = false; // set if the state needs elements beyond the end of the input
+        if (hasElement(offset)) {
+          for (Transition<E> t : state.transitions.keySet()) {
+            if (call != null) call.comparisons++;
+            if (test(t, offset)) {
+              // add the result states of matching transitions (if they have not been added yet)
+              queue.addTransistions(offset + 1, item, state.transitions.get(t), t.weight());
+            }
           }
+        } else if (state.transitions.size() > 0) {
+          suspend = true;
+        }
+        for (Run<E> r : state.runs.keySet()) {
+          if (r.min == 0) queue.addTransistions(offset, item, state.runs.get(r), 0.0);
+          queue.expand(item, r, state.runs.get(r));
+        }
+        if (suspend) {
+          hitEnd = true;
+          queue.suspend(item);
         }
       }
       if (state.epsilonTransitions.size() > 0)
@@ -328,6 +1343,36 @@ public final class Matcher<E> {
     return length;
   }
 
+  /**
+   * Expand a run by the next element: if the run matches it, add the target states to the queue at
+   * the next offset once the run's minimum is reached, and continue the expansion from there while
+   * the run's maximum is not.
+   * 
+   * @param run the expansion to continue
+   * @param call the stats of the current call (<code>null</code> if not instrumented)
+   */
+  private void expand(BFSQueue.Expansion<E> run, MatchStats call) {
+    if (bounded) spendStep(run.offset);
+    if (!hasElement(run.offset)) {
+      hitEnd = true;
+      queue.suspend(run);
+      return;
+    }
+    if (run.run.transition != null) {
+      if (call != null) call.comparisons++;
+      if (!test(run.run.transition, run.offset)) return;
+    }
+    final BFSQueue.Expansion<E> next = run.next();
+    if (next.count >= next.run.min)
+      queue.addTransistions(next.offset, next.source, next.targets, next.weight);
+    if (next.count < next.run.max) queue.expand(next);
+  }
+
+  /** Test if the element at an offset matches a transition. */
+  private boolean test(Transition<E> transition, int offset) {
+    return (shared == null) ? transition.matches(seq.get(offset)) : shared.test(transition, offset);
+  }
+
   /**
    * Use weighted backtracking to identify capture groups based on a dynamic programming approach.
    * 
@@ -335,6 +1380,7 @@ public final class Matcher<E> {
    */
   private void setCaptureGroups(QueueItem<State<E>> item) {
     List<QueueItem<State<E>>> path = queue.backtrack(item);
+    if (probe != null) probe.call.backtrack += path.size();
     // collect one offset per state starting or ending a capture group
     Map<State<E>, int[]> starts = new HashMap<State<E>, int[]>();
     Map<State<E>, int[]> ends = new HashMap<State<E>, int[]>();
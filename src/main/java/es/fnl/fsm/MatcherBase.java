@@ -14,6 +14,8 @@ abstract class MatcherBase<E> {
   protected final List<E> pattern;
   /** The length of the pattern. */
   final int end;
+  /** The stats collector if this matcher is instrumented, <code>null</code> otherwise. */
+  Probe probe = null;
 
   /**
    * Create a new exact matcher for a pattern sequence.
@@ -37,6 +39,35 @@ abstract class MatcherBase<E> {
     return end;
   }
 
+  /**
+   * Instrument this matcher, collecting {@link MatchStats} for all further calls.
+   * <p>
+   * As the stats are collected on the matcher itself, an instrumented matcher must not be shared
+   * between threads.
+   * 
+   * @param listener to receive the stats of each call; may be <code>null</code>
+   * @return the (live) totals over all calls
+   */
+  public MatchStats enableStats(MatchListener listener) {
+    probe = new Probe(listener);
+    return probe.total;
+  }
+
+  /** Stop collecting stats (the default). */
+  public void disableStats() {
+    probe = null;
+  }
+
+  /** Returns the totals collected so far or <code>null</code> if stats are disabled. */
+  public MatchStats stats() {
+    return (probe == null) ? null : probe.total;
+  }
+
   /** Return the radix of the pattern (number of non-equal elements). */
   public abstract int radix();
+
+  /** Return the number of entries in this matcher's tables (as weighed by {@link MatcherCache}). */
+  long weight() {
+    return end;
+  }
 }
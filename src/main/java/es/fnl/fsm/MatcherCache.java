@@ -0,0 +1,217 @@
+/* Created on Oct 19, 2026 by Florian Leitner.
+ * Copyright 2026. All rights reserved. */
+package es.fnl.fsm;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of {@link ExactMatcher} and {@link ExactScanner} instances, keyed by the
+ * contents of their patterns, so that repeatedly used patterns only have their jump or transition
+ * tables computed once.
+ * <p>
+ * The cache is limited both by the number of matchers it holds and by their total weight, the sum
+ * of the sizes of their tables (for a scanner, the pattern length times its radix; for a matcher,
+ * the pattern length plus its radix and its oracle's table, if used); when either
+ * limit is exceeded, the least recently used matchers are evicted. To allow concurrent use, the
+ * cache is split into segments by the hash of the pattern, each with its own lock and share of
+ * the limits, so the eviction order is LRU per segment. The matchers are built outside the locks,
+ * and a pattern is only copied when its matcher is built.
+ * <p>
+ * The cached matchers are shared by all users of the cache; they are thread-safe unless they are
+ * instrumented, so {@link MatcherBase#enableStats(MatchListener) stats} should not be enabled on
+ * them.
+ * <p>
+ * This class is <b>thread-safe</b>.
+ * 
+ * @author Florian Leitner
+ */
+public final class MatcherCache<E> {
+  private final List<Segment> segments;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /** The maximum number of segments. */
+  private static final int SEGMENTS = 16;
+  /** The minimum size and weight limit of a segment. */
+  private static final int MIN_SEGMENT = 8;
+
+  /**
+   * Create a cache.
+   * 
+   * @param maxSize the maximum number of cached matchers
+   * @param maxWeight the maximum sum of the cached matchers' table sizes
+   * @throws IllegalArgumentException if either limit is not positive
+   */
+  public MatcherCache(int maxSize, long maxWeight) {
+    if (maxSize < 1 || maxWeight < 1) throw new IllegalArgumentException("illegal cache limits");
+    int n = 1;
+    while (n < SEGMENTS && n * 2 * MIN_SEGMENT <= maxSize && n * 2 * MIN_SEGMENT <= maxWeight)
+      n *= 2;
+    segments = new ArrayList<Segment>(n);
+    for (int i = 0; i < n; i++)
+      segments.add(new Segment((maxSize + n - 1 - i) / n, (maxWeight + n - 1 - i) / n));
+  }
+
+  /**
+   * Return a Boyer-Moore matcher for a pattern, from the cache if possible.
+   * 
+   * @param pattern sequence that should lead to a match
+   * @throws IllegalArgumentException if the pattern is empty
+   */
+  public ExactMatcher<E> matcher(final List<E> pattern) {
+    return (ExactMatcher<E>) get(pattern, false);
+  }
+
+  /**
+   * Return a Knuth-Morris-Pratt scanner for a pattern, from the cache if possible.
+   * 
+   * @param pattern sequence that should lead to a match
+   * @throws IllegalArgumentException if the pattern is empty
+   */
+  public ExactScanner<E> scanner(final List<E> pattern) {
+    return (ExactScanner<E>) get(pattern, true);
+  }
+
+  /**
+   * Look up or build and cache a matcher; the lookup key wraps the given pattern, while the key
+   * cached with a new matcher wraps the matcher's own copy of the pattern.
+   */
+  private MatcherBase<E> get(final List<E> pattern, final boolean scanner) {
+    final Key<E> key = new Key<E>(pattern, scanner, Key.hash(pattern, scanner));
+    final Segment segment = segments.get((key.hash ^ (key.hash >>> 16)) & (segments.size() - 1));
+    MatcherBase<E> matcher = segment.get(key);
+    if (matcher != null) {
+      hits.incrementAndGet();
+      return matcher;
+    }
+    misses.incrementAndGet();
+    if (scanner) matcher = new ExactScanner<E>(pattern);
+    else matcher = new ExactMatcher<E>(pattern);
+    return segment.put(new Key<E>(matcher.pattern, scanner, key.hash), matcher);
+  }
+
+  /** Returns the number of lookups that found a cached matcher. */
+  public long hits() {
+    return hits.get();
+  }
+
+  /** Returns the number of lookups that had to build a matcher. */
+  public long misses() {
+    return misses.get();
+  }
+
+  /** Returns the number of matchers evicted from the cache. */
+  public long evictions() {
+    return evictions.get();
+  }
+
+  /** Returns the number of cached matchers. */
+  public int size() {
+    int size = 0;
+    for (Segment s : segments)
+      size += s.size();
+    return size;
+  }
+
+  /** Returns the sum of the cached matchers' table sizes. */
+  public long weight() {
+    long weight = 0;
+    for (Segment s : segments)
+      weight += s.weight();
+    return weight;
+  }
+
+  /** Remove all matchers from the cache (the stats are kept). */
+  public void clear() {
+    for (Segment s : segments)
+      s.clear();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s[size=%d weight=%d hits=%d misses=%d evictions=%d]",
+        getClass().getSimpleName(), size(), weight(), hits(), misses(), evictions());
+  }
+
+  /** A pattern (which must not change while it is used as a key) and the kind of matcher for it. */
+  private static final class Key<E> {
+    final List<E> pattern;
+    final boolean scanner;
+    final int hash;
+
+    Key(List<E> pattern, boolean scanner, int hash) {
+      this.pattern = pattern;
+      this.scanner = scanner;
+      this.hash = hash;
+    }
+
+    static int hash(List<?> pattern, boolean scanner) {
+      return pattern.hashCode() * 31 + (scanner ? 1 : 0);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key<?>)) return false;
+      final Key<?> other = (Key<?>) o;
+      return hash == other.hash && scanner == other.scanner && pattern.equals(other.pattern);
+    }
+  }
+
+  /** A part of the cache with its own lock, LRU order, and limits. */
+  private final class Segment {
+    private final LinkedHashMap<Key<E>, MatcherBase<E>> map =
+        new LinkedHashMap<Key<E>, MatcherBase<E>>(16, 0.75f, true);
+    private final int maxSize;
+    private final long maxWeight;
+    private long weight = 0;
+
+    Segment(int maxSize, long maxWeight) {
+      this.maxSize = maxSize;
+      this.maxWeight = maxWeight;
+    }
+
+    synchronized MatcherBase<E> get(Key<E> key) {
+      return map.get(key);
+    }
+
+    /** Cache a matcher unless another thread did so first, returning the cached one. */
+    synchronized MatcherBase<E> put(Key<E> key, MatcherBase<E> matcher) {
+      final MatcherBase<E> cached = map.get(key);
+      if (cached != null) return cached;
+      if (matcher.weight() > maxWeight) return matcher; // too heavy to cache at all
+      map.put(key, matcher);
+      weight += matcher.weight();
+      final Iterator<Map.Entry<Key<E>, MatcherBase<E>>> lru = map.entrySet().iterator();
+      while (map.size() > maxSize || weight > maxWeight) {
+        weight -= lru.next().getValue().weight();
+        lru.remove();
+        evictions.incrementAndGet();
+      }
+      return matcher;
+    }
+
+    synchronized int size() {
+      return map.size();
+    }
+
+    synchronized long weight() {
+      return weight;
+    }
+
+    synchronized void clear() {
+      map.clear();
+      weight = 0;
+    }
+  }
+}
@@ -0,0 +1,131 @@
+/* Created on Oct 19, 2026 by Florian Leitner.
+ * Copyright 2026. All rights reserved. */
+package es.fnl.fsm;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This matcher implements sequence comparison between <i>Lists</i> using the <b>Backward Oracle
+ * Matching</b> (BOM) algorithm.
+ * <p>
+ * The matcher reads each window of the sequence backwards through the factor oracle of the
+ * reversed pattern, an automaton that recognizes (at least) all factors of the pattern. As soon as
+ * the window's suffix read so far is not a factor, no occurrence can overlap it and the window is
+ * shifted past it, so the matcher skips up to the full pattern length at a time. This works best
+ * for long patterns over small alphabets, where the bad character shift of Boyer-Moore rarely
+ * skips far; {@link ExactMatcher} therefore uses this matcher for such patterns automatically.
+ * <p>
+ * The oracle has a dense transition table of (length + 1) &times; radix states, so this matcher is
+ * not meant for patterns over large alphabets.
+ * <p>
+ * As this is an exact matcher, elements are compared using <code>equals(Object)</code>. Note that
+ * the empty pattern is illegal, while a <code>null</code> in the pattern is allowed to match a
+ * <code>null</code> in the sequence if at the right position.
+ * 
+ * @author Florian Leitner
+ */
+public final class OracleMatcher<E> extends MatcherBase<E> {
+  /** The IDs of the distinct pattern elements. */
+  private final Map<E, Integer> ids;
+  /** The oracle transitions, by state and element ID (-1 if undefined). */
+  private final int[] oracle;
+
+  /**
+   * Create a matcher for a pattern sequence, building the factor oracle of the reversed pattern.
+   * 
+   * @param pattern sequence that should lead to a match
+   * @throws IllegalArgumentException if the pattern is empty or its transition table would have
+   *         more than <code>Integer.MAX_VALUE</code> entries
+   */
+  public OracleMatcher(final List<E> pattern) {
+    super(pattern);
+    ids = new HashMap<E, Integer>();
+    for (E element : this.pattern)
+      if (!ids.containsKey(element)) ids.put(element, ids.size());
+    final int radix = ids.size();
+    if ((end + 1L) * radix > Integer.MAX_VALUE)
+      throw new IllegalArgumentException("pattern too large for a dense oracle");
+    oracle = new int[(end + 1) * radix];
+    Arrays.fill(oracle, -1);
+    final int[] supply = new int[end + 1]; // the supply function of the oracle
+    supply[0] = -1;
+    for (int i = 0; i < end; i++) {
+      final int c = ids.get(this.pattern.get(end - 1 - i));
+      oracle[i * radix + c] = i + 1;
+      int k = supply[i];
+      while (k > -1 && oracle[k * radix + c] == -1) {
+        oracle[k * radix + c] = i + 1;
+        k = supply[k];
+      }
+      supply[i + 1] = (k == -1) ? 0 : oracle[k * radix + c];
+    }
+  }
+
+  @Override
+  public int radix() {
+    return ids.size();
+  }
+
+  /** Return the size of the oracle's transition table. */
+  @Override
+  long weight() {
+    return oracle.length;
+  }
+
+  /**
+   * Find the index at which the pattern matches in the <code>sequence</code>.
+   * 
+   * @param sequence list to align the pattern with
+   * @return the offset of the match or <code>-1</code> if no match is found
+   * @see OracleMatcher#find(List, int)
+   */
+  public int find(final List<E> sequence) {
+    return find(sequence, 0);
+  }
+
+  /**
+   * Find the index at which the pattern matches in the <code>sequence</code> at or after the
+   * <code>offset</code>.
+   * <p>
+   * The approach will use index access ( <code>get(int)</code> ) on the List, so it is recommended
+   * not to use linked lists as input.
+   * 
+   * @param sequence list to align the pattern with
+   * @param offset index in sequence where to start the alignments
+   * @return the offset of the match or <code>-1</code> if no match is found
+   */
+  public int find(final List<E> sequence, int offset) {
+    if (probe == null) return search(sequence, offset, null);
+    probe.begin();
+    try {
+      return search(sequence, offset, probe.call);
+    } finally {
+      probe.end(this);
+    }
+  }
+
+  /** The BOM search, counting into <code>call</code> unless it is <code>null</code>. */
+  int search(final List<E> sequence, int offset, final MatchStats call) {
+    final int size = sequence.size();
+    final int radix = ids.size();
+    while (offset <= size - end) {
+      int state = 0;
+      int i = end - 1;
+      while (i >= 0) {
+        final Integer c = ids.get(sequence.get(offset + i));
+        if (c == null || (state = oracle[state * radix + c]) == -1) break;
+        --i;
+      }
+      if (call != null) {
+        call.offsets++;
+        call.comparisons += end - i;
+      }
+      if (i < 0) return offset; // only the pattern itself has a path of its length
+      offset += i + 1;
+    }
+    return -1;
+  }
+}
@@ -2,14 +2,19 @@
  * Copyright 2012. All rights reserved. */
 package es.fnl.fsm;
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.Stack;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A <i>generic</i>, <b>NFA-based pattern matching</b> implementation using <i>weighted
@@ -42,18 +47,35 @@ import java.util.Set;
  * pattern's behavior can be augmented by making it {@link #optional() optional} ( <code>?</code> )
  * and/or by allowing it to {@link Pattern#repeat() repeat} ( <code>+</code> ; a pattern that is
  * made both optional and repeated effectively acts as a full Kleene closure ( <code>*</code> )).
+ * Bounded repetitions ( <code>{m,n}</code> ) can be made with {@link #repeat(int, int)}, and
+ * {@link #gap(int, int) gaps} of any elements can be chained with other patterns to match, e.g.,
+ * "A within 10 elements of B". Large alternations of literal sequences are best compiled into a
+ * minimal automaton with a {@link DawgBuilder} instead of nested branches.
  * Unless there are reasons not to, the last step of compiling a pattern should be to call
  * {@link Pattern#minimize()} on itself, thereby removing states with epsilon transitions and no
- * other pattern semantics (essentially, removing artifacts created during the compilation).
+ * other pattern semantics and merging equivalent states (essentially, removing artifacts created
+ * during the compilation).
  * <p>
- * A few convenience methods present in {@link java.util.regex.Pattern Java's Pattern API} are not
- * implemented, particularly the <code>split</code> methods.
+ * As in {@link java.util.regex.Pattern Java's Pattern API}, the pattern can {@link #split(List,
+ * int) split} a sequence; the pieces are found lazily and are views of the input.
+ * <p>
+ * Rule sets of many patterns that cannot be joined into one automaton (e.g., because they differ
+ * in greediness or have their own capture groups) can be matched in parallel with a
+ * {@link PatternEvaluator}.
  * 
  * @author Florian Leitner
  */
 public class Pattern<E> {
+  /** The label used for epsilon transitions in state signatures. */
+  private static final Object EPSILON = new Object();
   private State<E> entry;
   private State<E> exit;
+  private volatile Automata<E> automata = null; // shared by the matchers of this pattern
+  /**
+   * The number of changes made to the states of any pattern: patterns share their states with the
+   * patterns built from them, so a change through one pattern can change the automaton of another.
+   */
+  private static final AtomicLong MODIFICATIONS = new AtomicLong();
 
   /**
    * Create a pattern that matches a single transition.
@@ -76,6 +98,7 @@ public class Pattern<E> {
    * @return a joined NFA
    */
   public static final <T> Pattern<T> chain(Pattern<T> first, Pattern<T> second) {
+    modified();
     first.exit.makeNonFinal();
     first.exit.addEpsilonTransition(second.entry);
     return new Pattern<T>(first.entry, second.exit);
@@ -89,6 +112,7 @@ public class Pattern<E> {
    * @return a forked NFA
    */
   public static final <T> Pattern<T> branch(Pattern<T> left, Pattern<T> right) {
+    modified();
     State<T> entry = new State<T>();
     State<T> exit = new State<T>();
     left.exit.makeNonFinal();
@@ -108,6 +132,7 @@ public class Pattern<E> {
    * @return a NFA
    */
   public static final <T> Pattern<T> capture(Pattern<T> pattern) {
+    modified();
     // note that a state with both the capture start and end flag set will be treated as
     // first ending a group, then starting a new one; therefore, if the pattern's entry and
     // exit states are the same (instance), additional states need to be introduced, otherwise the
@@ -131,6 +156,25 @@ public class Pattern<E> {
     }
   }
 
+  /**
+   * Create a pattern that matches a gap of any <code>min</code> to <code>max</code> elements
+   * (e.g., "<code>.{0,10}</code>").
+   * <p>
+   * The gap is compiled into a single edge that the matcher expands one element at a time, instead
+   * of a chain of states.
+   * 
+   * @param min number of elements to skip
+   * @param max number of elements to skip; {@link Integer#MAX_VALUE} for no limit
+   * @return a NFA
+   * @throws IllegalArgumentException if min is negative, max is not positive, or min exceeds max
+   */
+  public static final <T> Pattern<T> gap(int min, int max) {
+    State<T> entry = new State<T>();
+    State<T> exit = new State<T>();
+    entry.addRun(new Run<T>(null, min, max), exit);
+    return new Pattern<T>(entry, exit);
+  }
+
   /**
    * Construct the simplest possible NFA: a two-state automata joined by an epsilon transition.
    * <p>
@@ -156,7 +200,15 @@ public class Pattern<E> {
   Pattern(State<E> entry, State<E> exit) {
     this.entry = entry;
     this.exit = exit;
-    exit.makeFinal(); // ensure at least exit is a final state
+    if (!exit.isFinal()) {
+      modified();
+      exit.makeFinal(); // ensure at least exit is a final state
+    }
+  }
+
+  /** Record a change to the states of a pattern (see {@link #automata(State, State)}). */
+  private static void modified() {
+    MODIFICATIONS.incrementAndGet();
   }
 
   /**
@@ -177,6 +229,7 @@ public class Pattern<E> {
    * @return itself/this pattern
    */
   public final Pattern<E> optional() {
+    modified();
     entry.addEpsilonTransition(exit);
     return this;
   }
@@ -190,14 +243,118 @@ public class Pattern<E> {
    * @return itself/this pattern
    */
   public final Pattern<E> repeat() {
+    modified();
     exit.addEpsilonTransition(entry);
     return this;
   }
 
+  /**
+   * Augment this pattern to match at least <code>min</code> and at most <code>max</code>
+   * repetitions of itself (<code>{min,max}</code>).
+   * <p>
+   * If this pattern matches a single transition only (e.g., it was created with
+   * {@link #match(Transition)}), the repetition is compiled into a single counted edge that lets
+   * the matcher jump directly to all offsets the repetition can reach; otherwise, the required
+   * copies of the pattern are chained together. As with {@link #repeat()}, the capture groups of
+   * the pattern are only reported once, for the last repetition: they are removed from all copies
+   * but the last.
+   * 
+   * @param min number of repetitions
+   * @param max number of repetitions; {@link Integer#MAX_VALUE} for no limit
+   * @return itself/this pattern
+   * @throws IllegalArgumentException if min is negative, max is not positive, or min exceeds max
+   */
+  public final Pattern<E> repeat(int min, int max) {
+    modified();
+    if (entry.transitions.size() == 1 && entry.runs.size() == 0 &&
+        entry.epsilonTransitions.size() == 0 && !entry.isCapturing() && !entry.isFinal() &&
+        !exit.isConsuming() && exit.epsilonTransitions.size() == 0 && !exit.isCapturing()) {
+      Transition<E> t = entry.transitions.keySet().iterator().next();
+      Set<State<E>> targets = entry.transitions.get(t);
+      if (targets.size() == 1 && targets.contains(exit)) {
+        Run<E> run = new Run<E>(t, min, max); // validates the bounds
+        entry.transitions.clear();
+        entry.addRun(run, exit);
+        return this;
+      }
+    }
+    new Run<E>(null, min, max); // validate the bounds
+    // X{min,max} is X{min-1,max-1} followed by the last repetition (all optional if min is zero)
+    final int before = (min == 0) ? 0 : min - 1;
+    Pattern<E> result = null;
+    Pattern<E> tail = null;
+    if (max == Run.UNBOUNDED) {
+      tail = skippable(copy(false).repeat());
+    } else {
+      for (int i = before; i < max - 1; i++)
+        tail = skippable((tail == null) ? copy(false) : chain(copy(false), tail));
+    }
+    for (int i = 0; i < before; i++)
+      result = (result == null) ? copy(false) : chain(result, copy(false));
+    result = (result == null) ? tail : (tail == null) ? result : chain(result, tail);
+    result = (result == null) ? copy(true) : chain(result, copy(true));
+    if (min == 0) result = skippable(result);
+    entry = result.entry;
+    exit = result.exit;
+    return this;
+  }
+
+  /**
+   * Make a pattern optional through new entry and exit states, unlike {@link #optional()}, so the
+   * bypass cannot be taken from within the pattern (e.g., after a loop back to its entry state).
+   * 
+   * @param pattern to make optional
+   * @return a NFA
+   */
+  private static <T> Pattern<T> skippable(Pattern<T> pattern) {
+    State<T> entry = new State<T>();
+    State<T> exit = new State<T>();
+    pattern.exit.makeNonFinal();
+    entry.addEpsilonTransition(pattern.entry);
+    entry.addEpsilonTransition(exit);
+    pattern.exit.addEpsilonTransition(exit);
+    return new Pattern<T>(entry, exit);
+  }
+
+  /**
+   * Create a copy of this pattern with new states (but the same transitions).
+   * 
+   * @param capturing <code>false</code> to drop the capture groups from the copy
+   */
+  private Pattern<E> copy(boolean capturing) {
+    Map<State<E>, State<E>> copies = new HashMap<State<E>, State<E>>();
+    List<State<E>> states = states();
+    for (State<E> s : states) {
+      State<E> c = new State<E>();
+      if (s.isFinal()) c.makeFinal();
+      if (capturing) {
+        c.captureStart = s.captureStart;
+        c.captureEnd = s.captureEnd;
+      }
+      copies.put(s, c);
+    }
+    for (State<E> s : states) {
+      State<E> c = copies.get(s);
+      for (State<E> next : s.epsilonTransitions)
+        c.addEpsilonTransition(copies.get(next));
+      for (Transition<E> t : s.transitions.keySet())
+        for (State<E> next : s.transitions.get(t))
+          c.addTransition(t, copies.get(next));
+      for (Run<E> r : s.runs.keySet())
+        for (State<E> next : s.runs.get(r))
+          c.addRun(r, copies.get(next));
+    }
+    return new Pattern<E>(copies.get(entry), copies.get(exit));
+  }
+
   /**
    * Remove states that only have epsilon transitions and instead connect their source and target
-   * states directly. Capture states will never be pruned even if they only have outgoing epsilon
-   * transitions.
+   * states directly, then merge all states that have the same flags and equivalent outgoing
+   * transitions. Capture states will never be pruned even if they only have outgoing epsilon
+   * transitions, nor will they be merged with other states.
+   * <p>
+   * The epsilon closures of the pruned states are computed in a single pass over their strongly
+   * connected components, and equivalent states are found by partition refinement.
    * <p>
    * This method should be used after the entire pattern has been compiled to reduce the total
    * number of transitions and states in the FSM.
@@ -205,63 +362,267 @@ public class Pattern<E> {
    * @return itself/this pattern
    */
   public final Pattern<E> minimize() {
+    modified();
     State<E> state;
-    Queue<State<E>> queue = new LinkedList<State<E>>(); // queue of states to check
-    // a map of states with only epsilon transitions and their associated target states
-    Map<State<E>, Set<State<E>>> invalidStates = new HashMap<State<E>, Set<State<E>>>();
-    Set<State<E>> validStates = new HashSet<State<E>>(); // states that should not be pruned
     // remove superfluous entry nodes (single epsilon transitions without any other semantics)
-    while (entry.transitions.size() == 0 && entry.epsilonTransitions.size() == 1 &&
+    while (!entry.isConsuming() && entry.epsilonTransitions.size() == 1 &&
         !entry.isFinal() && !entry.isCapturing()) {
       state = entry.epsilonTransitions.iterator().next();
       if (state.equals(entry)) break;
       entry = state;
     }
-    queue.add(entry);
+    List<State<E>> states = states();
     // detect invalid states: states that are non-final with no regular transitions
     // unless it is the entry state or a capture group-related state
-    while (!queue.isEmpty()) {
-      state = queue.remove();
-      if (!state.isFinal() && !state.isCapturing() && state.transitions.size() == 0 &&
-          !state.equals(entry)) {
-        // for those invalid states, record their (epsilon transition) targets
-        invalidStates.put(state, state.epsilonTransitions);
+    Set<State<E>> invalidStates = new HashSet<State<E>>();
+    for (State<E> s : states) {
+      if (s.epsilonTransitions.contains(s)) // safeguard to avoid infinite loops
+        throw new RuntimeException("circular reference detected: " + s.toString());
+      if (!s.isFinal() && !s.isCapturing() && !s.isConsuming() && !s.equals(entry))
+        invalidStates.add(s);
+    }
+    // expand all invalid states pointed at by valid ones with their valid target states
+    Map<State<E>, Set<State<E>>> closures = epsilonClosures(invalidStates);
+    for (State<E> valid : states) {
+      if (invalidStates.contains(valid)) continue;
+      replaceAndExpand(closures, valid.epsilonTransitions);
+      valid.epsilonTransitions.remove(valid); // expansions may lead back to the state itself
+      for (Set<State<E>> targetStates : valid.consumingTargets())
+        replaceAndExpand(closures, targetStates);
+    }
+    mergeStates();
+    return this;
+  }
+
+  /**
+   * Compute the valid target states reachable from each invalid state over epsilon transitions.
+   * <p>
+   * Uses Tarjan's algorithm to find the strongly connected components among the invalid states;
+   * as components are completed in reverse topological order, the closures of all successor
+   * components are known by the time a component's closure is assembled, and all states in one
+   * component share the same closure.
+   * 
+   * @param invalid the states that only have epsilon transitions
+   * @return a mapping of invalid states to their (valid) target expansions
+   */
+  private static final <T> Map<State<T>, Set<State<T>>> epsilonClosures(Set<State<T>> invalid) {
+    Map<State<T>, Set<State<T>>> closures = new HashMap<State<T>, Set<State<T>>>();
+    Map<State<T>, int[]> visited = new HashMap<State<T>, int[]>(); // {index, lowlink, on stack}
+    Stack<State<T>> component = new Stack<State<T>>();
+    Stack<State<T>> path = new Stack<State<T>>();
+    Stack<Iterator<State<T>>> edges = new Stack<Iterator<State<T>>>();
+    int counter = 0;
+    for (State<T> root : invalid) {
+      if (visited.containsKey(root)) continue;
+      visited.put(root, new int[] { counter, counter++, 1 });
+      component.push(root);
+      path.push(root);
+      edges.push(root.epsilonTransitions.iterator());
+      while (!path.isEmpty()) {
+        State<T> state = path.peek();
+        int[] tag = visited.get(state);
+        if (edges.peek().hasNext()) {
+          State<T> next = edges.peek().next();
+          if (!invalid.contains(next)) continue;
+          int[] nextTag = visited.get(next);
+          if (nextTag == null) {
+            // descend into an unseen invalid state
+            visited.put(next, new int[] { counter, counter++, 1 });
+            component.push(next);
+            path.push(next);
+            edges.push(next.epsilonTransitions.iterator());
+          } else if (nextTag[2] == 1) {
+            tag[1] = Math.min(tag[1], nextTag[0]);
+          }
+        } else {
+          path.pop();
+          edges.pop();
+          if (!path.isEmpty()) {
+            int[] parentTag = visited.get(path.peek());
+            parentTag[1] = Math.min(parentTag[1], tag[1]);
+          }
+          if (tag[0] == tag[1]) {
+            // the state is the root of a completed component
+            List<State<T>> members = new LinkedList<State<T>>();
+            State<T> member;
+            do {
+              member = component.pop();
+              visited.get(member)[2] = 0;
+              members.add(member);
+            } while (!member.equals(state));
+            Set<State<T>> closure = new HashSet<State<T>>();
+            for (State<T> m : members) {
+              for (State<T> next : m.epsilonTransitions) {
+                if (!invalid.contains(next)) closure.add(next);
+                else if (closures.containsKey(next)) closure.addAll(closures.get(next));
+              }
+            }
+            for (State<T> m : members)
+              closures.put(m, closure);
+          }
+        }
+      }
+    }
+    return closures;
+  }
+
+  /**
+   * Merge states that are equivalent: states with the same flags and the same outgoing transition
+   * signatures, i.e., that have transitions with equal labels into equivalent states.
+   * <p>
+   * Equivalence classes are found by Hopcroft-style partition refinement over an indexed
+   * representation of the states: a block is split whenever its members' signatures differ, and
+   * the predecessors of all states but those in the largest part of the split are queued for
+   * another round of refinement. Capture states are never merged, and the entry and exit states
+   * always represent their own class.
+   */
+  private void mergeStates() {
+    List<State<E>> states = states();
+    final int size = states.size();
+    Map<State<E>, Integer> index = new HashMap<State<E>, Integer>(size * 2);
+    for (State<E> s : states)
+      index.put(s, index.size());
+    List<List<Integer>> predecessors = new ArrayList<List<Integer>>(size);
+    for (int i = 0; i < size; i++)
+      predecessors.add(new LinkedList<Integer>());
+    // initial partition by flags and transition labels
+    int[] block = new int[size];
+    List<List<Integer>> blocks = new ArrayList<List<Integer>>();
+    Map<List<Object>, Integer> keys = new HashMap<List<Object>, Integer>();
+    for (int i = 0; i < size; i++) {
+      State<E> s = states.get(i);
+      for (State<E> next : s.epsilonTransitions)
+        predecessors.get(index.get(next)).add(i);
+      for (Set<State<E>> targets : s.consumingTargets())
+        for (State<E> next : targets)
+          predecessors.get(index.get(next)).add(i);
+      List<Object> key = new ArrayList<Object>(3);
+      if (s.isCapturing()) {
+        key.add(s); // capture states are singletons
       } else {
-        // everything else is a valid state
-        validStates.add(state);
+        key.add(s.isFinal());
+        key.add(s.epsilonTransitions.isEmpty());
+        key.add(new HashSet<Transition<E>>(s.transitions.keySet()));
+        key.add(new HashSet<Run<E>>(s.runs.keySet()));
       }
-      // find yet unseen states to queue
-      for (State<E> next : state.epsilonTransitions) {
-        if (!validStates.contains(next) && !invalidStates.containsKey(next)) queue.add(next);
-        if (next.equals(state)) // safeguard to avoid infinite loops
-          throw new RuntimeException("circular reference detected: " + state.toString());
+      Integer b = keys.get(key);
+      if (b == null) {
+        b = blocks.size();
+        keys.put(key, b);
+        blocks.add(new ArrayList<Integer>());
       }
-      for (Set<State<E>> stateSet : state.transitions.values()) {
-        for (State<E> next : stateSet) {
-          if (!validStates.contains(next) && !invalidStates.containsKey(next)) queue.add(next);
+      block[i] = b;
+      blocks.get(b).add(i);
+    }
+    // refine the partition until all blocks are stable
+    LinkedList<Integer> work = new LinkedList<Integer>();
+    BitSet queued = new BitSet();
+    for (int b = 0; b < blocks.size(); b++) {
+      work.add(b);
+      queued.set(b);
+    }
+    while (!work.isEmpty()) {
+      int b = work.removeFirst();
+      queued.clear(b);
+      List<Integer> members = blocks.get(b);
+      if (members.size() < 2) continue;
+      Map<Map<Object, Set<Integer>>, List<Integer>> parts =
+          new LinkedHashMap<Map<Object, Set<Integer>>, List<Integer>>();
+      for (int i : members) {
+        Map<Object, Set<Integer>> signature = signature(states.get(i), index, block);
+        List<Integer> part = parts.get(signature);
+        if (part == null) {
+          part = new ArrayList<Integer>();
+          parts.put(signature, part);
+        }
+        part.add(i);
+      }
+      if (parts.size() == 1) continue;
+      List<Integer> largest = null;
+      for (List<Integer> part : parts.values())
+        if (largest == null || part.size() > largest.size()) largest = part;
+      blocks.set(b, largest);
+      for (List<Integer> part : parts.values()) {
+        if (part == largest) continue;
+        int nb = blocks.size();
+        blocks.add(part);
+        for (int i : part)
+          block[i] = nb;
+        for (int i : part) {
+          for (int p : predecessors.get(i)) {
+            if (!queued.get(block[p])) {
+              queued.set(block[p]);
+              work.add(block[p]);
+            }
+          }
         }
       }
     }
-    boolean pruning = true;
-    // find invalid states that map to other invalid states and replace those
-    // targets by continuously expanding them until they are only valid targets left
-    while (pruning) {
-      // while any invalid state contained a mapping to any other invalid state, keep pruning
-      pruning = false; // assume pruning is done at the start of each round of pruning
-      // iterate over all invalid states
-      for (State<E> source : invalidStates.keySet()) {
-        // if replaceAndExpand is true, this source state was pointing to another invalid state
-        if (replaceAndExpand(invalidStates, invalidStates.get(source))) pruning = true;
+    // replace all states by the representatives of their blocks
+    Map<State<E>, State<E>> replacements = new HashMap<State<E>, State<E>>();
+    for (List<Integer> members : blocks) {
+      if (members.size() < 2) continue;
+      State<E> representative = states.get(members.get(0));
+      for (int i : members) {
+        State<E> s = states.get(i);
+        if (s.equals(entry) || s.equals(exit) && !representative.equals(entry)) representative = s;
+      }
+      for (int i : members) {
+        State<E> s = states.get(i);
+        if (!s.equals(representative)) replacements.put(s, representative);
       }
     }
-    // after pruning the pointers, we can now expand all invalid states pointed at by valid ones
-    // with their appropriate valid target states
-    for (State<E> valid : validStates) {
-      replaceAndExpand(invalidStates, valid.epsilonTransitions);
-      for (Set<State<E>> targetStates : valid.transitions.values())
-        replaceAndExpand(invalidStates, targetStates);
+    if (replacements.isEmpty()) return;
+    for (State<E> s : states) {
+      if (replacements.containsKey(s)) continue;
+      replace(replacements, s.epsilonTransitions);
+      s.epsilonTransitions.remove(s);
+      for (Set<State<E>> targets : s.consumingTargets())
+        replace(replacements, targets);
+    }
+    if (replacements.containsKey(entry)) entry = replacements.get(entry);
+    if (replacements.containsKey(exit)) exit = replacements.get(exit);
+  }
+
+  /** The transition signature of a state: the blocks reached by each transition label. */
+  private static final <T> Map<Object, Set<Integer>> signature(State<T> state,
+      Map<State<T>, Integer> index, int[] block) {
+    Map<Object, Set<Integer>> signature = new HashMap<Object, Set<Integer>>();
+    Set<Integer> targets = new HashSet<Integer>();
+    for (State<T> next : state.epsilonTransitions)
+      targets.add(block[index.get(next)]);
+    signature.put(EPSILON, targets);
+    for (Transition<T> t : state.transitions.keySet()) {
+      targets = new HashSet<Integer>();
+      for (State<T> next : state.transitions.get(t))
+        targets.add(block[index.get(next)]);
+      signature.put(t, targets);
+    }
+    for (Run<T> r : state.runs.keySet()) {
+      targets = new HashSet<Integer>();
+      for (State<T> next : state.runs.get(r))
+        targets.add(block[index.get(next)]);
+      signature.put(r, targets);
+    }
+    return signature;
+  }
+
+  /** Replace any states in the given set with their replacements. */
+  private static final <T> void replace(Map<State<T>, State<T>> replacements,
+      Set<State<T>> states) {
+    List<State<T>> found = null;
+    for (State<T> s : states) {
+      if (replacements.containsKey(s)) {
+        if (found == null) found = new LinkedList<State<T>>();
+        found.add(s);
+      }
+    }
+    if (found != null) {
+      for (State<T> s : found) {
+        states.remove(s);
+        states.add(replacements.get(s));
+      }
     }
-    return this;
   }
 
   /**
@@ -294,6 +655,151 @@ public class Pattern<E> {
     }
   }
 
+  /**
+   * List all states reachable from the entry state in breadth-first order, starting with the entry
+   * state itself.
+   */
+  List<State<E>> states() {
+    List<State<E>> states = new ArrayList<State<E>>();
+    Set<State<E>> seen = new HashSet<State<E>>();
+    Queue<State<E>> queue = new LinkedList<State<E>>();
+    queue.add(entry);
+    seen.add(entry);
+    while (!queue.isEmpty()) {
+      State<E> state = queue.remove();
+      states.add(state);
+      for (State<E> next : state.epsilonTransitions)
+        if (seen.add(next)) queue.add(next);
+      for (Set<State<E>> targets : state.consumingTargets())
+        for (State<E> next : targets)
+          if (seen.add(next)) queue.add(next);
+    }
+    return states;
+  }
+
+  /**
+   * Return the transitions that every match of this pattern has to consume an element with.
+   * <p>
+   * A sequence that has no element matching one of these transitions cannot contain a match, so
+   * the set can be used to reject sequences before matching them (as the {@link PatternEvaluator}
+   * does). Transitions in {@link #repeat(int, int) runs} are only required if the run's minimum is
+   * positive; {@link #gap(int, int) gaps} require no particular element.
+   * 
+   * @return the required transitions (empty if the pattern matches the empty sequence)
+   */
+  public final Set<Transition<E>> requiredTransitions() {
+    final List<State<E>> states = states();
+    // the transitions required on every path from a state to a final state; a state without an
+    // entry has no such path (yet)
+    final Map<State<E>, Set<Transition<E>>> required = new HashMap<State<E>, Set<Transition<E>>>();
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int i = states.size() - 1; i >= 0; i--) {
+        final State<E> s = states.get(i);
+        Set<Transition<E>> set;
+        if (s.isFinal()) {
+          set = new HashSet<Transition<E>>();
+        } else {
+          set = null;
+          for (State<E> t : s.epsilonTransitions)
+            set = meet(set, required.get(t), null);
+          for (Transition<E> t : s.transitions.keySet())
+            for (State<E> target : s.transitions.get(t))
+              set = meet(set, required.get(target), t);
+          for (Run<E> r : s.runs.keySet())
+            for (State<E> target : s.runs.get(r))
+              set = meet(set, required.get(target), (r.min > 0) ? r.transition : null);
+        }
+        if (set != null && !set.equals(required.get(s))) {
+          required.put(s, set);
+          changed = true;
+        }
+      }
+    }
+    final Set<Transition<E>> set = required.get(entry);
+    return (set == null) ? new HashSet<Transition<E>>() : set;
+  }
+
+  /**
+   * Intersect the transitions required so far with those required along another path.
+   * 
+   * @param set required so far (<code>null</code> if there was no path yet)
+   * @param path required after the path's transition (<code>null</code> if it is not a path)
+   * @param t the path's transition (<code>null</code> if it requires no element)
+   * @return the intersection (a new set unless it is <code>set</code> itself)
+   */
+  private static <T> Set<Transition<T>> meet(Set<Transition<T>> set, Set<Transition<T>> path,
+      Transition<T> t) {
+    if (path == null) return set;
+    if (set == null) {
+      set = new HashSet<Transition<T>>(path);
+      if (t != null) set.add(t);
+    } else {
+      final boolean keep = (t != null && set.contains(t));
+      set.retainAll(path);
+      if (keep) set.add(t);
+    }
+    return set;
+  }
+
+  /**
+   * Return the automata of the pattern with the given states, shared by all matchers of this
+   * pattern (and all threads using them). The cached automata are used as long as no pattern has
+   * been changed since they were compiled, as the states can be changed through this pattern or any
+   * of the patterns it has been built from; otherwise, they are compiled again (see
+   * {@link Automata}).
+   * 
+   * @param entry state of the matcher's pattern
+   * @param exit state of the matcher's pattern
+   * @return the automata
+   */
+  Automata<E> automata(State<E> entry, State<E> exit) {
+    final long modifications = MODIFICATIONS.get();
+    final Automata<E> cached = automata;
+    if (cached != null && cached.modifications == modifications && cached.entry == entry &&
+        cached.exit == exit) return cached;
+    final Automata<E> compiled = new Automata<E>(modifications, entry, exit, cached);
+    automata = compiled;
+    return compiled;
+  }
+
+  /**
+   * The automata a {@link Matcher} uses to speed up its search, compiled from the states of a
+   * pattern after a given number of modifications of any pattern.
+   * <p>
+   * The bit automaton is compiled if the pattern is small enough; otherwise, the lazy DFA (if the
+   * pattern has no runs) and the reverse automaton are compiled, and the DFA of the previous
+   * automata is kept (with the states it has cached) if its automaton did not change.
+   */
+  static final class Automata<E> {
+    final long modifications;
+    final State<E> entry;
+    final State<E> exit;
+    /** The bit-parallel automaton or <code>null</code> if the pattern is too large or has runs. */
+    final BitAutomaton<E> bits;
+    /** The lazy DFA or <code>null</code> if there is a bit automaton or the pattern has runs. */
+    final LazyDfa<E> dfa;
+    /** The reversed pattern or <code>null</code> if there is a bit automaton. */
+    final ReverseAutomaton<E> reverse;
+
+    Automata(long modifications, State<E> entry, State<E> exit, Automata<E> previous) {
+      this.modifications = modifications;
+      this.entry = entry;
+      this.exit = exit;
+      bits = BitAutomaton.compile(entry, exit);
+      if (bits == null) {
+        final LazyDfa<E> compiled = LazyDfa.compile(entry, exit);
+        dfa = (compiled != null && previous != null && previous.dfa != null &&
+            previous.dfa.sameAutomaton(compiled)) ? previous.dfa : compiled;
+        reverse = new ReverseAutomaton<E>(entry, exit);
+      } else {
+        dfa = null;
+        reverse = null;
+      }
+    }
+  }
+
   /**
    * Creates a matcher that will match the input sequence against this pattern.
    * 
@@ -301,9 +807,73 @@ public class Pattern<E> {
    * @return a new matcher for this pattern
    */
   public final Matcher<E> matcher(List<E> input) {
-    return new Matcher<E>(entry, exit, input);
+    return new Matcher<E>(this, entry, exit, input);
+  }
+
+  /**
+   * Creates a matcher that shares the transition tests on its input with the matchers of other
+   * patterns (see {@link PatternEvaluator}).
+   * 
+   * @param input shared with other matchers
+   * @return a new matcher for this pattern
+   */
+  final Matcher<E> matcher(SharedInput<E> input) {
+    return new Matcher<E>(this, entry, exit, input);
+  }
+
+  /**
+   * Creates a matcher that will match a stream of elements against this pattern.
+   * <p>
+   * The matcher only buffers the elements needed by its current match attempt, so the memory used
+   * is proportional to the longest (partial) match, not the length of the stream.
+   * 
+   * @param input stream to be matched
+   * @return a new matcher for this pattern
+   */
+  public final Matcher<E> matcher(Iterator<E> input) {
+    return new Matcher<E>(this, entry, exit, input);
+  }
+
+  /**
+   * Splits the input sequence around the matches of this pattern, dropping trailing empty pieces.
+   * 
+   * @param input sequence to split
+   * @return the pieces of the input
+   * @see #split(List, int)
+   */
+  public final Iterable<List<E>> split(List<E> input) {
+    return split(input, 0);
+  }
+
+  /**
+   * Splits the input sequence around the matches of this pattern, with the semantics of
+   * {@link java.util.regex.Pattern#split(CharSequence, int) Java's split}, but lazily: each match
+   * is only searched when the piece before it is requested.
+   * <p>
+   * The pieces are {@link List#subList(int, int) views} of the input, which therefore must not be
+   * changed while splitting; random access lists are not copied. If the pattern matches nowhere,
+   * the only piece is the entire input.
+   * 
+   * @param input sequence to split
+   * @param limit the maximum number of pieces if positive (the last piece being the remainder of
+   *        the input); if zero, trailing empty pieces are dropped; if negative, all pieces are kept
+   * @return the pieces of the input (each iterator searches the input anew)
+   */
+  public final Iterable<List<E>> split(final List<E> input, final int limit) {
+    final State<E> entry = this.entry;
+    final State<E> exit = this.exit;
+    return new Iterable<List<E>>() {
+      public Iterator<List<E>> iterator() {
+        final Matcher<E> matcher = new Matcher<E>(Pattern.this, entry, exit, input, false);
+        return new Splitter<E>(input, limit) {
+          boolean findDelimiter(int from) {
+            if (!matcher.findFurther()) return false;
+            start = matcher.start();
+            end = matcher.end();
+            return true;
+          }
+        };
+      }
+    };
   }
-  // XXX: possible future additions to make this class more equal to Java's Pattern API:
-  // public final List<E>[] split(List<E> input)
-  // public final List<E>[] split(List<E> input, int limit)
 }
@@ -0,0 +1,159 @@
+/* Created on Oct 19, 2026 by Florian Leitner.
+ * Copyright 2026. All rights reserved. */
+package es.fnl.fsm;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * An evaluator that matches a set of independent patterns against the same sequence in parallel,
+ * for rule sets that cannot be joined into a single pattern because each rule has its own
+ * greediness or capture groups.
+ * <p>
+ * The patterns are distributed over a number of shards (by default, one per processor), and each
+ * shard is evaluated by a task on the given executor (the first one by the calling thread). The
+ * work that does not depend on the pattern is done once per sequence and shared by all shards: the
+ * sequence is copied (if it is not a random access list) and its elements are interned, and each
+ * transition is only tested once per distinct element, even if several patterns use it (see
+ * {@link Transition#matches(Object)}; transitions are told apart by <code>equals(Object)</code>).
+ * The automata each pattern's matchers use to speed up their searches are compiled once per
+ * pattern and shared by all sequences and shards.
+ * Before a pattern is matched, the sequence is checked for elements matching the pattern's
+ * {@link Pattern#requiredTransitions() required transitions}; if any is missing, the pattern
+ * cannot match and is skipped. The transitions therefore must be thread-safe, and the patterns
+ * must not be changed after they have been added.
+ * <p>
+ * The results are the non-overlapping matches each pattern {@link Matcher#find() finds} in the
+ * sequence, in the order the patterns were {@link #add(Pattern, boolean) added}, independent of
+ * the number of shards and the order in which they complete.
+ * <p>
+ * This class is <b>thread-safe</b> once all patterns have been added: several sequences can be
+ * evaluated concurrently.
+ * 
+ * @author Florian Leitner
+ */
+public final class PatternEvaluator<E> {
+  private final ExecutorService executor;
+  private final int shards;
+  private final List<Pattern<E>> patterns = new ArrayList<Pattern<E>>();
+  private final BitSet greedy = new BitSet();
+  private final List<Set<Transition<E>>> required = new ArrayList<Set<Transition<E>>>();
+
+  /**
+   * Create an evaluator with one shard per available processor.
+   * 
+   * @param executor to run the shards on
+   */
+  public PatternEvaluator(ExecutorService executor) {
+    this(executor, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Create an evaluator.
+   * 
+   * @param executor to run the shards on
+   * @param shards the maximum number of tasks to split the patterns into
+   * @throws IllegalArgumentException if the number of shards is not positive
+   */
+  public PatternEvaluator(ExecutorService executor, int shards) {
+    if (shards < 1) throw new IllegalArgumentException("illegal number of shards");
+    this.executor = executor;
+    this.shards = shards;
+  }
+
+  /**
+   * Add a pattern to the set.
+   * 
+   * @param pattern to match
+   * @param greedy quantifiers if <code>true</code> (see {@link Matcher#greedy})
+   * @return the index of the pattern's results
+   */
+  public int add(Pattern<E> pattern, boolean greedy) {
+    if (greedy) this.greedy.set(patterns.size());
+    patterns.add(pattern);
+    required.add(pattern.requiredTransitions());
+    return patterns.size() - 1;
+  }
+
+  /** Returns the number of patterns added so far. */
+  public int size() {
+    return patterns.size();
+  }
+
+  /**
+   * Match all patterns against a sequence.
+   * 
+   * @param sequence to match; copied unless it is a random access list, which must not be changed
+   *        until the evaluation is done
+   * @return the {@link Matcher#results() results} of each pattern, in the order the patterns were
+   *         added
+   * @throws InterruptedException if the calling thread is interrupted while evaluating its shard
+   *         or waiting for the others (which are then cancelled)
+   */
+  public List<List<MatchResult>> evaluate(List<E> sequence) throws InterruptedException {
+    final SharedInput<E> input = new SharedInput<E>(sequence);
+    final int n = patterns.size();
+    final int tasks = Math.min(shards, n);
+    final List<List<MatchResult>> results = new ArrayList<List<MatchResult>>(n);
+    for (int i = 0; i < n; i++)
+      results.add(null);
+    final List<Future<Void>> futures = new ArrayList<Future<Void>>(tasks);
+    try {
+      for (int t = 1; t < tasks; t++)
+        futures.add(executor.submit(new Shard(t, tasks, input, results)));
+      if (tasks > 0) new Shard(0, tasks, input, results).call();
+      for (Future<Void> f : futures)
+        f.get();
+    } catch (MatchAbortedException e) {
+      if (e.reason() != MatchAbortedException.Reason.INTERRUPTED) throw e;
+      Thread.interrupted(); // clear the flag, as the thrown exception reports it
+      throw new InterruptedException(e.getMessage());
+    } catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      if (cause instanceof Error) throw (Error) cause;
+      throw new RuntimeException(cause);
+    } finally {
+      for (Future<Void> f : futures)
+        f.cancel(true);
+    }
+    return results;
+  }
+
+  /** A task evaluating every n-th pattern, storing the results at the patterns' indices. */
+  private final class Shard implements Callable<Void> {
+    private final int first;
+    private final int step;
+    private final SharedInput<E> input;
+    private final List<List<MatchResult>> results;
+
+    Shard(int first, int step, SharedInput<E> input, List<List<MatchResult>> results) {
+      this.first = first;
+      this.step = step;
+      this.input = input;
+      this.results = results;
+    }
+
+    public Void call() {
+      for (int p = first; p < results.size(); p += step) {
+        if (!input.containsAll(required.get(p))) {
+          results.set(p, new ArrayList<MatchResult>(0));
+          continue;
+        }
+        final Matcher<E> matcher = patterns.get(p).matcher(input).setInterruptible(true);
+        matcher.greedy = greedy.get(p);
+        final List<MatchResult> found = new ArrayList<MatchResult>();
+        for (MatchResult r : matcher.results())
+          found.add(r);
+        results.set(p, found);
+      }
+      return null;
+    }
+  }
+}
@@ -0,0 +1,202 @@
+/* Created on Oct 19, 2026 by Florian Leitner.
+ * Copyright 2026. All rights reserved. */
+package es.fnl.fsm;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * This matcher implements exact matching of an <code>int</code> pattern in primitive
+ * <code>int[]</code> and <code>byte[]</code> sequences, avoiding the boxing of elements and the
+ * <code>equals(Object)</code> calls of the generic matchers.
+ * <p>
+ * On sparse data, most of the time goes into finding candidate positions: the matcher therefore
+ * first scans for positions where both the first and the last element of the pattern are found at
+ * the right distance, and only verifies the remaining elements (right to left, as Boyer-Moore
+ * does) at those candidates. For <code>byte[]</code> sequences, the scan compares eight bytes at a
+ * time (SIMD within a register, using <code>long</code> words).
+ * <p>
+ * To match <code>byte[]</code> sequences, the pattern's elements have to be in the range of
+ * (signed) bytes, otherwise the pattern never matches.
+ * 
+ * @author Florian Leitner
+ */
+public final class PrimitiveMatcher extends MatcherBase<Integer> {
+  /** The pattern elements. */
+  private final int[] elements;
+  /** The first and last element of the pattern. */
+  private final int first, last;
+  /** The first and last element repeated in each byte of a word (if they are bytes). */
+  private final long firstBytes, lastBytes;
+  /** <code>true</code> if all pattern elements are (signed) bytes. */
+  private final boolean bytes;
+  /** The number of distinct elements. */
+  private final int radix;
+
+  private static final long LOW_BITS = 0x0101010101010101L;
+  private static final long HIGH_BITS = 0x8080808080808080L;
+
+  /**
+   * Create a matcher for a pattern sequence.
+   * 
+   * @param pattern sequence that should lead to a match
+   * @throws IllegalArgumentException if the pattern is empty
+   */
+  public PrimitiveMatcher(final int[] pattern) {
+    super(box(pattern));
+    elements = pattern.clone();
+    first = elements[0];
+    last = elements[end - 1];
+    boolean inRange = true;
+    HashSet<Integer> distinct = new HashSet<Integer>();
+    for (int e : elements) {
+      if (e != (byte) e) inRange = false;
+      distinct.add(e);
+    }
+    bytes = inRange;
+    radix = distinct.size();
+    firstBytes = (first & 0xFFL) * LOW_BITS;
+    lastBytes = (last & 0xFFL) * LOW_BITS;
+  }
+
+  /** Return the pattern as a list. */
+  private static List<Integer> box(final int[] pattern) {
+    List<Integer> list = new ArrayList<Integer>(pattern.length);
+    for (int e : pattern)
+      list.add(e);
+    return list;
+  }
+
+  @Override
+  public int radix() {
+    return radix;
+  }
+
+  /**
+   * Find the index at which the pattern matches in the <code>sequence</code>.
+   * 
+   * @param sequence to align the pattern with
+   * @return the offset of the match or <code>-1</code> if no match is found
+   * @see PrimitiveMatcher#find(int[], int)
+   */
+  public int find(final int[] sequence) {
+    return find(sequence, 0);
+  }
+
+  /**
+   * Find the index at which the pattern matches in the <code>sequence</code> at or after the
+   * <code>offset</code>.
+   * 
+   * @param sequence to align the pattern with
+   * @param offset index in sequence where to start the alignments
+   * @return the offset of the match or <code>-1</code> if no match is found
+   */
+  public int find(final int[] sequence, int offset) {
+    if (probe == null) return search(sequence, offset, null);
+    probe.begin();
+    try {
+      return search(sequence, offset, probe.call);
+    } finally {
+      probe.end(this);
+    }
+  }
+
+  /**
+   * Find the index at which the pattern matches in the <code>sequence</code>.
+   * 
+   * @param sequence to align the pattern with
+   * @return the offset of the match or <code>-1</code> if no match is found
+   * @see PrimitiveMatcher#find(byte[], int)
+   */
+  public int find(final byte[] sequence) {
+    return find(sequence, 0);
+  }
+
+  /**
+   * Find the index at which the pattern matches in the <code>sequence</code> at or after the
+   * <code>offset</code>.
+   * 
+   * @param sequence to align the pattern with
+   * @param offset index in sequence where to start the alignments
+   * @return the offset of the match or <code>-1</code> if no match is found
+   */
+  public int find(final byte[] sequence, int offset) {
+    if (probe == null) return search(sequence, offset, null);
+    probe.begin();
+    try {
+      return search(sequence, offset, probe.call);
+    } finally {
+      probe.end(this);
+    }
+  }
+
+  /** The candidate scan over ints, counting into <code>call</code> unless <code>null</code>. */
+  private int search(final int[] sequence, int offset, final MatchStats call) {
+    final int stop = sequence.length - end;
+    for (; offset <= stop; offset++) {
+      if (sequence[offset] == first && sequence[offset + end - 1] == last) {
+        if (verify(sequence, offset, call)) return offset;
+      }
+    }
+    return -1;
+  }
+
+  /** Check the inner pattern elements at a candidate position, right to left. */
+  private boolean verify(final int[] sequence, final int offset, final MatchStats call) {
+    int pointer = end - 2;
+    while (pointer > 0 && sequence[offset + pointer] == elements[pointer])
+      pointer--;
+    if (call != null) {
+      call.offsets++;
+      call.comparisons += end - pointer;
+    }
+    return pointer <= 0;
+  }
+
+  /**
+   * The candidate scan over bytes, counting into <code>call</code> unless it is <code>null</code>.
+   * <p>
+   * Eight candidate positions are tested at once: the words at the position and at the position of
+   * the last element are XORed with the repeated first and last element, so that the bytes of the
+   * candidates become zero; the zero bytes are then found with the usual carry trick. As that
+   * trick may flag bytes above a real zero byte, the candidates are verified in full.
+   */
+  private int search(final byte[] sequence, int offset, final MatchStats call) {
+    if (!bytes) return -1;
+    final int stop = sequence.length - end;
+    if (offset > stop) return -1;
+    final ByteBuffer buffer = ByteBuffer.wrap(sequence).order(ByteOrder.LITTLE_ENDIAN);
+    for (; offset + 8 <= stop + 1; offset += 8) {
+      final long word = (buffer.getLong(offset) ^ firstBytes) |
+          (buffer.getLong(offset + end - 1) ^ lastBytes);
+      long zeros = (word - LOW_BITS) & ~word & HIGH_BITS;
+      while (zeros != 0) {
+        final int candidate = offset + (Long.numberOfTrailingZeros(zeros) >>> 3);
+        if (verify(sequence, candidate, call)) return candidate;
+        zeros &= zeros - 1;
+      }
+    }
+    // the remaining positions that do not fill a word
+    for (; offset <= stop; offset++) {
+      if (sequence[offset] == first && sequence[offset + end - 1] == last) {
+        if (verify(sequence, offset, call)) return offset;
+      }
+    }
+    return -1;
+  }
+
+  /** Check the pattern elements at a candidate position, right to left. */
+  private boolean verify(final byte[] sequence, final int offset, final MatchStats call) {
+    int pointer = end - 1;
+    while (pointer >= 0 && sequence[offset + pointer] == elements[pointer])
+      pointer--;
+    if (call != null) {
+      call.offsets++;
+      call.comparisons += end - pointer;
+    }
+    return pointer < 0;
+  }
+}
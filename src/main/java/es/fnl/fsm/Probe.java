@@ -0,0 +1,38 @@
+/* Created on Oct 19, 2026 by Florian Leitner.
+ * Copyright 2026. All rights reserved. */
+package es.fnl.fsm;
+
+/**
+ * Collects the {@link MatchStats} of an instrumented matcher.
+ * <p>
+ * It should never be necessary to directly use this class of the generic FSA implementation.
+ * 
+ * @author Florian Leitner
+ */
+final class Probe {
+  /** The totals over all calls. */
+  final MatchStats total = new MatchStats();
+  /** The counters of the current call. */
+  final MatchStats call = new MatchStats();
+  /** The listener receiving the counters of each call (if any). */
+  final MatchListener listener;
+  private long started;
+
+  Probe(MatchListener listener) {
+    this.listener = listener;
+  }
+
+  /** Start counting a new call. */
+  void begin() {
+    call.reset();
+    call.attempts = 1;
+    started = System.nanoTime();
+  }
+
+  /** Finish counting the current call made by <code>source</code>. */
+  void end(Object source) {
+    call.nanos = System.nanoTime() - started;
+    total.add(call);
+    if (listener != null) listener.matched(source, call);
+  }
+}
@@ -0,0 +1,288 @@
+/* Created on Oct 19, 2026 by Florian Leitner.
+ * Copyright 2026. All rights reserved. */
+package es.fnl.fsm;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * The reversal of a {@link Pattern} NFA, used to find all offsets in an input sequence where a
+ * forward search for the pattern has to be made.
+ * <p>
+ * A {@link Scan} runs the reversed automaton as a state-set simulation (i.e., without any
+ * backpointers) from the end of the input towards its start. At each offset, the set of active
+ * states are those states from which the forward automaton could reach an accept state, or the
+ * end of the input while still needing more elements. If the entry state is active at some offset,
+ * a forward search starting there either matches or {@link Matcher#hitEnd() hits the end}; at all
+ * other offsets, the search is bound to fail without hitting the end and can be skipped.
+ * <p>
+ * It should never be necessary to directly use this class of the generic FSA implementation.
+ * 
+ * @author Florian Leitner
+ */
+final class ReverseAutomaton<E> {
+  private final int entry; // the index of the (forward) entry state
+  private final int[] accept; // the indices of all final states
+  private final int[] consuming; // the indices of all states with transitions or runs
+  private final int[][] epsilonSources; // states with epsilon transitions into each state
+  private final int[][] transitionSources; // states with transitions into each state
+  private final int[][] transitionLabels; // the transitions used by those states
+  private final Transition<E>[] transitions; // all (distinct) transitions and run transitions
+  private final int[] runSource; // the source state of each run
+  private final int[] runTarget; // the target state of each run
+  private final int[] runLabel; // the transition index of each run (-1 for gaps)
+  private final Run<E>[] runs; // the run of each run edge
+  private final int[][] runsInto; // the runs with a minimum of zero into each state
+  private final int size; // the number of states
+
+  /**
+   * Reverse the automaton reachable from the entry state.
+   * 
+   * @param start the entry state of the pattern
+   * @param exit the exit state of the pattern
+   */
+  @SuppressWarnings("unchecked")
+  ReverseAutomaton(State<E> start, State<E> exit) {
+    List<State<E>> states = new Pattern<E>(start, exit).states();
+    Map<State<E>, Integer> index = new HashMap<State<E>, Integer>();
+    for (State<E> s : states)
+      index.put(s, index.size());
+    size = states.size();
+    entry = index.get(start);
+    Map<Transition<E>, Integer> labels = new HashMap<Transition<E>, Integer>();
+    List<List<Integer>> epsilons = newLists(size);
+    List<List<Integer>> sources = newLists(size);
+    List<List<Integer>> sourceLabels = newLists(size);
+    List<List<Integer>> zeroRuns = newLists(size);
+    List<Integer> finals = new ArrayList<Integer>();
+    List<Integer> consumers = new ArrayList<Integer>();
+    List<int[]> edges = new ArrayList<int[]>();
+    List<Run<E>> edgeRuns = new ArrayList<Run<E>>();
+    for (int q = 0; q < size; q++) {
+      State<E> s = states.get(q);
+      if (s.isFinal()) finals.add(q);
+      if (s.isConsuming()) consumers.add(q);
+      for (State<E> next : s.epsilonTransitions)
+        epsilons.get(index.get(next)).add(q);
+      for (Transition<E> t : s.transitions.keySet()) {
+        int label = label(labels, t);
+        for (State<E> next : s.transitions.get(t)) {
+          sources.get(index.get(next)).add(q);
+          sourceLabels.get(index.get(next)).add(label);
+        }
+      }
+      for (Run<E> r : s.runs.keySet()) {
+        int label = (r.transition == null) ? -1 : label(labels, r.transition);
+        for (State<E> next : s.runs.get(r)) {
+          if (r.min == 0) zeroRuns.get(index.get(next)).add(edges.size());
+          edges.add(new int[] { q, index.get(next), label });
+          edgeRuns.add(r);
+        }
+      }
+    }
+    accept = toArray(finals);
+    consuming = toArray(consumers);
+    epsilonSources = toArrays(epsilons);
+    transitionSources = toArrays(sources);
+    transitionLabels = toArrays(sourceLabels);
+    runsInto = toArrays(zeroRuns);
+    transitions = (Transition<E>[]) new Transition<?>[labels.size()];
+    for (Transition<E> t : labels.keySet())
+      transitions[labels.get(t)] = t;
+    runSource = new int[edges.size()];
+    runTarget = new int[edges.size()];
+    runLabel = new int[edges.size()];
+    runs = edgeRuns.toArray((Run<E>[]) new Run<?>[edges.size()]);
+    for (int e = 0; e < edges.size(); e++) {
+      runSource[e] = edges.get(e)[0];
+      runTarget[e] = edges.get(e)[1];
+      runLabel[e] = edges.get(e)[2];
+    }
+  }
+
+  /** Return the index of a transition, adding it if necessary. */
+  private static <T> int label(Map<Transition<T>, Integer> labels, Transition<T> t) {
+    Integer label = labels.get(t);
+    if (label == null) {
+      label = labels.size();
+      labels.put(t, label);
+    }
+    return label;
+  }
+
+  private static List<List<Integer>> newLists(int size) {
+    List<List<Integer>> lists = new ArrayList<List<Integer>>(size);
+    for (int i = 0; i < size; i++)
+      lists.add(new ArrayList<Integer>());
+    return lists;
+  }
+
+  private static int[] toArray(List<Integer> list) {
+    int[] array = new int[list.size()];
+    for (int i = 0; i < array.length; i++)
+      array[i] = list.get(i);
+    return array;
+  }
+
+  private static int[][] toArrays(List<List<Integer>> lists) {
+    int[][] arrays = new int[lists.size()][];
+    for (int i = 0; i < arrays.length; i++)
+      arrays[i] = toArray(lists.get(i));
+    return arrays;
+  }
+
+  /**
+   * Start a new backward scan of a sequence.
+   * 
+   * @param sequence to scan
+   * @param end of the scan, treated as the end of the input (e.g., the end of a region)
+   * @param call stats to count the transition tests into (<code>null</code> if not instrumented)
+   * @return the scan, positioned at the end
+   */
+  Scan scan(List<E> sequence, int end, MatchStats call) {
+    return new Scan(sequence, end, call);
+  }
+
+  /**
+   * A backward scan over a sequence, one offset at a time.
+   */
+  final class Scan {
+    private final List<E> seq;
+    private final MatchStats call;
+    private final int end; // the end of the scanned input
+    private int offset; // the offset of the next step
+    private BitSet active = new BitSet(); // states active at the last offset scanned
+    private BitSet current = new BitSet(); // states active at the current offset
+    private final BitSet starts = new BitSet(); // offsets where the entry state was active
+    private final int[] tested; // the offset (+1) at which each transition was last tested
+    private final boolean[] results; // the result of that test
+    private final int[] streak; // the number of consecutive elements matched by each run
+    private final int[][] reached; // the offsets where each run's target was active (descending)
+    private final int[] reachedFirst; // the first relevant index in each reached array
+    private final int[] reachedSize; // the number of offsets in each reached array
+    private final Queue<Integer> closure = new LinkedList<Integer>();
+
+    Scan(List<E> sequence, int end, MatchStats call) {
+      seq = sequence;
+      this.call = call;
+      this.end = end;
+      offset = end;
+      tested = new int[transitions.length];
+      results = new boolean[transitions.length];
+      streak = new int[runs.length];
+      reached = new int[runs.length][];
+      reachedFirst = new int[runs.length];
+      reachedSize = new int[runs.length];
+      for (int e = 0; e < runs.length; e++)
+        reached[e] = new int[8];
+    }
+
+    /** Return the offset the next {@link #step()} will scan. */
+    int offset() {
+      return offset;
+    }
+
+    /** Return the offsets scanned so far where a forward search has to be made. */
+    BitSet starts() {
+      return starts;
+    }
+
+    /** Scan the next offset (towards the start of the sequence). */
+    void step() {
+      final int p = offset--;
+      current.clear();
+      for (int q : accept)
+        activate(q);
+      if (p == end) {
+        // states that need more elements at the end of the input
+        for (int q : consuming)
+          activate(q);
+      } else {
+        for (int r = active.nextSetBit(0); r >= 0; r = active.nextSetBit(r + 1)) {
+          for (int i = 0; i < transitionSources[r].length; i++)
+            if (test(transitionLabels[r][i], p)) activate(transitionSources[r][i]);
+        }
+      }
+      for (int e = 0; e < runs.length; e++) {
+        if (p == end) streak[e] = 0;
+        else if (runLabel[e] == -1) streak[e] = end - p;
+        else if (test(runLabel[e], p)) streak[e]++;
+        else streak[e] = 0;
+        if (p < end && p + streak[e] == end && streak[e] < runs[e].max) {
+          activate(runSource[e]); // the run needs more elements at the end of the input
+        } else if (streak[e] > 0 &&
+            reached(e, p + Math.max(runs[e].min, 1), p + Math.min(runs[e].max, streak[e]))) {
+          activate(runSource[e]);
+        }
+      }
+      while (!closure.isEmpty()) {
+        int r = closure.remove();
+        for (int q : epsilonSources[r])
+          activate(q);
+        for (int e : runsInto[r])
+          activate(runSource[e]);
+      }
+      for (int e = 0; e < runs.length; e++)
+        if (current.get(runTarget[e])) addReached(e, p);
+      if (current.get(entry)) starts.set(p);
+      BitSet tmp = active;
+      active = current;
+      current = tmp;
+    }
+
+    /** Mark a state as active at the current offset. */
+    private void activate(int q) {
+      if (!current.get(q)) {
+        current.set(q);
+        closure.add(q);
+      }
+    }
+
+    /** Test (once) if the element at offset <code>p</code> matches a transition. */
+    private boolean test(int label, int p) {
+      if (tested[label] != p + 1) {
+        if (call != null) call.comparisons++;
+        tested[label] = p + 1;
+        results[label] = transitions[label].matches(seq.get(p));
+      }
+      return results[label];
+    }
+
+    /** Check if the target of run <code>e</code> was active at any offset in [lo, hi]. */
+    private boolean reached(int e, int lo, int hi) {
+      final int[] offsets = reached[e];
+      final int max = runs[e].max;
+      // drop offsets that are out of reach for this and all further (smaller) offsets
+      while (reachedFirst[e] < reachedSize[e] && offsets[reachedFirst[e]] - offset - 1 > max)
+        reachedFirst[e]++;
+      // find the smallest offset >= lo (the array is in descending order)
+      int low = reachedFirst[e], high = reachedSize[e];
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (offsets[mid] >= lo) low = mid + 1;
+        else high = mid;
+      }
+      return low > reachedFirst[e] && offsets[low - 1] <= hi;
+    }
+
+    /** Record that the target of run <code>e</code> is active at offset <code>p</code>. */
+    private void addReached(int e, int p) {
+      if (reachedSize[e] == reached[e].length) {
+        // compact or grow the array
+        int live = reachedSize[e] - reachedFirst[e];
+        int[] offsets = (live * 2 > reached[e].length) ? new int[reached[e].length * 2]
+            : reached[e];
+        System.arraycopy(reached[e], reachedFirst[e], offsets, 0, live);
+        reached[e] = offsets;
+        reachedFirst[e] = 0;
+        reachedSize[e] = live;
+      }
+      reached[e][reachedSize[e]++] = p;
+    }
+  }
+}
@@ -0,0 +1,24 @@
+/* Created on Oct 19, 2026 by Florian Leitner.
+ * Copyright 2026. All rights reserved. */
+package es.fnl.fsm;
+
+import java.util.Collection;
+
+/**
+ * A callback that produces the replacement of each match for the rewrite operations of a
+ * {@link Matcher} (see {@link Matcher#replaceAll(Rewriter)}).
+ * <p>
+ * The matcher is positioned at the match to replace, so the replacement can depend on its capture
+ * groups, which are best copied to the sink with {@link Matcher#appendGroup(Collection, int)}.
+ * 
+ * @author Florian Leitner
+ */
+public interface Rewriter<E> {
+  /**
+   * Append the replacement of the current match to the sink.
+   * 
+   * @param match the matcher, positioned at the match to replace
+   * @param sink to append the replacement to
+   */
+  public void rewrite(Matcher<E> match, Collection<? super E> sink);
+}
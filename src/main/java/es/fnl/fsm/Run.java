@@ -0,0 +1,73 @@
+/* Created on Oct 19, 2026 by Florian Leitner.
+ * Copyright 2026. All rights reserved. */
+package es.fnl.fsm;
+
+/**
+ * A counted run of a {@link Transition} (<code>{min,max}</code>), or, if the transition is
+ * <code>null</code>, a gap of any <code>min</code> to <code>max</code> elements.
+ * <p>
+ * Runs are used as the labels of edges that consume several elements at once: the {@link Matcher}
+ * jumps directly to all offsets that can be reached with the run, instead of walking through a
+ * chain of states.
+ * <p>
+ * It should never be necessary to directly use this class of the generic FSA implementation.
+ * 
+ * @author Florian Leitner
+ */
+final class Run<E> {
+  /** The maximum of an unbounded run. */
+  static final int UNBOUNDED = Integer.MAX_VALUE;
+  /** The transition each element has to match; <code>null</code> for a gap. */
+  final Transition<E> transition;
+  /** The minimum number of elements to consume. */
+  final int min;
+  /** The maximum number of elements to consume. */
+  final int max;
+
+  /**
+   * Create a new run.
+   * 
+   * @param transition each element has to match; <code>null</code> for a gap
+   * @param min number of elements to consume
+   * @param max number of elements to consume; {@link #UNBOUNDED} for no limit
+   * @throws IllegalArgumentException if min is negative, max is not positive, or min exceeds max
+   */
+  Run(Transition<E> transition, int min, int max) {
+    if (min < 0 || max < 1 || min > max)
+      throw new IllegalArgumentException(String.format("illegal bounds {%d,%d}", min, max));
+    this.transition = transition;
+    this.min = min;
+    this.max = max;
+  }
+
+  /** Return the weight gained for each consumed element (zero for gaps). */
+  double weight() {
+    return (transition == null) ? 0.0 : transition.weight();
+  }
+
+  /** Only compare the transition and bounds. */
+  @Override
+  public boolean equals(Object o) {
+    if (o == this) return true;
+    else if (!(o instanceof Run)) return false;
+    final Run<?> other = (Run<?>) o;
+    return min == other.min && max == other.max &&
+        (transition == null ? other.transition == null : transition.equals(other.transition));
+  }
+
+  /** Only use the transition and bounds. */
+  @Override
+  public int hashCode() {
+    int code = 17;
+    code = 31 * code + (transition == null ? 0 : transition.hashCode());
+    code = 31 * code + min;
+    code = 31 * code + max;
+    return code;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s{%d,%s}", transition == null ? "." : transition.toString(), min,
+        max == UNBOUNDED ? "" : Integer.toString(max));
+  }
+}
@@ -0,0 +1,141 @@
+/* Created on Oct 19, 2026 by Florian Leitner.
+ * Copyright 2026. All rights reserved. */
+package es.fnl.fsm;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The per-sequence work that the matchers of many patterns on the same input can share: a random
+ * access copy of the input, its elements interned to integer IDs (by <code>equals(Object)</code>,
+ * as in the exact matchers), and a cache of the results of testing transitions against them.
+ * <p>
+ * The results are cached per transition and distinct element, so a transition used by several
+ * patterns (or at several offsets with the same element) is only tested once. Transitions are
+ * told apart by <code>equals(Object)</code>, so equal transitions must match the same elements.
+ * <p>
+ * The cache is lock-free: a result is computed by the first thread that needs it and written to a
+ * plain byte array, so another thread might (harmlessly) compute it again. Transitions therefore
+ * have to be side-effect free, as they are tested by several threads.
+ * <p>
+ * As the signature of the input, it also records which transitions match any of its elements, so
+ * the patterns that {@link Pattern#requiredTransitions() require} a transition that matches none
+ * can be skipped.
+ * <p>
+ * It should never be necessary to directly use this class of the generic FSA implementation.
+ * 
+ * @author Florian Leitner
+ */
+final class SharedInput<E> {
+  private static final byte UNKNOWN = 0;
+  private static final byte MATCH = 1;
+  private static final byte MISMATCH = 2;
+  /** The input sequence (random access). */
+  final List<E> sequence;
+  private final int[] ids; // the interned input
+  private final int[] offsets; // an offset of each distinct element
+  private final int vocabulary; // the number of distinct elements
+  private final ConcurrentMap<Transition<E>, byte[]> results =
+      new ConcurrentHashMap<Transition<E>, byte[]>();
+  private final ConcurrentMap<Transition<E>, Boolean> signature =
+      new ConcurrentHashMap<Transition<E>, Boolean>();
+
+  /**
+   * Intern an input sequence.
+   * 
+   * @param input sequence; copied unless it is a random access list, which must not be changed
+   *        while it is being matched
+   */
+  SharedInput(List<E> input) {
+    sequence = (input instanceof RandomAccess) ? input : new ArrayList<E>(input);
+    ids = new int[sequence.size()];
+    final Map<E, Integer> vocabulary = new HashMap<E, Integer>();
+    for (int i = 0; i < ids.length; i++) {
+      final E element = sequence.get(i);
+      Integer id = vocabulary.get(element);
+      if (id == null) {
+        id = vocabulary.size();
+        vocabulary.put(element, id);
+      }
+      ids[i] = id;
+    }
+    this.vocabulary = vocabulary.size();
+    offsets = new int[this.vocabulary];
+    for (int i = ids.length - 1; i >= 0; i--)
+      offsets[ids[i]] = i;
+  }
+
+  /** Return the length of the input. */
+  int size() {
+    return ids.length;
+  }
+
+  /** Return the number of distinct elements in the input. */
+  int vocabulary() {
+    return vocabulary;
+  }
+
+  /** Return the number of distinct transitions tested so far. */
+  int transitions() {
+    return results.size();
+  }
+
+  /**
+   * Check if any element of the input matches a transition (testing each distinct element once).
+   * 
+   * @param transition to test
+   * @return <code>true</code> if the transition can be taken somewhere in the input
+   */
+  boolean contains(Transition<E> transition) {
+    Boolean found = signature.get(transition);
+    if (found == null) {
+      boolean any = false;
+      for (int id = 0; id < vocabulary && !any; id++)
+        any = test(transition, offsets[id]);
+      found = Boolean.valueOf(any);
+      signature.putIfAbsent(transition, found);
+    }
+    return found;
+  }
+
+  /**
+   * Check if the input contains an element matching each of the transitions.
+   * 
+   * @param transitions to test
+   * @return <code>false</code> if any transition cannot be taken anywhere in the input
+   */
+  boolean containsAll(Collection<Transition<E>> transitions) {
+    for (Transition<E> t : transitions)
+      if (!contains(t)) return false;
+    return true;
+  }
+
+  /**
+   * Test if the element at an offset matches a transition (once per distinct element).
+   * 
+   * @param transition to test
+   * @param offset of the element in the input
+   * @return the (cached) result of the transition's {@link Transition#matches(Object) matches}
+   */
+  boolean test(Transition<E> transition, int offset) {
+    byte[] cache = results.get(transition);
+    if (cache == null) {
+      cache = new byte[vocabulary];
+      final byte[] known = results.putIfAbsent(transition, cache);
+      if (known != null) cache = known;
+    }
+    final int id = ids[offset];
+    byte result = cache[id];
+    if (result == UNKNOWN) {
+      result = transition.matches(sequence.get(offset)) ? MATCH : MISMATCH;
+      cache[id] = result;
+    }
+    return result == MATCH;
+  }
+}
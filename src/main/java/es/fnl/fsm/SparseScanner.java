@@ -0,0 +1,127 @@
+/* Created on Oct 19, 2026 by Florian Leitner.
+ * Copyright 2026. All rights reserved. */
+package es.fnl.fsm;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This scanner implements sequence comparison over <i>Iterators</i> using the
+ * <b>Knuth-Morris-Pratt</b> pattern matching algorithm with a failure function instead of the full
+ * transition tables used by {@link ExactScanner}.
+ * <p>
+ * The pattern elements are interned to integer IDs and each state only has its one explicit
+ * (matching) transition plus a failure link; the links are "strong", i.e., skip over states that
+ * would compare with the same element again. Therefore, the scanner needs O(length) memory
+ * independent of the pattern's radix, while each element is consumed in amortized constant time;
+ * elements that do not occur in the pattern return to the initial state at once.
+ * <p>
+ * As this is an exact matcher, elements are compared using <code>equals(Object)</code>. Note that
+ * the empty pattern is illegal, while a <code>null</code> in the pattern is allowed to match a
+ * <code>null</code> in the sequence if at the right position.
+ * 
+ * @author Florian Leitner
+ */
+public final class SparseScanner<E> extends MatcherBase<E> {
+  /** The IDs of the distinct pattern elements. */
+  private final Map<E, Integer> ids;
+  /** The interned pattern, i.e., the explicit transition of each state. */
+  private final int[] transitions;
+  /** The KMP failure function (-1 for the initial state). */
+  private final int[] failure;
+
+  /**
+   * Create a scanner for a pattern sequence, preprocessing the failure function.
+   * 
+   * @param pattern sequence that should lead to a match
+   * @throws IllegalArgumentException if the pattern is empty
+   */
+  public SparseScanner(final List<E> pattern) {
+    super(pattern);
+    ids = new HashMap<E, Integer>();
+    transitions = new int[end];
+    failure = new int[end + 1];
+    int i = 0;
+    for (E element : this.pattern) {
+      Integer id = ids.get(element);
+      if (id == null) {
+        id = ids.size();
+        ids.put(element, id);
+      }
+      transitions[i++] = id;
+    }
+    // compute the (strong) failure links:
+    failure[0] = -1;
+    for (int base = -1, pointer = 0; pointer < end;) {
+      while (base > -1 && transitions[base] != transitions[pointer])
+        base = failure[base];
+      base++;
+      pointer++;
+      // skip the fallback state if it would test the same element again
+      if (pointer < end && transitions[base] == transitions[pointer])
+        failure[pointer] = failure[base];
+      else failure[pointer] = base;
+    }
+  }
+
+  /** Convenience method to construct the scanner from an iterator. */
+  public SparseScanner(final Iterator<E> pattern) {
+    this(newLinkedList(pattern));
+  }
+
+  /** Return a linked list of the content in <code>iterator</code> . */
+  private static <E> LinkedList<E> newLinkedList(Iterator<E> iterator) {
+    LinkedList<E> ll = new LinkedList<E>();
+    while (iterator.hasNext())
+      ll.add(iterator.next());
+    return ll;
+  }
+
+  @Override
+  public int radix() {
+    return ids.size();
+  }
+
+  /**
+   * Determine if the pattern matches anywhere in a stream.
+   * <p>
+   * The iteration will halt <i>after</i> the last element of a valid pattern has been found or
+   * consumes the entire stream otherwise.
+   * 
+   * @param seqIt the sequence stream to scan
+   * @return <code>true</code> if the stream contained the pattern
+   */
+  public boolean scan(final Iterator<E> seqIt) {
+    if (probe == null) return scan(seqIt, null);
+    probe.begin();
+    try {
+      return scan(seqIt, probe.call);
+    } finally {
+      probe.end(this);
+    }
+  }
+
+  /** The KMP scan, counting into <code>call</code> unless it is <code>null</code>. */
+  private boolean scan(final Iterator<E> seqIt, final MatchStats call) {
+    int pointer = 0;
+    while (seqIt.hasNext()) {
+      final Integer element = ids.get(seqIt.next());
+      if (call != null) call.offsets++;
+      if (element == null) {
+        pointer = 0; // an unknown element: return to the initial state
+        continue;
+      }
+      final int id = element;
+      while (pointer > -1 && transitions[pointer] != id) {
+        if (call != null) call.comparisons++;
+        pointer = failure[pointer];
+      }
+      if (call != null) call.comparisons++;
+      if (++pointer == end) return true;
+    }
+    return false;
+  }
+}
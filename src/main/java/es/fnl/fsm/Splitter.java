@@ -0,0 +1,103 @@
+/* Created on Oct 19, 2026 by Florian Leitner.
+ * Copyright 2026. All rights reserved. */
+package es.fnl.fsm;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A lazy iterator over the pieces of a sequence between the delimiters found by some matcher, with
+ * the semantics of Java's {@link java.util.regex.Pattern#split(CharSequence, int)}.
+ * <p>
+ * The pieces are {@link List#subList(int, int) views} of the input, and each delimiter is only
+ * searched when the piece before it is requested. If the limit is zero, trailing empty pieces are
+ * dropped, so empty pieces are held back (only counted) until a non-empty piece follows them.
+ * <p>
+ * It should never be necessary to directly use this class of the generic FSA implementation.
+ * 
+ * @author Florian Leitner
+ */
+abstract class Splitter<E> implements Iterator<List<E>> {
+  private final List<E> input;
+  private final int limit;
+  private int offset = 0; // the start of the next piece (-1 after the last piece)
+  private int pieces = 0; // the number of pieces split off so far
+  private int held = 0; // the number of empty pieces held back
+  private List<E> next = null; // the next piece to return
+  private boolean whole = false; // true if the last piece is the entire input
+  /** The offsets of the delimiter found by {@link #findDelimiter(int)}. */
+  int start, end;
+
+  /**
+   * Creates a new Splitter object.
+   * 
+   * @param input to split
+   * @param limit the maximum number of pieces if positive; if zero, trailing empty pieces are
+   *        dropped
+   */
+  Splitter(List<E> input, int limit) {
+    this.input = input;
+    this.limit = limit;
+  }
+
+  /**
+   * Find the next delimiter, setting its {@link #start} and {@link #end}.
+   * 
+   * @param from the end of the previous delimiter
+   * @return <code>false</code> if there are no more delimiters
+   */
+  abstract boolean findDelimiter(int from);
+
+  /** Return the next piece, without holding back empty ones (<code>null</code> after the last). */
+  private List<E> piece() {
+    if (offset == -1) return null;
+    if (limit <= 0 || pieces < limit - 1) {
+      while (findDelimiter(offset)) {
+        // a zero-width delimiter at the beginning does not split off an empty leading piece
+        if (end == 0) continue;
+        final List<E> piece = input.subList(offset, start);
+        offset = end;
+        pieces++;
+        return piece;
+      }
+    }
+    whole = (pieces++ == 0);
+    final List<E> piece = input.subList(offset, input.size());
+    offset = -1;
+    return piece;
+  }
+
+  /** Fetch the next piece, counting the empty pieces before it if they might be dropped. */
+  private void fetch() {
+    next = piece();
+    if (limit == 0) {
+      while (next != null && next.isEmpty() && !whole) {
+        held++;
+        next = piece();
+      }
+      if (next == null) held = 0; // drop the trailing empty pieces
+    }
+  }
+
+  public boolean hasNext() {
+    if (held == 0 && next == null) fetch();
+    return (held > 0 || next != null);
+  }
+
+  public List<E> next() {
+    if (!hasNext()) throw new NoSuchElementException();
+    if (held > 0) {
+      held--;
+      return Collections.<E> emptyList();
+    }
+    final List<E> piece = next;
+    next = null;
+    return piece;
+  }
+
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+}
@@ -2,6 +2,7 @@
  * Copyright 2012. All rights reserved. */
 package es.fnl.fsm;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -24,6 +25,7 @@ final class State<E> {
   boolean captureEnd = false;
   Map<Transition<E>, Set<State<E>>> transitions = new HashMap<Transition<E>, Set<State<E>>>();
   Set<State<E>> epsilonTransitions = new HashSet<State<E>>();
+  Map<Run<E>, Set<State<E>>> runs = new HashMap<Run<E>, Set<State<E>>>();
 
   /** A representation of a State for debugging purposes. */
   @Override
@@ -38,8 +40,8 @@ final class State<E> {
     StringBuffer sb = new StringBuffer();
     List<State<E>> toVisit = new LinkedList<State<E>>();
     sb.append(State.class.getSimpleName());
-    sb.append(String.format("[acc=%s cap=%s%s e:%d t:%d]\n", accept, captureStart ? "(" : "",
-        captureEnd ? ")" : "", epsilonTransitions.size(), transitions.size()));
+    sb.append(String.format("[acc=%s cap=%s%s e:%d t:%d r:%d]\n", accept, captureStart ? "(" : "",
+        captureEnd ? ")" : "", epsilonTransitions.size(), transitions.size(), runs.size()));
     for (int i = 0; i < level; i++)
       sb.append("  ");
     sb.append("{");
@@ -60,6 +62,28 @@ final class State<E> {
       sb.append(s.toStringVisitor(new HashSet<State<E>>(visited), level));
     }
     toVisit.clear();
+    for (Run<E> r : runs.keySet()) {
+      for (State<E> s : runs.get(r)) {
+        if (!visited.contains(s)) {
+          visited.add(s);
+          toVisit.add(s);
+        }
+      }
+    }
+    for (Run<E> r : runs.keySet()) {
+      for (State<E> s : runs.get(r)) {
+        if (toVisit.contains(s)) {
+          any = true;
+          sb.append("\n");
+          for (int i = 0; i < level; i++)
+            sb.append("  ");
+          sb.append(r);
+          sb.append(" => ");
+          sb.append(s.toStringVisitor(new HashSet<State<E>>(visited), level));
+        }
+      }
+    }
+    toVisit.clear();
     for (Transition<E> t : transitions.keySet()) {
       for (State<E> s : transitions.get(t)) {
         if (!visited.contains(s)) {
@@ -126,6 +150,37 @@ final class State<E> {
     stateList.add(s);
   }
 
+  /**
+   * Add a run <code>r</code> to another state <code>s</code> that consumes as many elements as
+   * the run allows if all of them {@link Transition#matches match} the run's transition.
+   * 
+   * @param r run (requirement)
+   * @param s target state (for the run)
+   */
+  void addRun(Run<E> r, State<E> s) {
+    Set<State<E>> stateList;
+    if (runs.containsKey(r)) {
+      stateList = runs.get(r);
+    } else {
+      stateList = new HashSet<State<E>>();
+      runs.put(r, stateList);
+    }
+    stateList.add(s);
+  }
+
+  /** Return the target state sets of all (element-consuming) transitions and runs. */
+  List<Set<State<E>>> consumingTargets() {
+    List<Set<State<E>>> targets = new ArrayList<Set<State<E>>>(transitions.size() + runs.size());
+    targets.addAll(transitions.values());
+    targets.addAll(runs.values());
+    return targets;
+  }
+
+  /** Return <code>true</code> if this state has any (element-consuming) transitions or runs. */
+  boolean isConsuming() {
+    return transitions.size() > 0 || runs.size() > 0;
+  }
+
   /** Add an empty (non-consuming) transition to another state. */
   void addEpsilonTransition(State<E> s) {
     epsilonTransitions.add(s);
@@ -0,0 +1,90 @@
+/* Created on Oct 19, 2026 by Florian Leitner.
+ * Copyright 2026. All rights reserved. */
+package es.fnl.fsm;
+
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.RandomAccess;
+
+/**
+ * A lookback buffer over a stream of elements that is indexed by the elements' absolute offsets
+ * in the stream.
+ * <p>
+ * Elements are only pulled from the stream when they are {@link #fill(int) requested}, and
+ * elements before some offset can be {@link #drop(int) dropped} once they are no longer needed.
+ * The {@link #size() size} of the list is the number of elements pulled from the stream so far,
+ * while only the elements at or after the {@link #base() base} offset are accessible.
+ * <p>
+ * It should never be necessary to directly use this class of the generic FSA implementation.
+ * 
+ * @author Florian Leitner
+ */
+final class Window<E> extends AbstractList<E> implements RandomAccess {
+  private final Iterator<E> stream;
+  private Object[] buffer = new Object[16]; // a ring buffer; its length is a power of two
+  private int head = 0; // the position of the element at the base offset in the buffer
+  private int base = 0; // the absolute offset of the first buffered element
+  private int count = 0; // the number of buffered elements
+
+  Window(Iterator<E> stream) {
+    this.stream = stream;
+  }
+
+  /** Return the absolute offset of the first accessible element. */
+  int base() {
+    return base;
+  }
+
+  /**
+   * Pull elements from the stream until the element at <code>offset</code> is buffered.
+   * 
+   * @param offset of the requested element
+   * @return <code>true</code> if the element exists, <code>false</code> if the stream ended before
+   */
+  boolean fill(int offset) {
+    while (base + count <= offset && stream.hasNext()) {
+      if (count == buffer.length) grow();
+      buffer[(head + count++) & (buffer.length - 1)] = stream.next();
+    }
+    return offset < base + count;
+  }
+
+  /** Discard all buffered elements before <code>offset</code>. */
+  void drop(int offset) {
+    while (base < offset && count > 0) {
+      buffer[head] = null;
+      head = (head + 1) & (buffer.length - 1);
+      base++;
+      count--;
+    }
+  }
+
+  /** Double the buffer's capacity. */
+  private void grow() {
+    Object[] larger = new Object[buffer.length * 2];
+    for (int i = 0; i < count; i++)
+      larger[i] = buffer[(head + i) & (buffer.length - 1)];
+    buffer = larger;
+    head = 0;
+  }
+
+  /**
+   * Return the element at the absolute <code>offset</code>.
+   * 
+   * @throws IndexOutOfBoundsException if the element has not been pulled yet or has been dropped
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public E get(int offset) {
+    if (offset < base || offset >= base + count)
+      throw new IndexOutOfBoundsException(String.format("offset %d not in window [%d:%d]", offset,
+          base, base + count));
+    return (E) buffer[(head + offset - base) & (buffer.length - 1)];
+  }
+
+  /** Return the number of elements pulled from the stream so far. */
+  @Override
+  public int size() {
+    return base + count;
+  }
+}
@@ -0,0 +1,86 @@
+package es.fnl.fsm;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestApproximateMatcher extends TestMatcherBase {
+  ApproximateMatcher<Character> matcher;
+
+  @Override
+  @Before
+  public void setUp() {
+    super.setUp();
+    matcher = new ApproximateMatcher<Character>(Arrays.asList(pattern), 1);
+    base = matcher;
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public final void testMatcherSetupEmptyList() {
+    new ApproximateMatcher<Object>(new ArrayList<Object>(), 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public final void testMatcherSetupTooManyEdits() {
+    new ApproximateMatcher<Character>(Arrays.asList(pattern), 5);
+  }
+
+  @Test
+  public final void testFindExact() {
+    matcher = new ApproximateMatcher<Character>(Arrays.asList(pattern), 0);
+    List<Character> s = newCharacterList(test);
+    assertEquals(test.indexOf("abcba") + 5, matcher.find(s));
+    s.set(s.size() / 2, 'x');
+    assertEquals(-1, matcher.find(s));
+  }
+
+  @Test
+  public final void testFindWithEdits() {
+    assertEquals(5, matcher.find(newCharacterList("xabcba"))); // "abcb" + deletion
+    assertEquals(6, matcher.find(newCharacterList("xabxba"))); // substitution
+    assertEquals(7, matcher.find(newCharacterList("xabcxba"))); // insertion
+    assertEquals(-1, matcher.find(newCharacterList("xaxcxa")));
+    assertEquals(11, matcher.find(newCharacterList("abcxxxabxba"), 3));
+  }
+
+  @Test
+  public final void testScan() {
+    List<Character> s = newCharacterList("xxabxbaxx");
+    assertTrue(matcher.scan(s.iterator()));
+    assertFalse(matcher.scan(newCharacterList("xxabxxaxx").iterator()));
+  }
+
+  @Test
+  public final void testFindNullsCanMatchNulls() {
+    Character[] p = new Character[] { 'a', null, 'a' };
+    List<Character> s = new ArrayList<Character>();
+    s.add('b');
+    s.add(null);
+    s.add('a');
+    matcher = new ApproximateMatcher<Character>(Arrays.asList(p), 1);
+    assertEquals(3, matcher.find(s));
+  }
+
+  @Test
+  public final void testFindLongPatterns() {
+    final Random random = new Random(42);
+    final int m = 150;
+    final List<Character> p = new ArrayList<Character>(m);
+    for (int i = 0; i < m; i++)
+      p.add((char) ('a' + random.nextInt(4)));
+    final List<Character> s = newCharacterList("xxxxx");
+    s.addAll(p);
+    s.set(40, 'x'); // substitution in the first block
+    s.remove(100); // deletion in the second block
+    s.add(150, 'y'); // insertion in the third block
+    s.addAll(newCharacterList("xxxxx"));
+    assertEquals(-1, new ApproximateMatcher<Character>(p, 2).find(s));
+    assertEquals(5 + m, new ApproximateMatcher<Character>(p, 3).find(s));
+  }
+}
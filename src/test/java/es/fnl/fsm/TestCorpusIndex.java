@@ -0,0 +1,166 @@
+package es.fnl.fsm;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestCorpusIndex {
+  final String test = "xabcaabcbaabaxabcba";
+  CorpusIndex<Character> index;
+
+  @Before
+  public void setUp() {
+    index = new CorpusIndex<Character>(TestPatternMatcher.toCharacterArray(test));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public final void testEmptyPattern() {
+    index.count(new ArrayList<Character>());
+  }
+
+  @Test
+  public final void testSizeAndRadix() {
+    assertEquals(test.length(), index.size());
+    assertEquals(4, index.radix());
+  }
+
+  @Test
+  public final void testFind() {
+    assertEquals(1, index.find(TestPatternMatcher.toCharacterArray("abc")));
+    assertEquals(5, index.find(TestPatternMatcher.toCharacterArray("abcba")));
+    assertEquals(-1, index.find(TestPatternMatcher.toCharacterArray("abcbb")));
+    assertEquals(-1, index.find(TestPatternMatcher.toCharacterArray("y")));
+    assertEquals(1, index.find(TestPatternMatcher.toCharacterArray("a")));
+  }
+
+  @Test
+  public final void testCountAndFindAll() {
+    assertEquals(3, index.count(TestPatternMatcher.toCharacterArray("abc")));
+    assertArrayEquals(new int[] { 1, 5, 14 },
+        index.findAll(TestPatternMatcher.toCharacterArray("abc")));
+    assertArrayEquals(new int[] { 5, 14 },
+        index.findAll(TestPatternMatcher.toCharacterArray("abcba")));
+    assertEquals(1, index.count(TestPatternMatcher.toCharacterArray("ax")));
+    assertEquals(0, index.findAll(TestPatternMatcher.toCharacterArray("cc")).length);
+  }
+
+  @Test
+  public final void testAgainstExactMatcher() {
+    final Random random = new Random(42);
+    final List<Integer> corpus = new ArrayList<Integer>();
+    for (int i = 0; i < 2000; i++)
+      corpus.add(random.nextInt(3));
+    final CorpusIndex<Integer> numbers = new CorpusIndex<Integer>(corpus);
+    for (int round = 0; round < 100; round++) {
+      final List<Integer> pattern = new ArrayList<Integer>();
+      for (int i = 1 + random.nextInt(8); i > 0; i--)
+        pattern.add(random.nextInt(3));
+      final ExactMatcher<Integer> matcher = new ExactMatcher<Integer>(pattern);
+      final List<Integer> offsets = new ArrayList<Integer>();
+      for (int o = matcher.find(corpus); o != -1; o = matcher.find(corpus, o + 1))
+        offsets.add(o);
+      assertEquals(offsets.size(), numbers.count(pattern));
+      assertEquals(offsets.isEmpty() ? -1 : offsets.get(0), numbers.find(pattern));
+      final int[] all = numbers.findAll(pattern);
+      assertEquals(offsets.size(), all.length);
+      for (int i = 0; i < all.length; i++)
+        assertEquals((int) offsets.get(i), all[i]);
+    }
+  }
+
+  @Test
+  public final void testFindManyOccurrences() {
+    final Random random = new Random(7);
+    final List<Integer> corpus = new ArrayList<Integer>();
+    for (int i = 0; i < 20000; i++)
+      corpus.add(random.nextInt(2));
+    final CorpusIndex<Integer> numbers = new CorpusIndex<Integer>(corpus);
+    for (int round = 0; round < 200; round++) {
+      final List<Integer> pattern = new ArrayList<Integer>();
+      for (int i = 1 + random.nextInt(12); i > 0; i--)
+        pattern.add(random.nextInt(2));
+      assertEquals(Collections.indexOfSubList(corpus, pattern), numbers.find(pattern));
+    }
+  }
+
+  @Test
+  public final void testSaveAndLoad() throws IOException {
+    final File file = File.createTempFile("corpus", ".idx");
+    file.deleteOnExit();
+    index.save(file);
+    final CorpusIndex<Character> loaded = CorpusIndex.load(file);
+    assertEquals(index.size(), loaded.size());
+    assertEquals(index.radix(), loaded.radix());
+    for (String p : Arrays.asList("abc", "abcba", "a", "x", "cc")) {
+      final List<Character> pattern = TestPatternMatcher.toCharacterArray(p);
+      assertEquals(index.find(pattern), loaded.find(pattern));
+      assertArrayEquals(index.findAll(pattern), loaded.findAll(pattern));
+    }
+  }
+
+  @Test
+  public final void testLoadOtherByteOrder() throws IOException {
+    final File file = File.createTempFile("corpus", ".idx");
+    file.deleteOnExit();
+    index.save(file);
+    // rewrite the arrays in the other byte order
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.seek(12);
+      raf.writeInt((ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN) ? 1 : 0);
+      final byte[] arrays = new byte[12 * index.size()];
+      raf.seek(16);
+      raf.readFully(arrays);
+      for (int i = 0; i < arrays.length; i += 4) {
+        byte b = arrays[i];
+        arrays[i] = arrays[i + 3];
+        arrays[i + 3] = b;
+        b = arrays[i + 1];
+        arrays[i + 1] = arrays[i + 2];
+        arrays[i + 2] = b;
+      }
+      raf.seek(16);
+      raf.write(arrays);
+    } finally {
+      raf.close();
+    }
+    final CorpusIndex<Character> loaded = CorpusIndex.load(file);
+    for (String s : Arrays.asList("a", "ab", "ba", "x")) {
+      final List<Character> pattern = TestPatternMatcher.toCharacterArray(s);
+      assertArrayEquals(index.findAll(pattern), loaded.findAll(pattern));
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public final void testLoadCorruptLength() throws IOException {
+    final File file = File.createTempFile("corpus", ".idx");
+    file.deleteOnExit();
+    index.save(file);
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.seek(4);
+      raf.writeInt(-1);
+    } finally {
+      raf.close();
+    }
+    CorpusIndex.load(file);
+  }
+
+  @Test(expected = IOException.class)
+  public final void testLoadOtherFile() throws IOException {
+    final File file = File.createTempFile("corpus", ".txt");
+    file.deleteOnExit();
+    CorpusIndex.load(file);
+  }
+}
@@ -0,0 +1,127 @@
+package es.fnl.fsm;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestDawgBuilder {
+  DawgBuilder<Character> builder;
+
+  /** A character transition that is equal to any other transition for the same character. */
+  static final class Literal implements Transition<Character> {
+    private final char character;
+
+    Literal(char c) {
+      character = c;
+    }
+
+    public boolean matches(Character target) {
+      return target != null && target == character;
+    }
+
+    public double weight() {
+      return 1.0;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof Literal && ((Literal) other).character == character;
+    }
+
+    @Override
+    public int hashCode() {
+      return character;
+    }
+  }
+
+  static List<Literal> literals(String sequence) {
+    final List<Literal> list = new ArrayList<Literal>(sequence.length());
+    for (char c : sequence.toCharArray())
+      list.add(new Literal(c));
+    return list;
+  }
+
+  @Before
+  public void setUp() {
+    builder = new DawgBuilder<Character>();
+    for (String word : Arrays.asList("tap", "taps", "top", "tops", "tap"))
+      builder.add(literals(word));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public final void testBuildEmpty() {
+    new DawgBuilder<Character>().build();
+  }
+
+  @Test
+  public final void testSharesPrefixesAndSuffixes() {
+    assertEquals(4, builder.size());
+    // entry -t-> 1 -a|o-> 2 -p-> 3 -s-> exit, and 3 -epsilon-> exit
+    assertEquals(5, builder.build().states().size());
+  }
+
+  @Test
+  public final void testMatch() {
+    final Matcher<Character> m =
+        builder.build().matcher(TestPatternMatcher.toCharacterArray("stop taps tip"));
+    assertTrue(m.find());
+    assertEquals(1, m.start());
+    assertEquals(4, m.end());
+    assertTrue(m.find());
+    assertEquals(5, m.start());
+    assertEquals(8, m.end());
+    assertFalse(m.find());
+  }
+
+  @Test
+  public final void testChainAndCapture() {
+    final Pattern<Character> p = Pattern.chain(Pattern.capture(builder.build()),
+        Pattern.match(new Literal('!')));
+    final Matcher<Character> m = p.matcher(TestPatternMatcher.toCharacterArray("tap tops!"));
+    assertTrue(m.find());
+    assertEquals(4, m.start());
+    assertEquals(TestPatternMatcher.toCharacterArray("tops"), m.group(1));
+  }
+
+  @Test
+  public final void testEmptySequence() {
+    final Pattern<Character> p = new DawgBuilder<Character>().add(literals("")).build();
+    assertTrue(p.matcher(TestPatternMatcher.toCharacterArray("")).matches());
+  }
+
+  @Test
+  public final void testAgainstBranches() {
+    final Random random = new Random(42);
+    final DawgBuilder<Character> dawg = new DawgBuilder<Character>();
+    Pattern<Character> branches = null;
+    for (int i = 0; i < 200; i++) {
+      final StringBuilder word = new StringBuilder();
+      for (int j = 1 + random.nextInt(5); j > 0; j--)
+        word.append((char) ('a' + random.nextInt(4)));
+      dawg.add(literals(word.toString()));
+      Pattern<Character> chain = null;
+      for (Literal l : literals(word.toString()))
+        chain = (chain == null) ? Pattern.match(l) : Pattern.chain(chain, Pattern.match(l));
+      branches = (branches == null) ? chain : Pattern.branch(branches, chain);
+    }
+    final StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 500; i++)
+      text.append((char) ('a' + random.nextInt(5)));
+    final Matcher<Character> expected =
+        branches.matcher(TestPatternMatcher.toCharacterArray(text.toString()));
+    final Matcher<Character> actual =
+        dawg.build().matcher(TestPatternMatcher.toCharacterArray(text.toString()));
+    while (expected.find()) {
+      assertTrue(actual.find());
+      assertEquals(expected.start(), actual.start());
+      assertEquals(expected.end(), actual.end());
+    }
+    assertFalse(actual.find());
+  }
+}
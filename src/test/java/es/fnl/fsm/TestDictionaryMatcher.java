@@ -0,0 +1,169 @@
+package es.fnl.fsm;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestDictionaryMatcher {
+  final String test = "xabcaabcbaabaxabcba";
+  List<List<Character>> entries;
+  DictionaryMatcher<Character> dictionary;
+
+  @Before
+  public void setUp() {
+    entries = new ArrayList<List<Character>>();
+    for (String e : Arrays.asList("abc", "bc", "abcba", "aab", "c", "abc"))
+      entries.add(TestPatternMatcher.toCharacterArray(e));
+    dictionary = new DictionaryMatcher<Character>(entries);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public final void testEmptyEntry() {
+    entries.add(new ArrayList<Character>());
+    new DictionaryMatcher<Character>(entries);
+  }
+
+  @Test
+  public final void testSizeAndRadix() {
+    assertEquals(6, dictionary.size());
+    assertEquals(3, dictionary.radix());
+    assertEquals(11, dictionary.states()); // the root, a-b-c-b-a, b-c, c, and a-a-b
+  }
+
+  @Test
+  public final void testFind() {
+    assertEquals(1, dictionary.find(TestPatternMatcher.toCharacterArray(test)));
+    assertEquals(2, dictionary.find(TestPatternMatcher.toCharacterArray(test), 2));
+    assertEquals(3, dictionary.find(TestPatternMatcher.toCharacterArray(test), 3)); // "c"
+    assertEquals(-1, dictionary.find(TestPatternMatcher.toCharacterArray("xaxbxa")));
+  }
+
+  @Test
+  public final void testScan() {
+    assertTrue(dictionary.scan(TestPatternMatcher.toCharacterArray("xxaab").iterator()));
+    assertFalse(dictionary.scan(TestPatternMatcher.toCharacterArray("xbaxba").iterator()));
+  }
+
+  @Test
+  public final void testFindAll() {
+    assertArrayEquals(new int[] { 1, 4, 0, 2, 4, 1, 3, 4, 4 },
+        dictionary.findAll(TestPatternMatcher.toCharacterArray("xabcx")));
+    assertArrayEquals(new int[] { 0, 3, 3, 1, 4, 0, 2, 4, 1, 3, 4, 4 },
+        dictionary.findAll(TestPatternMatcher.toCharacterArray("aabc")));
+  }
+
+  @Test
+  public final void testAgainstExactMatcher() {
+    final Random random = new Random(42);
+    final List<Integer> text = new ArrayList<Integer>();
+    for (int i = 0; i < 2000; i++)
+      text.add(random.nextInt(4));
+    final List<List<Integer>> patterns = new ArrayList<List<Integer>>();
+    for (int round = 0; round < 50; round++) {
+      final List<Integer> pattern = new ArrayList<Integer>();
+      for (int i = 1 + random.nextInt(6); i > 0; i--)
+        pattern.add(random.nextInt(4));
+      patterns.add(pattern);
+    }
+    final DictionaryMatcher<Integer> numbers = new DictionaryMatcher<Integer>(patterns);
+    final int[] all = numbers.findAll(text);
+    int expected = 0;
+    for (int p = 0; p < patterns.size(); p++) {
+      final List<Integer> pattern = patterns.get(p);
+      if (patterns.indexOf(pattern) != p) continue; // duplicates are reported as the first
+      final ExactMatcher<Integer> matcher = new ExactMatcher<Integer>(pattern);
+      for (int o = matcher.find(text); o != -1; o = matcher.find(text, o + 1)) {
+        expected++;
+        boolean found = false;
+        for (int i = 0; i < all.length && !found; i += 3)
+          found = (all[i] == o && all[i + 1] == o + pattern.size() && all[i + 2] == p);
+        assertTrue(found);
+      }
+    }
+    assertEquals(expected * 3, all.length);
+  }
+
+  @Test
+  public final void testSaveAndLoad() throws IOException {
+    final File file = File.createTempFile("dictionary", ".dfa");
+    file.deleteOnExit();
+    dictionary.save(file);
+    final DictionaryMatcher<Character> loaded = DictionaryMatcher.load(file);
+    assertEquals(dictionary.size(), loaded.size());
+    assertEquals(dictionary.states(), loaded.states());
+    assertEquals(dictionary.radix(), loaded.radix());
+    for (String s : Arrays.asList(test, "aabc", "xyz", "")) {
+      final List<Character> sequence = TestPatternMatcher.toCharacterArray(s);
+      assertEquals(dictionary.find(sequence), loaded.find(sequence));
+      assertArrayEquals(dictionary.findAll(sequence), loaded.findAll(sequence));
+    }
+  }
+
+  @Test
+  public final void testLoadOtherByteOrder() throws IOException {
+    final File file = File.createTempFile("dictionary", ".dfa");
+    file.deleteOnExit();
+    dictionary.save(file);
+    // rewrite the table in the other byte order
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.seek(4);
+      raf.writeInt((ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN) ? 1 : 0);
+      final byte[] table = new byte[DictionaryMatcher.tableSize(dictionary.states())];
+      raf.seek(20);
+      raf.readFully(table);
+      for (int i = 0; i < table.length; i += 4) {
+        byte b = table[i];
+        table[i] = table[i + 3];
+        table[i + 3] = b;
+        b = table[i + 1];
+        table[i + 1] = table[i + 2];
+        table[i + 2] = b;
+      }
+      raf.seek(20);
+      raf.write(table);
+    } finally {
+      raf.close();
+    }
+    final DictionaryMatcher<Character> loaded = DictionaryMatcher.load(file);
+    final List<Character> sequence = TestPatternMatcher.toCharacterArray(test);
+    assertArrayEquals(dictionary.findAll(sequence), loaded.findAll(sequence));
+  }
+
+  @Test
+  public final void testTableSize() {
+    assertEquals(24, DictionaryMatcher.tableSize(1));
+    try {
+      DictionaryMatcher.tableSize(100000000);
+      fail("table exceeds 2 GB");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public final void testLoadOtherFile() throws IOException {
+    final File file = File.createTempFile("dictionary", ".txt");
+    file.deleteOnExit();
+    DictionaryMatcher.load(file);
+  }
+
+  @Test
+  public final void testSingleEntry() {
+    final DictionaryMatcher<Character> single = new DictionaryMatcher<Character>(
+        Collections.singletonList(TestPatternMatcher.toCharacterArray("aa")));
+    assertArrayEquals(new int[] { 0, 2, 0, 1, 3, 0 },
+        single.findAll(TestPatternMatcher.toCharacterArray("aaa")));
+  }
+}
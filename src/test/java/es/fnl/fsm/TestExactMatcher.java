@@ -4,7 +4,9 @@ import static org.junit.Assert.*;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -64,4 +66,108 @@ public class TestExactMatcher extends TestMatcherBase {
     s.set(s.size() / 2, 'x');
     assertEquals(-1, matcher.find(s, 4));
   }
+
+  @Test
+  public final void testFindAll() {
+    List<Character> s = newCharacterList("abcbabcbaxabcba");
+    assertArrayEquals(new int[] { 0, 4, 10 }, matcher.findAll(s));
+    matcher = new ExactMatcher<Character>(Arrays.asList(pattern), true);
+    assertArrayEquals(new int[] { 0, 4, 10 }, matcher.findAll(s));
+  }
+
+  @Test
+  public final void testLinearMode() {
+    final Random random = new Random(42);
+    for (int round = 0; round < 500; round++) {
+      final List<Integer> p = new ArrayList<Integer>();
+      for (int i = 1 + random.nextInt(8); i > 0; i--)
+        p.add(random.nextInt(2));
+      final List<Integer> s = new ArrayList<Integer>();
+      for (int i = random.nextInt(60); i > 0; i--)
+        s.add(random.nextInt(2));
+      final ExactMatcher<Integer> bm = new ExactMatcher<Integer>(p);
+      final ExactMatcher<Integer> ag = new ExactMatcher<Integer>(p, true);
+      assertArrayEquals(bm.findAll(s), ag.findAll(s));
+      assertEquals(bm.find(s, 3), ag.find(s, 3));
+    }
+  }
+
+  @Test
+  public final void testLinearModeComparisons() {
+    final List<Integer> p = new ArrayList<Integer>();
+    final List<Integer> s = new ArrayList<Integer>();
+    for (int i = 0; i < 50; i++)
+      p.add(0);
+    for (int i = 0; i < 1000; i++)
+      s.add(0);
+    final ExactMatcher<Integer> bm = new ExactMatcher<Integer>(p);
+    final ExactMatcher<Integer> ag = new ExactMatcher<Integer>(p, true);
+    final MatchStats plain = bm.enableStats(null);
+    final MatchStats linear = ag.enableStats(null);
+    assertEquals(951, bm.findAll(s).length);
+    assertEquals(951, ag.findAll(s).length);
+    assertTrue(plain.comparisons() >= 951 * 50);
+    assertTrue(linear.comparisons() <= 2 * 1000);
+  }
+
+  @Test
+  public final void testOracleForLongPatterns() {
+    final Random random = new Random(42);
+    final List<Integer> p = new ArrayList<Integer>();
+    for (int i = 0; i < 100; i++)
+      p.add(random.nextInt(4));
+    final List<Integer> s = new ArrayList<Integer>();
+    for (int i = 0; i < 10000; i++)
+      s.add(random.nextInt(4));
+    s.addAll(5000, p);
+    final ExactMatcher<Integer> oracle = new ExactMatcher<Integer>(p);
+    final ExactMatcher<Integer> linear = new ExactMatcher<Integer>(p, true);
+    final MatchStats fast = oracle.enableStats(null);
+    final MatchStats slow = linear.enableStats(null);
+    assertEquals(Collections.indexOfSubList(s, p), oracle.find(s));
+    assertEquals(5000, linear.find(s));
+    assertTrue(fast.offsets() * 10 < slow.offsets());
+  }
+
+  @Test
+  public final void testNoOracleForLargeTables() {
+    final List<Integer> p = new ArrayList<Integer>();
+    for (int i = 0; i < 20000; i++)
+      p.add(i % 2500); // a table of 20001 x 2500 entries
+    final ExactMatcher<Integer> m = new ExactMatcher<Integer>(p);
+    assertEquals(p.size() + m.radix(), m.weight()); // the jump tables only
+    final List<Integer> s = new ArrayList<Integer>(p);
+    s.add(0, -1);
+    assertEquals(1, m.find(s));
+  }
+
+  @Test
+  public final void testSplit() {
+    final ExactMatcher<Character> ab = new ExactMatcher<Character>(newCharacterList("ab"));
+    final String[] inputs = { "", "ab", "xabyabab", "abxabyab", "xyz", "abababx" };
+    for (String input : inputs) {
+      for (int limit = -1; limit < 4; limit++) {
+        final List<String> pieces = new ArrayList<String>();
+        for (List<Character> piece : ab.split(newCharacterList(input), limit)) {
+          final StringBuilder sb = new StringBuilder();
+          for (Character c : piece)
+            sb.append(c);
+          pieces.add(sb.toString());
+        }
+        assertEquals(input + " limit " + limit, Arrays.asList(input.split("ab", limit)), pieces);
+      }
+    }
+  }
+
+  @Test
+  public final void testSplitReturnsViews() {
+    final List<Character> s = newCharacterList("xabyz");
+    final Iterable<List<Character>> pieces =
+        new ExactMatcher<Character>(newCharacterList("ab")).split(s);
+    List<Character> last = null;
+    for (List<Character> piece : pieces)
+      last = piece;
+    s.set(4, 'q');
+    assertEquals(newCharacterList("yq"), last);
+  }
 }
@@ -0,0 +1,303 @@
+package es.fnl.fsm;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestLazyDfa {
+  List<List<Character>> words;
+  Pattern<Character> pattern;
+
+  /** A transition matching the integers with a given remainder. */
+  static class Modulo implements Transition<Integer> {
+    final int modulus;
+    final int remainder;
+
+    Modulo(int modulus, int remainder) {
+      this.modulus = modulus;
+      this.remainder = remainder;
+    }
+
+    public boolean matches(Integer target) {
+      return target % modulus == remainder;
+    }
+
+    public double weight() {
+      return 1.0;
+    }
+  }
+
+  @Before
+  public void setUp() {
+    final Random random = new Random(42);
+    words = new ArrayList<List<Character>>();
+    for (int w = 0; w < 100; w++) {
+      final StringBuilder word = new StringBuilder();
+      for (int i = 2 + random.nextInt(4); i > 0; i--)
+        word.append((char) ('a' + random.nextInt(4)));
+      words.add(TestPatternMatcher.toCharacterArray(word.toString()));
+    }
+    final TestPatternMatcher outer = new TestPatternMatcher();
+    pattern = null;
+    for (List<Character> word : words) {
+      Pattern<Character> chain = null;
+      for (Character c : word) {
+        final Pattern<Character> p = Pattern.match(outer.new CharTransition(c));
+        chain = (chain == null) ? p : Pattern.chain(chain, p);
+      }
+      pattern = (pattern == null) ? chain : Pattern.branch(pattern, chain);
+    }
+  }
+
+  /** Return the [start, end) offsets of the leftmost-shortest matches of the words in a text. */
+  private List<Integer> expected(List<Character> text) {
+    final List<Integer> offsets = new ArrayList<Integer>();
+    for (int s = 0; s < text.size();) {
+      int end = -1;
+      for (List<Character> word : words)
+        if (s + word.size() <= text.size() && text.subList(s, s + word.size()).equals(word) &&
+            (end == -1 || s + word.size() < end)) end = s + word.size();
+      if (end == -1) {
+        s++;
+      } else {
+        offsets.add(s);
+        offsets.add(end);
+        s = end;
+      }
+    }
+    return offsets;
+  }
+
+  private static List<Integer> found(Matcher<?> matcher) {
+    final List<Integer> offsets = new ArrayList<Integer>();
+    while (matcher.find()) {
+      offsets.add(matcher.start());
+      offsets.add(matcher.end());
+    }
+    return offsets;
+  }
+
+  private static List<Character> text(Random random, int length) {
+    final List<Character> text = new ArrayList<Character>(length);
+    for (int i = 0; i < length; i++)
+      text.add((char) ('a' + random.nextInt(5)));
+    return text;
+  }
+
+  @Test
+  public final void testCompile() {
+    final State<Character> entry = new State<Character>();
+    final State<Character> exit = new State<Character>();
+    entry.addTransition(new TestPatternMatcher().new CharTransition('a'), exit);
+    new Pattern<Character>(entry, exit); // makes exit final
+    final LazyDfa<Character> dfa = LazyDfa.compile(entry, exit);
+    assertEquals(1, dfa.size());
+    assertFalse(dfa.nullable);
+    assertFalse(dfa.capturing);
+    final LazyDfa.Node a = dfa.forward.next(dfa.forward.start(), 'a', null);
+    assertTrue(a.accept);
+    assertTrue(dfa.forward.next(a, 'a', null).dead);
+    assertTrue(dfa.forward.next(dfa.forward.start(), 'b', null).dead);
+    assertSame(a, dfa.forward.next(dfa.forward.start(), 'a', null)); // cached
+  }
+
+  @Test
+  public final void testCompileRuns() {
+    final Pattern<Character> p = Pattern.<Character> gap(1, 2);
+    final Matcher<Character> m = p.matcher(TestPatternMatcher.toCharacterArray("abc"));
+    assertNull(LazyDfa.compile(m.entry, m.exit));
+    assertTrue(m.setLazyDfa(true).find());
+    assertEquals(0, m.start());
+    assertEquals(1, m.end());
+  }
+
+  @Test
+  public final void testLargePattern() {
+    final Random random = new Random(7);
+    for (int round = 0; round < 20; round++) {
+      final List<Character> text = text(random, 300);
+      final List<Integer> expected = expected(text);
+      final Matcher<Character> m = pattern.matcher(text).setLazyDfa(true);
+      final MatchStats total = m.enableStats(null);
+      for (int i = 0; i < expected.size(); i += 2) {
+        assertTrue(m.find());
+        assertEquals(expected.get(i).intValue(), m.start());
+        assertEquals(expected.get(i + 1).intValue(), m.end());
+      }
+      if (m.end() < text.size()) assertEquals(0, total.states()); // the NFA was never simulated
+      assertFalse(m.find());
+    }
+  }
+
+  @Test
+  public final void testSharedAcrossThreads() throws InterruptedException {
+    final Random random = new Random(13);
+    final List<List<Character>> texts = new ArrayList<List<Character>>();
+    for (int i = 0; i < 8; i++)
+      texts.add(text(random, 2000));
+    final List<List<Integer>> results =
+        Collections.synchronizedList(new ArrayList<List<Integer>>(texts.size()));
+    for (int i = 0; i < texts.size(); i++)
+      results.add(null);
+    final List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < texts.size(); i++) {
+      final int t = i;
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          results.set(t, found(pattern.matcher(texts.get(t)).setLazyDfa(true)));
+        }
+      });
+    }
+    for (Thread thread : threads)
+      thread.start();
+    for (Thread thread : threads)
+      thread.join();
+    for (int i = 0; i < texts.size(); i++)
+      assertEquals(expected(texts.get(i)), results.get(i));
+  }
+
+  @Test
+  public final void testCacheFlush() {
+    // x % 100 == i, followed by a multiple of 7, for any i: 200 positions
+    Pattern<Integer> p = null;
+    for (int i = 0; i < 100; i++) {
+      final Pattern<Integer> chain =
+          Pattern.chain(Pattern.match(new Modulo(100, i)), Pattern.match(new Modulo(7, 0)));
+      p = (p == null) ? chain : Pattern.branch(p, chain);
+    }
+    // distinct elements: every one is a cache miss
+    final int length = (int) (3 * LazyDfa.MAX_WORDS / LazyDfa.TRANSITION_WORDS);
+    final List<Integer> text = new ArrayList<Integer>(length);
+    for (int i = 0; i < length; i++)
+      text.add(i);
+    Collections.shuffle(text, new Random(42));
+    final Matcher<Integer> m = p.matcher(text).setLazyDfa(true);
+    int s = 0;
+    for (int e = 1; e < length; e++) {
+      if (text.get(e) % 7 == 0 && e - 1 >= s) {
+        assertTrue(m.find());
+        assertEquals(e - 1, m.start());
+        assertEquals(e + 1, m.end());
+        s = e + 1;
+      }
+    }
+    assertFalse(m.find());
+  }
+
+  @Test
+  public final void testCacheFlushBySize() {
+    // x % 500 == i or x % 501 == j, repeated: 1001 positions and a quarter million states
+    final List<Pattern<Integer>> matches = new ArrayList<Pattern<Integer>>();
+    for (int i = 0; i < 1001; i++)
+      matches.add(Pattern.match((i < 500) ? new Modulo(500, i) : new Modulo(501, i - 500)));
+    final Pattern<Integer> p = branch(matches, 0, matches.size()).repeat().minimize();
+    final Matcher<Integer> m = p.matcher(new ArrayList<Integer>());
+    final LazyDfa<Integer> dfa = LazyDfa.compile(m.entry, m.exit);
+    final long size = LazyDfa.STATE_WORDS + (dfa.size() + 63) / 64;
+    LazyDfa.Node state = dfa.forward.start();
+    for (int x = 0; x < 20000; x++) {
+      state = dfa.forward.next(state, x, null);
+      assertTrue(state.accept);
+      assertTrue(dfa.forward.states() * size <= LazyDfa.MAX_WORDS);
+    }
+  }
+
+  /** Branch out into some patterns as a balanced tree (keeping the epsilon closures small). */
+  private static Pattern<Integer> branch(List<Pattern<Integer>> patterns, int from, int to) {
+    if (to - from == 1) return patterns.get(from);
+    final int mid = (from + to) / 2;
+    return Pattern.branch(branch(patterns, from, mid), branch(patterns, mid, to));
+  }
+
+  @Test
+  public final void testDfaShared() {
+    final Matcher<Character> m = pattern.matcher(words.get(0));
+    final Pattern.Automata<Character> automata = pattern.automata(m.entry, m.exit);
+    assertNotNull(automata.dfa);
+    assertSame(automata, pattern.automata(m.entry, m.exit));
+    Pattern.match(new TestPatternMatcher().new CharTransition('x')).optional(); // any change
+    final Pattern.Automata<Character> compiled = pattern.automata(m.entry, m.exit);
+    assertNotSame(automata, compiled);
+    assertSame(automata.dfa, compiled.dfa); // the same automaton
+  }
+
+  @Test
+  public final void testChangedSubPattern() {
+    final TestPatternMatcher outer = new TestPatternMatcher();
+    final Pattern<Character> tail = Pattern.match(outer.new CharTransition('e'));
+    final Pattern<Character> p = Pattern.chain(pattern, tail);
+    final List<Character> text = words.get(0); // no 'e'
+    assertFalse(p.matcher(text).setLazyDfa(true).find());
+    tail.optional();
+    final Matcher<Character> m = p.matcher(text).setLazyDfa(true);
+    assertTrue(m.find());
+    assertEquals(expected(text).subList(0, 2), Arrays.asList(m.start(), m.end()));
+  }
+
+  /** A token whose equality ignores its tag, which the transitions test. */
+  static class Token {
+    final String text;
+    final int tag;
+
+    Token(String text, int tag) {
+      this.text = text;
+      this.tag = tag;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Token && text.equals(((Token) o).text);
+    }
+
+    @Override
+    public int hashCode() {
+      return text.hashCode();
+    }
+  }
+
+  /** A transition matching the tokens with a given tag. */
+  static class Tag implements Transition<Token> {
+    final int tag;
+
+    Tag(int tag) {
+      this.tag = tag;
+    }
+
+    public boolean matches(Token target) {
+      return target.tag == tag;
+    }
+
+    public double weight() {
+      return 1.0;
+    }
+  }
+
+  @Test
+  public final void testInconsistentEquality() {
+    Pattern<Token> p = null; // any tag below 70, followed by tag 70
+    for (int i = 0; i < 70; i++) {
+      final Pattern<Token> chain = Pattern.chain(Pattern.match(new Tag(i)),
+          Pattern.match(new Tag(70)));
+      p = (p == null) ? chain : Pattern.branch(p, chain);
+    }
+    final List<Token> text = new ArrayList<Token>();
+    text.add(new Token("run", 1));
+    text.add(new Token("run", 70));
+    text.add(new Token("x", 71));
+    text.add(new Token("run", 71));
+    text.add(new Token("run", 70));
+    final Matcher<Token> m = p.matcher(text); // not using the lazy DFA
+    assertTrue(m.find());
+    assertEquals(0, m.start());
+    assertEquals(2, m.end());
+    assertFalse(m.find());
+  }
+}
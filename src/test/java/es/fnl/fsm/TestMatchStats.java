@@ -0,0 +1,70 @@
+package es.fnl.fsm;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestMatchStats {
+  static class Recorder implements MatchListener {
+    final List<Long> attempts = new ArrayList<Long>();
+    Object source;
+
+    public void matched(Object source, MatchStats call) {
+      this.source = source;
+      attempts.add(call.attempts());
+    }
+  }
+
+  @Test
+  public final void testMatcherStats() {
+    final Transition<Character> x = new TestPatternMatcher().new CharTransition('x');
+    final Pattern<Character> p = Pattern.capture(Pattern.match(x));
+    final Matcher<Character> m = p.matcher(TestPatternMatcher.toCharacterArray("abx"));
+    assertNull(m.stats());
+    final Recorder r = new Recorder();
+    final MatchStats stats = m.enableStats(r);
+    assertTrue(m.find());
+    assertSame(stats, m.stats());
+    assertEquals(1, stats.attempts());
+    assertEquals(1, stats.offsets()); // the offsets before the match are skipped
+    assertEquals(4, stats.comparisons()); // three in the backward scan
+    assertTrue(stats.states() >= 2);
+    assertTrue(stats.peakQueue() >= 1);
+    assertEquals(2, stats.backtrack());
+    assertTrue(stats.nanos() >= 0);
+    assertFalse(m.find());
+    assertEquals(2, stats.attempts());
+    assertEquals(2, r.attempts.size());
+    assertSame(m, r.source);
+    m.disableStats();
+    assertTrue(m.find(0));
+    assertNull(m.stats());
+    assertEquals(2, r.attempts.size());
+  }
+
+  @Test
+  public final void testExactMatcherStats() {
+    final ExactMatcher<Character> m = new ExactMatcher<Character>(Arrays.asList('a', 'b'));
+    final MatchStats stats = m.enableStats(null);
+    assertEquals(3, m.find(Arrays.asList('x', 'x', 'x', 'a', 'b')));
+    assertEquals(1, stats.attempts());
+    assertEquals(3, stats.offsets());
+    assertEquals(4, stats.comparisons());
+    stats.reset();
+    assertEquals(0, stats.attempts());
+  }
+
+  @Test
+  public final void testExactScannerStats() {
+    final ExactScanner<Character> s = new ExactScanner<Character>(Arrays.asList('a', 'b'));
+    final MatchStats stats = s.enableStats(null);
+    assertTrue(s.scan(Arrays.asList('x', 'a', 'b', 'x').iterator()));
+    assertEquals(1, stats.attempts());
+    assertEquals(3, stats.offsets());
+    assertEquals(0, stats.states());
+  }
+}
@@ -0,0 +1,110 @@
+package es.fnl.fsm;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TestMatcherCache {
+
+  @Test(expected = IllegalArgumentException.class)
+  public final void testIllegalLimits() {
+    new MatcherCache<Character>(0, 10);
+  }
+
+  @Test
+  public final void testHitsAndMisses() {
+    final MatcherCache<Character> cache = new MatcherCache<Character>(10, 100);
+    final List<Character> p = TestPatternMatcher.toCharacterArray("abcba");
+    final ExactMatcher<Character> m = cache.matcher(p);
+    assertSame(m, cache.matcher(TestPatternMatcher.toCharacterArray("abcba")));
+    final ExactScanner<Character> s = cache.scanner(p);
+    assertSame(s, cache.scanner(p));
+    assertEquals(2, cache.hits());
+    assertEquals(2, cache.misses());
+    assertEquals(2, cache.size());
+    assertEquals(8 + 15, cache.weight()); // 5 + 3 shifts, 3 tables of 5 transitions
+    assertEquals(1, m.find(TestPatternMatcher.toCharacterArray("xabcbax")));
+  }
+
+  @Test
+  public final void testPatternsAreCopied() {
+    final MatcherCache<Character> cache = new MatcherCache<Character>(10, 100);
+    final List<Character> p = TestPatternMatcher.toCharacterArray("abc");
+    final ExactMatcher<Character> m = cache.matcher(p);
+    p.set(0, 'x');
+    assertNotSame(m, cache.matcher(p));
+    assertSame(m, cache.matcher(TestPatternMatcher.toCharacterArray("abc")));
+  }
+
+  @Test
+  public final void testSizeLimit() {
+    final MatcherCache<Character> cache = new MatcherCache<Character>(1, 100);
+    final ExactMatcher<Character> a = cache.matcher(TestPatternMatcher.toCharacterArray("a"));
+    cache.matcher(TestPatternMatcher.toCharacterArray("b"));
+    assertEquals(1, cache.size());
+    assertEquals(1, cache.evictions());
+    assertNotSame(a, cache.matcher(TestPatternMatcher.toCharacterArray("a")));
+  }
+
+  @Test
+  public final void testWeightLimit() {
+    final MatcherCache<Character> cache = new MatcherCache<Character>(1, 6);
+    cache.matcher(TestPatternMatcher.toCharacterArray("abc"));
+    cache.matcher(TestPatternMatcher.toCharacterArray("abcde")); // too heavy to cache
+    assertEquals(1, cache.size());
+    assertEquals(5, cache.weight());
+    assertEquals(0, cache.evictions());
+  }
+
+  @Test
+  public final void testScannersWeighTheirTables() {
+    final MatcherCache<Character> cache = new MatcherCache<Character>(1, 20);
+    final List<Character> p = TestPatternMatcher.toCharacterArray("abcd");
+    cache.scanner(p);
+    assertEquals(16, cache.weight());
+    final ExactScanner<Character> s = cache.scanner(TestPatternMatcher.toCharacterArray("abcde"));
+    assertEquals(16, cache.weight()); // 25 entries are too heavy to cache
+    assertNotSame(s, cache.scanner(TestPatternMatcher.toCharacterArray("abcde")));
+  }
+
+  @Test
+  public final void testLeastRecentlyUsedIsEvicted() {
+    final MatcherCache<Character> cache = new MatcherCache<Character>(2, 2);
+    // a single segment, as the limits are too small to split the cache
+    final ExactMatcher<Character> a = cache.matcher(TestPatternMatcher.toCharacterArray("a"));
+    final ExactMatcher<Character> b = cache.matcher(TestPatternMatcher.toCharacterArray("b"));
+    assertSame(a, cache.matcher(TestPatternMatcher.toCharacterArray("a")));
+    cache.matcher(TestPatternMatcher.toCharacterArray("c"));
+    assertSame(a, cache.matcher(TestPatternMatcher.toCharacterArray("a")));
+    assertNotSame(b, cache.matcher(TestPatternMatcher.toCharacterArray("b")));
+  }
+
+  @Test
+  public final void testConcurrentUse() throws InterruptedException {
+    final MatcherCache<Integer> cache = new MatcherCache<Integer>(64, 1000);
+    final ExecutorService pool = Executors.newFixedThreadPool(4);
+    for (int t = 0; t < 4; t++) {
+      pool.execute(new Runnable() {
+        public void run() {
+          for (int i = 0; i < 1000; i++) {
+            final List<Integer> p = new ArrayList<Integer>();
+            p.add(i % 100);
+            p.add(i % 7);
+            assertEquals(p, cache.matcher(p).pattern());
+          }
+        }
+      });
+    }
+    pool.shutdown();
+    assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(4000, cache.hits() + cache.misses());
+    assertTrue(cache.size() <= 64);
+    assertTrue(cache.weight() <= 64 * 3);
+  }
+}
@@ -0,0 +1,91 @@
+package es.fnl.fsm;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestOracleMatcher extends TestMatcherBase {
+  OracleMatcher<Character> matcher;
+
+  @Override
+  @Before
+  public void setUp() {
+    super.setUp();
+    matcher = new OracleMatcher<Character>(Arrays.asList(pattern));
+    base = matcher;
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public final void testMatcherSetupEmptyList() {
+    new OracleMatcher<Object>(new ArrayList<Object>());
+  }
+
+  @Test
+  public final void testFind() {
+    List<Character> s = newCharacterList(test);
+    assertEquals(test.indexOf("abcba"), matcher.find(s));
+    s.set(s.size() / 2, 'x');
+    assertEquals(-1, matcher.find(s));
+  }
+
+  @Test
+  public final void testFindDoesNotMatchEmptyLists() {
+    List<Character> s = newCharacterList("");
+    assertEquals(-1, matcher.find(s));
+  }
+
+  @Test
+  public final void testFindNullsCanMatchNulls() {
+    Character[] p = new Character[] { 'a', null, 'a' };
+    List<Character> s = new ArrayList<Character>();
+    s.add('a');
+    s.add(null);
+    s.add('a');
+    matcher = new OracleMatcher<Character>(Arrays.asList(p));
+    assertEquals(0, matcher.find(s));
+  }
+
+  @Test
+  public final void testFindWithNulls() {
+    List<Character> s = newCharacterList(test);
+    s.set(4, null);
+    assertEquals(test.indexOf("abcba"), matcher.find(s));
+  }
+
+  @Test
+  public final void testFindWithOffset() {
+    List<Character> s = newCharacterList(test);
+    assertEquals(test.indexOf("abcba"), matcher.find(s, 4));
+    s.set(s.size() / 2, 'x');
+    assertEquals(-1, matcher.find(s, 4));
+  }
+
+  @Test
+  public final void testFindLongPatterns() {
+    final Random random = new Random(42);
+    for (int round = 0; round < 200; round++) {
+      final List<Integer> p = new ArrayList<Integer>();
+      for (int i = 1 + random.nextInt(60); i > 0; i--)
+        p.add(random.nextInt(2));
+      final List<Integer> s = new ArrayList<Integer>();
+      for (int i = random.nextInt(300); i > 0; i--)
+        s.add(random.nextInt(3));
+      if (s.size() > p.size() && random.nextBoolean())
+        for (int i = 0; i < p.size(); i++)
+          s.set(s.size() - p.size() + i, p.get(i));
+      final OracleMatcher<Integer> oracle = new OracleMatcher<Integer>(p);
+      assertEquals(Collections.indexOfSubList(s, p), oracle.find(s));
+      if (s.size() > 7) {
+        final int expected = Collections.indexOfSubList(s.subList(7, s.size()), p);
+        assertEquals((expected == -1) ? -1 : expected + 7, oracle.find(s, 7));
+      }
+    }
+  }
+}
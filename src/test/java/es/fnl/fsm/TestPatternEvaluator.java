@@ -0,0 +1,150 @@
+package es.fnl.fsm;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestPatternEvaluator {
+  final List<Character> text = TestPatternMatcher.toCharacterArray("xabcbdxacxaabbx");
+  final TestPatternMatcher outer = new TestPatternMatcher();
+  ExecutorService executor;
+  List<Pattern<Character>> patterns;
+
+  /** A transition that counts how often it is tested. */
+  static class Counting implements Transition<Character> {
+    final AtomicInteger tests = new AtomicInteger();
+    final char c;
+
+    Counting(char c) {
+      this.c = c;
+    }
+
+    public boolean matches(Character target) {
+      tests.incrementAndGet();
+      if (target == '!') throw new IllegalStateException("bad element");
+      return target == c;
+    }
+
+    public double weight() {
+      return 1.0;
+    }
+  }
+
+  Pattern<Character> match(char c) {
+    return Pattern.match(outer.new CharTransition(c));
+  }
+
+  @Before
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(3);
+    patterns = new ArrayList<Pattern<Character>>();
+    patterns.add(Pattern.chain(match('a'), Pattern.branch(match('b'), match('c')).repeat()));
+    patterns.add(Pattern.chain(Pattern.capture(match('a').repeat()), match('b')));
+    patterns.add(Pattern.chain(match('x'), Pattern.<Character> gap(0, 3)));
+    patterns.add(match('d'));
+    patterns.add(match('z'));
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public final void testDeterministicOrder() throws InterruptedException {
+    final List<List<MatchResult>> expected = new ArrayList<List<MatchResult>>();
+    for (int p = 0; p < patterns.size(); p++) {
+      final Matcher<Character> m = patterns.get(p).matcher(text);
+      m.greedy = (p % 2 == 0);
+      final List<MatchResult> results = new ArrayList<MatchResult>();
+      for (MatchResult r : m.results())
+        results.add(r);
+      expected.add(results);
+    }
+    assertEquals(3, expected.get(0).size()); // "abcb", "ac", and "abb" (greedy)
+    assertEquals(Collections.emptyList(), expected.get(4));
+    for (int shards = 1; shards <= 6; shards++) {
+      final PatternEvaluator<Character> evaluator =
+          new PatternEvaluator<Character>(executor, shards);
+      for (int p = 0; p < patterns.size(); p++)
+        assertEquals(p, evaluator.add(patterns.get(p), p % 2 == 0));
+      assertEquals(patterns.size(), evaluator.size());
+      assertEquals(expected, evaluator.evaluate(text));
+      assertEquals(expected, evaluator.evaluate(new LinkedList<Character>(text)));
+    }
+  }
+
+  @Test
+  public final void testSharedTransitionTests() throws InterruptedException {
+    final Counting a = new Counting('a');
+    // a single shard, as concurrent shards may (harmlessly) test the same element twice
+    final PatternEvaluator<Character> evaluator = new PatternEvaluator<Character>(executor, 1);
+    for (int i = 0; i < 8; i++)
+      evaluator.add(Pattern.chain(Pattern.match(a), match((char) ('a' + i))), false);
+    final List<List<MatchResult>> results = evaluator.evaluate(text);
+    assertEquals(1, results.get(0).size()); // "aa"
+    assertEquals(2, results.get(1).size()); // "ab" twice
+    assertEquals(5, a.tests.get()); // once per distinct element (x, a, b, c, d)
+  }
+
+  @Test
+  public final void testAutomataCompiledOnce() throws InterruptedException {
+    final PatternEvaluator<Character> evaluator = new PatternEvaluator<Character>(executor, 2);
+    for (Pattern<Character> p : patterns)
+      evaluator.add(p, false);
+    evaluator.evaluate(text);
+    final List<Pattern.Automata<Character>> compiled = new ArrayList<Pattern.Automata<Character>>();
+    for (Pattern<Character> p : patterns) {
+      final Matcher<Character> m = p.matcher(text);
+      compiled.add(p.automata(m.entry, m.exit));
+    }
+    evaluator.evaluate(text.subList(1, 10));
+    for (int p = 0; p < patterns.size(); p++) {
+      final Matcher<Character> m = patterns.get(p).matcher(text);
+      assertSame(compiled.get(p), patterns.get(p).automata(m.entry, m.exit));
+    }
+  }
+
+  @Test
+  public final void testRequiredTransitionPrefilter() throws InterruptedException {
+    final Counting a = new Counting('a');
+    final Counting b = new Counting('b');
+    final PatternEvaluator<Character> evaluator = new PatternEvaluator<Character>(executor, 1);
+    evaluator.add(Pattern.chain(Pattern.branch(Pattern.match(a), Pattern.match(b)), match('q')),
+        false);
+    evaluator.add(Pattern.chain(Pattern.match(b).optional(), match('d')), false);
+    final List<List<MatchResult>> results = evaluator.evaluate(text);
+    assertEquals(0, results.get(0).size());
+    assertEquals(0, a.tests.get()); // skipped: no 'q' in the text
+    assertEquals(1, results.get(1).size());
+    assertTrue(b.tests.get() > 0);
+  }
+
+  @Test
+  public final void testNoPatterns() throws InterruptedException {
+    assertEquals(0, new PatternEvaluator<Character>(executor).evaluate(text).size());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public final void testTransitionFailure() throws InterruptedException {
+    final PatternEvaluator<Character> evaluator = new PatternEvaluator<Character>(executor, 3);
+    for (int i = 0; i < 6; i++)
+      evaluator.add(Pattern.match(new Counting('a')), false);
+    evaluator.evaluate(TestPatternMatcher.toCharacterArray("ab!"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public final void testIllegalShards() {
+    new PatternEvaluator<Character>(executor, 0);
+  }
+}
@@ -1,7 +1,16 @@
 package es.fnl.fsm;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -439,6 +448,720 @@ public class TestPatternMatcher {
     Assert.assertFalse(m.find());
   }
   
+  @Test
+  public final void testMinimizeMergesEquivalentStates() {
+    final CharTransition x = new CharTransition('x');
+    final Pattern<Character> p = Pattern.branch(Pattern.match(x), Pattern.match(x)).minimize();
+    Assert.assertEquals(3, p.states().size());
+    matchOnce(TestPatternMatcher.toCharacterArray("axa"), p, 1, 2);
+    matchNever(TestPatternMatcher.toCharacterArray("aya"), p);
+  }
+
+  @Test
+  public final void testMinimizeEpsilonCycles() {
+    final Pattern<Character> a = Pattern.match(new CharTransition('a'));
+    final Pattern<Character> b = Pattern.match(new CharTransition('b'));
+    final Pattern<Character> c = Pattern.match(new CharTransition('c'));
+    final Pattern<Character> p = Pattern.chain(Pattern.branch(a, b).optional().repeat(), c)
+        .minimize(); // "(a|b)*c"
+    matchOnce(TestPatternMatcher.toCharacterArray("abbac"), p, 0, 5);
+    matchOnce(TestPatternMatcher.toCharacterArray("xc"), p, 1, 2);
+    matchNever(TestPatternMatcher.toCharacterArray("abba"), p);
+    Assert.assertEquals(p.states().size(), p.minimize().states().size());
+  }
+
+  @Test
+  public final void testMinimizeKeepsCaptureGroups() {
+    final CharTransition x = new CharTransition('x');
+    final Pattern<Character> p = Pattern.branch(Pattern.capture(Pattern.match(x)),
+        Pattern.capture(Pattern.match(x))).minimize(); // "(x)|(x)"
+    final Matcher<Character> m = p.matcher(TestPatternMatcher.toCharacterArray("axa"));
+    Assert.assertTrue(m.find());
+    Assert.assertEquals(1, m.groupCount());
+    Assert.assertEquals(TestPatternMatcher.toCharacterArray("x"), m.group(1));
+  }
+
+  @Test
+  public final void testMatcherStepLimit() {
+    final Pattern<Character> p = Pattern.chain(Pattern.match(new CharTransition('a')).repeat(),
+        Pattern.match(new CharTransition('b'))).minimize(); // "a+b"
+    final Matcher<Character> m = p.matcher(TestPatternMatcher.toCharacterArray("aaaaaaaaaa"));
+    m.setStepLimit(20);
+    try {
+      m.find();
+      Assert.fail("step limit ignored");
+    } catch (MatchAbortedException e) {
+      Assert.assertEquals(MatchAbortedException.Reason.STEPS, e.reason());
+    }
+    Assert.assertFalse(m.find());
+    m.setStepLimit(0);
+    Assert.assertFalse(m.find(0));
+  }
+
+  @Test
+  public final void testMatcherStepLimitGap() {
+    final Pattern<Character> p = Pattern.chain(Pattern.chain(Pattern.match(new CharTransition('a')),
+        Pattern.<Character> gap(0, 1000)), Pattern.match(new CharTransition('b'))); // "a.{0,1000}b"
+    final StringBuilder text = new StringBuilder("a");
+    for (int i = 0; i < 500; i++)
+      text.append('x');
+    final Matcher<Character> m = p.matcher(TestPatternMatcher.toCharacterArray(text.toString()));
+    m.setStepLimit(10);
+    try {
+      m.lookingAt();
+      Assert.fail("steps of the gap not charged");
+    } catch (MatchAbortedException e) {
+      Assert.assertEquals(MatchAbortedException.Reason.STEPS, e.reason());
+    }
+    m.setStepLimit(0);
+    Assert.assertFalse(m.lookingAt());
+  }
+
+  @Test
+  public final void testMatcherInterruptible() {
+    final Pattern<Character> p = Pattern.match(new CharTransition('x'));
+    final Matcher<Character> m = p.matcher(TestPatternMatcher.toCharacterArray("abx"));
+    m.setInterruptible(true).setTimeout(1, TimeUnit.MINUTES);
+    Thread.currentThread().interrupt();
+    try {
+      m.find();
+      Assert.fail("interrupt ignored");
+    } catch (MatchAbortedException e) {
+      Assert.assertEquals(MatchAbortedException.Reason.INTERRUPTED, e.reason());
+    } finally {
+      Assert.assertTrue(Thread.interrupted());
+    }
+    Assert.assertTrue(m.find(0));
+    Assert.assertEquals(2, m.start());
+  }
+
+  @Test
+  public final void testStreamMatcher() {
+    final Pattern<Character> x = Pattern.capture(Pattern.match(new CharTransition('x')).repeat());
+    final Pattern<Character> p = Pattern.chain(x, Pattern.match(new CharTransition('z')));
+    final int[] pulled = new int[] { 0 };
+    final Iterator<Character> it = TestPatternMatcher.toCharacterArray("axxzaaxzxa").iterator();
+    final Matcher<Character> m = p.matcher(new Iterator<Character>() {
+      public boolean hasNext() {
+        return it.hasNext();
+      }
+
+      public Character next() {
+        pulled[0]++;
+        return it.next();
+      }
+
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    });
+    Assert.assertTrue(m.find());
+    Assert.assertEquals(1, m.start());
+    Assert.assertEquals(4, m.end());
+    Assert.assertEquals(TestPatternMatcher.toCharacterArray("xx"), m.group(1));
+    Assert.assertEquals(4, pulled[0]);
+    Assert.assertTrue(m.find());
+    Assert.assertEquals(6, m.start());
+    Assert.assertEquals(TestPatternMatcher.toCharacterArray("xz"), m.group());
+    Assert.assertFalse(m.find());
+    Assert.assertEquals(10, pulled[0]);
+  }
+
+  @Test
+  public final void testStreamMatcherMatches() {
+    final Pattern<Character> p = Pattern.match(new CharTransition('x')).repeat();
+    Matcher<Character> m = p.matcher(TestPatternMatcher.toCharacterArray("xxx").iterator());
+    m.greedy = true;
+    Assert.assertTrue(m.matches());
+    m = p.matcher(TestPatternMatcher.toCharacterArray("xxy").iterator());
+    m.greedy = true;
+    Assert.assertFalse(m.matches());
+  }
+
+  @Test
+  public final void testStreamMatcherRewind() {
+    final Pattern<Character> p = Pattern.match(new CharTransition('x'));
+    final Matcher<Character> m = p.matcher(TestPatternMatcher.toCharacterArray("xaxa").iterator());
+    Assert.assertTrue(m.lookingAt()); // still at the start of the stream
+    Assert.assertTrue(m.find());
+    Assert.assertEquals(2, m.start());
+    try {
+      m.lookingAt();
+      Assert.fail("stream rewound");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    try {
+      m.matches();
+      Assert.fail("stream rewound");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public final void testMatcherAppend() {
+    final Pattern<Character> x = Pattern.capture(Pattern.match(new CharTransition('x')).repeat());
+    final Pattern<Character> p = Pattern.chain(x, Pattern.match(new CharTransition('z')));
+    final Matcher<Character> m = p.matcher(TestPatternMatcher.toCharacterArray("ax"));
+    final MatchStats stats = m.enableStats(null);
+    Assert.assertFalse(m.find());
+    Assert.assertTrue(m.hitEnd());
+    m.append('x');
+    stats.reset();
+    Assert.assertFalse(m.find());
+    Assert.assertTrue(m.hitEnd());
+    Assert.assertEquals(3, stats.offsets()); // two resumed searches and one new start
+    m.appendAll(TestPatternMatcher.toCharacterArray("za"));
+    Assert.assertTrue(m.find());
+    Assert.assertFalse(m.hitEnd());
+    Assert.assertEquals(1, m.start());
+    Assert.assertEquals(4, m.end());
+    Assert.assertEquals(TestPatternMatcher.toCharacterArray("xx"), m.group(1));
+    Assert.assertFalse(m.find());
+    Assert.assertTrue(m.hitEnd()); // a match could start at the end
+    m.append('b');
+    Assert.assertFalse(m.find());
+  }
+
+  @Test
+  public final void testMatcherAppendCost() {
+    final Transition<Character> any = new Transition<Character>() {
+      public boolean matches(Character element) {
+        return true;
+      }
+
+      public double weight() {
+        return 1.0;
+      }
+    };
+    final Pattern<Character> p = Pattern.chain(Pattern.chain(Pattern.match(new CharTransition(
+        'a')), Pattern.capture(Pattern.match(any)).repeat().optional()), Pattern
+        .match(new CharTransition('b'))); // "a(.)*b"
+    final Matcher<Character> m = p.matcher(TestPatternMatcher.toCharacterArray("a"));
+    final MatchStats stats = m.enableStats(null);
+    Assert.assertFalse(m.find());
+    long states = 0;
+    for (int i = 1; i < 3000; i++) {
+      m.append('a');
+      stats.reset();
+      Assert.assertFalse(m.find());
+      Assert.assertTrue(m.hitEnd());
+      if (i > 10) Assert.assertTrue(stats.states() <= states); // constant per appended element
+      else states = Math.max(states, stats.states());
+    }
+    m.append('b');
+    Assert.assertTrue(m.find());
+    Assert.assertEquals(0, m.start());
+    Assert.assertEquals(3001, m.end());
+    final Matcher<Character> fresh = p.matcher(m.group());
+    Assert.assertTrue(fresh.find());
+    Assert.assertArrayEquals(fresh.groups(), m.groups());
+  }
+
+  @Test
+  public final void testMatcherHitEnd() {
+    final Pattern<Character> p = Pattern.match(new CharTransition('x')).repeat();
+    final Matcher<Character> m = p.matcher(TestPatternMatcher.toCharacterArray("axx"));
+    Assert.assertTrue(m.find());
+    Assert.assertFalse(m.hitEnd());
+    m.greedy = true;
+    Assert.assertTrue(m.find(0));
+    Assert.assertTrue(m.hitEnd());
+    Assert.assertEquals(3, m.end());
+    m.append('x');
+    Assert.assertTrue(m.find(m.start()));
+    Assert.assertEquals(4, m.end());
+  }
+
+  @Test
+  public final void testPatternCountedRepeat() {
+    final Pattern<Character> p = Pattern.chain(Pattern.match(new CharTransition('x')).repeat(2, 3),
+        Pattern.match(new CharTransition('y'))).minimize(); // "x{2,3}y"
+    Assert.assertEquals(3, p.states().size());
+    matchNever(TestPatternMatcher.toCharacterArray("xy"), p);
+    matchOnce(TestPatternMatcher.toCharacterArray("xxy"), p, 0, 3);
+    matchOnce(TestPatternMatcher.toCharacterArray("xxxy"), p, 0, 4);
+    matchOnce(TestPatternMatcher.toCharacterArray("xxxxy"), p, 1, 5);
+    matchNever(TestPatternMatcher.toCharacterArray("xxaxy"), p);
+  }
+
+  @Test
+  public final void testPatternCountedRepeatUnbounded() {
+    final Pattern<Character> p = Pattern.match(new CharTransition('x')).repeat(2,
+        Integer.MAX_VALUE);
+    final Matcher<Character> m = p.matcher(TestPatternMatcher.toCharacterArray("axxxxa"));
+    m.greedy = true;
+    Assert.assertTrue(m.find());
+    Assert.assertEquals(1, m.start());
+    Assert.assertEquals(5, m.end());
+  }
+
+  @Test
+  public final void testPatternCountedRepeatUnrolled() {
+    final Pattern<Character> xy = Pattern.chain(Pattern.match(new CharTransition('x')),
+        Pattern.match(new CharTransition('y')));
+    final Pattern<Character> p = Pattern.chain(Pattern.match(new CharTransition('a')),
+        Pattern.chain(xy.repeat(1, 2), Pattern.match(new CharTransition('b')))).minimize();
+    matchNever(TestPatternMatcher.toCharacterArray("ab"), p);
+    matchOnce(TestPatternMatcher.toCharacterArray("axyb"), p, 0, 4);
+    matchOnce(TestPatternMatcher.toCharacterArray("axyxyb"), p, 0, 6);
+    matchNever(TestPatternMatcher.toCharacterArray("axyxyxyb"), p);
+  }
+
+  @Test
+  public final void testPatternCountedRepeatCapture() {
+    final Pattern<Character> p = Pattern.capture(Pattern.chain(Pattern.match(new CharTransition(
+        'a')), Pattern.match(new CharTransition('b')))).repeat(1, 3); // "(ab){1,3}"
+    final Matcher<Character> m = p.matcher(TestPatternMatcher.toCharacterArray("abababxab"));
+    m.greedy = true;
+    Assert.assertTrue(m.find());
+    Assert.assertEquals(0, m.start());
+    Assert.assertEquals(6, m.end());
+    Assert.assertEquals(1, m.groupCount());
+    Assert.assertEquals(4, m.start(1)); // the last repetition, as with repeat()
+    Assert.assertEquals(6, m.end(1));
+    Assert.assertTrue(m.find());
+    Assert.assertEquals(1, m.groupCount());
+    Assert.assertEquals(7, m.start(1));
+    Assert.assertEquals(9, m.end(1));
+    Assert.assertFalse(m.find());
+    final Pattern<Character> q = Pattern.capture(Pattern.chain(Pattern.match(new CharTransition(
+        'a')), Pattern.match(new CharTransition('b')))).repeat(2, Integer.MAX_VALUE); // "(ab){2,}"
+    final Matcher<Character> n = q.matcher(TestPatternMatcher.toCharacterArray("abababxab"));
+    n.greedy = true;
+    Assert.assertTrue(n.find());
+    Assert.assertEquals(6, n.end());
+    Assert.assertEquals(1, n.groupCount());
+    Assert.assertEquals(4, n.start(1));
+    Assert.assertFalse(n.find());
+  }
+
+  @Test
+  public final void testPatternCountedRepeatOptionalLoop() {
+    final int[][] bounds = { { 1, Integer.MAX_VALUE }, { 0, Integer.MAX_VALUE }, { 0, 5 } };
+    for (int[] b : bounds) {
+      final Pattern<Character> cc = Pattern.chain(Pattern.match(new CharTransition('c')),
+          Pattern.match(new CharTransition('c')));
+      final Pattern<Character> p = Pattern.chain(cc.repeat(b[0], b[1]),
+          Pattern.match(new CharTransition('a'))).repeat(0, 1); // "(?:(?:cc){b0,b1}a)?"
+      for (String input : new String[] { "cc", "cccc", "c" }) {
+        final Matcher<Character> m = p.matcher(TestPatternMatcher.toCharacterArray(input));
+        m.greedy = true;
+        Assert.assertFalse(input, m.matches());
+      }
+      final List<String> valid = new ArrayList<String>(Arrays.asList("", "cca", "cccca"));
+      if (b[0] == 0) valid.add("a");
+      for (String input : valid) {
+        final Matcher<Character> m = p.matcher(TestPatternMatcher.toCharacterArray(input));
+        m.greedy = true;
+        Assert.assertTrue(input, m.matches());
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public final void testPatternCountedRepeatIllegalBounds() {
+    Pattern.match(new CharTransition('x')).repeat(3, 2);
+  }
+
+  @Test
+  public final void testPatternGap() {
+    final Pattern<Character> a = Pattern.match(new CharTransition('a'));
+    final Pattern<Character> b = Pattern.capture(Pattern.match(new CharTransition('b')));
+    final Pattern<Character> p = Pattern.chain(Pattern.chain(a, Pattern.<Character> gap(0, 2)), b)
+        .minimize(); // "a.{0,2}(b)"
+    matchOnce(TestPatternMatcher.toCharacterArray("ab"), p, 0, 2);
+    matchOnce(TestPatternMatcher.toCharacterArray("xaxxb"), p, 1, 5);
+    matchNever(TestPatternMatcher.toCharacterArray("axxxb"), p);
+    final Matcher<Character> m = p.matcher(TestPatternMatcher.toCharacterArray("axbb"));
+    Assert.assertTrue(m.find());
+    Assert.assertEquals(2, m.start(1));
+    Assert.assertEquals(3, m.end(1));
+  }
+
+  @Test
+  public final void testPatternGapExpandedLazily() {
+    final Pattern<Character> a = Pattern.match(new CharTransition('a'));
+    final Pattern<Character> b = Pattern.match(new CharTransition('b'));
+    final Pattern<Character> p =
+        Pattern.chain(Pattern.chain(a, Pattern.<Character> gap(0, Integer.MAX_VALUE)), b);
+    final StringBuilder text = new StringBuilder("a");
+    for (int i = 0; i < 10000; i++)
+      text.append('x');
+    final Matcher<Character> m = p.matcher(TestPatternMatcher.toCharacterArray(text + "b"));
+    final MatchStats total = m.enableStats(null);
+    Assert.assertTrue(m.lookingAt());
+    Assert.assertEquals(10002, m.end());
+    Assert.assertTrue(total.peakQueue() < 10); // not a target queued at every offset
+  }
+
+  @Test
+  public final void testPatternGapAppend() {
+    final Pattern<Character> a = Pattern.match(new CharTransition('a'));
+    final Pattern<Character> b = Pattern.match(new CharTransition('b'));
+    final Pattern<Character> p = Pattern.chain(Pattern.chain(a, Pattern.<Character> gap(1, 3)), b);
+    final Matcher<Character> m = p.matcher(TestPatternMatcher.toCharacterArray("ax"));
+    Assert.assertFalse(m.find());
+    Assert.assertTrue(m.hitEnd());
+    m.appendAll(TestPatternMatcher.toCharacterArray("xb"));
+    Assert.assertTrue(m.find());
+    Assert.assertEquals(0, m.start());
+    Assert.assertEquals(4, m.end());
+  }
+
+  @Test
+  public final void testFindSkipsDeadOffsets() {
+    final Pattern<Character> p = Pattern.chain(Pattern.match(new CharTransition('a')),
+        Pattern.match(new CharTransition('b'))); // "ab"
+    final Matcher<Character> m = p.matcher(TestPatternMatcher.toCharacterArray("xxxxxabxab"));
+    final MatchStats total = m.enableStats(null);
+    Assert.assertTrue(m.find());
+    Assert.assertEquals(5, m.start());
+    Assert.assertEquals(1, total.offsets());
+    Assert.assertTrue(m.find());
+    Assert.assertEquals(8, m.start());
+    Assert.assertEquals(2, total.offsets());
+    Assert.assertFalse(m.find());
+    Assert.assertTrue(m.hitEnd());
+    m.append('a');
+    Assert.assertFalse(m.find());
+    Assert.assertTrue(m.hitEnd());
+    m.append('b');
+    Assert.assertTrue(m.find());
+    Assert.assertEquals(10, m.start());
+  }
+
+  @Test
+  public final void testFindSkipsDeadOffsetsWithRuns() {
+    final Pattern<Character> a = Pattern.match(new CharTransition('a'));
+    final Pattern<Character> b = Pattern.capture(Pattern.match(new CharTransition('b')));
+    final Pattern<Character> p = Pattern.chain(Pattern.chain(a.repeat(2, 3),
+        Pattern.<Character> gap(0, 1)), b); // "a{2,3}.?(b)"
+    final Matcher<Character> m = p.matcher(TestPatternMatcher.toCharacterArray("abaabxaaaaxbb"));
+    Assert.assertTrue(m.find());
+    Assert.assertEquals(2, m.start());
+    Assert.assertEquals(5, m.end());
+    Assert.assertEquals(4, m.start(1));
+    Assert.assertTrue(m.find());
+    Assert.assertEquals(7, m.start());
+    Assert.assertEquals(12, m.end());
+    Assert.assertEquals(11, m.start(1));
+    Assert.assertFalse(m.find());
+  }
+
+  @Test
+  public final void testFindScansNearStart() {
+    final int[] tests = new int[1];
+    final CharTransition a = new CharTransition('a') {
+      @Override
+      public boolean matches(Character target) {
+        tests[0]++;
+        return super.matches(target);
+      }
+    };
+    final StringBuilder text = new StringBuilder("ab");
+    for (int i = 0; i < 100000; i++)
+      text.append('x');
+    final List<Character> seq = TestPatternMatcher.toCharacterArray(text.append("ab").toString());
+    final Pattern<Character> ab = Pattern.chain(Pattern.match(a),
+        Pattern.match(new CharTransition('b'))); // "ab" (bit automaton)
+    final Pattern<Character> agb = Pattern.chain(Pattern.chain(Pattern.match(a),
+        Pattern.<Character> gap(0, 1)), Pattern.match(new CharTransition('b'))); // "a.?b"
+    for (int i = 0; i < 2; i++) {
+      tests[0] = 0;
+      final Matcher<Character> m = ((i == 0) ? ab : agb).matcher(seq);
+      Assert.assertTrue(m.find());
+      Assert.assertEquals(0, m.start());
+      Assert.assertTrue(tests[0] < 1000); // not the whole input
+      Assert.assertTrue(m.find());
+      Assert.assertEquals(100002, m.start());
+      Assert.assertFalse(m.find());
+    }
+  }
+
+  @Test
+  public final void testRequiredTransitions() {
+    final CharTransition a = new CharTransition('a');
+    final CharTransition b = new CharTransition('b');
+    final CharTransition c = new CharTransition('c');
+    final Set<Transition<Character>> ab = new HashSet<Transition<Character>>();
+    ab.add(a);
+    ab.add(b);
+    final Set<Transition<Character>> abc = new HashSet<Transition<Character>>(ab);
+    abc.add(c);
+    // a(?:b|c)+d?
+    Assert.assertEquals(Collections.singleton(a), Pattern.chain(Pattern.chain(Pattern.match(a),
+        Pattern.branch(Pattern.match(b), Pattern.match(c)).repeat()),
+        Pattern.match(new CharTransition('d')).optional()).requiredTransitions());
+    // a(?:bc|cb)
+    final Pattern<Character> p = Pattern.chain(Pattern.match(a), Pattern.branch(
+        Pattern.chain(Pattern.match(b), Pattern.match(c)),
+        Pattern.chain(Pattern.match(c), Pattern.match(b))));
+    Assert.assertEquals(abc, p.requiredTransitions());
+    Assert.assertEquals(abc, p.minimize().requiredTransitions());
+    // (a).{1,2}b+
+    Assert.assertEquals(ab, Pattern.chain(Pattern.chain(Pattern.capture(Pattern.match(a)),
+        Pattern.<Character> gap(1, 2)), Pattern.match(b).repeat()).requiredTransitions());
+    // a{2,3}b{0,2}
+    Assert.assertEquals(Collections.singleton(a), Pattern.chain(Pattern.match(a).repeat(2, 3),
+        Pattern.match(b).repeat(0, 2)).requiredTransitions());
+    Assert.assertTrue(Pattern.match(a).optional().requiredTransitions().isEmpty());
+  }
+
+  @Test
+  public final void testCompactingQueue() {
+    final State<Character> state = new State<Character>();
+    final BFSQueue<Character> queue = new BFSQueue<Character>(0, state, true);
+    QueueItem<State<Character>> item = null;
+    for (int offset = 0; offset < 10000; offset++) {
+      item = queue.remove();
+      Assert.assertEquals(offset, item.index());
+      queue.addTransistions(offset + 1, item, Collections.singleton(state), 1.0);
+      Assert.assertTrue(queue.moves() <= 2 * 256 + 1);
+    }
+    final List<QueueItem<State<Character>>> path = queue.backtrack(queue.remove());
+    Assert.assertEquals(0, path.get(0).index());
+    Assert.assertEquals(10000, path.get(path.size() - 1).index());
+    Assert.assertTrue(path.size() <= 2 * 256 + 2); // only the moves since the last compaction
+  }
+
+  @Test
+  public final void testCompactingMatcher() {
+    final Transition<Character> any = new Transition<Character>() {
+      public boolean matches(Character element) {
+        return true;
+      }
+
+      public double weight() {
+        return 0.5;
+      }
+    };
+    final List<Pattern<Character>> patterns = new ArrayList<Pattern<Character>>();
+    // (a).+(b)
+    patterns.add(Pattern.chain(Pattern.chain(Pattern.capture(Pattern.match(new CharTransition(
+        'a'))), Pattern.match(any).repeat()), Pattern.capture(Pattern.match(new CharTransition(
+        'b')))));
+    // a(?:(b)|.)+c
+    patterns.add(Pattern.chain(Pattern.chain(Pattern.match(new CharTransition('a')), Pattern
+        .branch(Pattern.capture(Pattern.match(new CharTransition('b'))), Pattern.match(any))
+        .repeat()), Pattern.match(new CharTransition('c'))));
+    final Random random = new Random(42);
+    final StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 3000; i++)
+      text.append("abcxx".charAt(random.nextInt(5)));
+    final List<Character> input = toCharacterArray(text.toString());
+    for (Pattern<Character> p : patterns) {
+      for (boolean greedy : new boolean[] { false, true }) {
+        final Matcher<Character> plain = p.matcher(input);
+        final Matcher<Character> compacting = p.matcher(input).setCompacting(true);
+        plain.greedy = greedy;
+        compacting.greedy = greedy;
+        int matches = 0;
+        while (plain.find()) {
+          Assert.assertTrue(compacting.find());
+          Assert.assertArrayEquals(plain.groups(), compacting.groups());
+          matches++;
+        }
+        Assert.assertFalse(compacting.find());
+        Assert.assertTrue(matches > 0);
+      }
+    }
+  }
+
+  @Test
+  public final void testBitParallelMatch() {
+    final Pattern<Character> bc = Pattern.branch(Pattern.match(new CharTransition('b')),
+        Pattern.match(new CharTransition('c')));
+    final Pattern<Character> p = Pattern.chain(Pattern.chain(
+        Pattern.match(new CharTransition('a')), bc.repeat().optional()),
+        Pattern.match(new CharTransition('d')).optional()); // "a(?:b|c)*d?"
+    final Matcher<Character> m = p.matcher(TestPatternMatcher.toCharacterArray("xabcbdxacx"));
+    final MatchStats total = m.enableStats(null);
+    Assert.assertTrue(m.find());
+    Assert.assertEquals(1, m.start());
+    Assert.assertEquals(2, m.end());
+    m.greedy = true;
+    Assert.assertTrue(m.find(0));
+    Assert.assertEquals(1, m.start());
+    Assert.assertEquals(6, m.end());
+    Assert.assertTrue(m.find());
+    Assert.assertEquals(7, m.start());
+    Assert.assertEquals(9, m.end());
+    Assert.assertEquals(0, total.states()); // no states were queued
+    Assert.assertFalse(m.find());
+    m.reset(TestPatternMatcher.toCharacterArray("xabc"));
+    Assert.assertTrue(m.find()); // at the end of the input, the queue takes over
+    Assert.assertEquals(1, m.start());
+    Assert.assertEquals(4, m.end());
+    Assert.assertTrue(m.hitEnd());
+  }
+
+  @Test
+  public final void testMatcherResults() {
+    final Pattern<Character> p = Pattern.chain(Pattern.match(new CharTransition('a')),
+        Pattern.capture(Pattern.match(new CharTransition('b')))); // "a(b)"
+    final Matcher<Character> m = p.matcher(TestPatternMatcher.toCharacterArray("abxaby"));
+    final List<MatchResult> results = new ArrayList<MatchResult>();
+    for (MatchResult r : m.results())
+      results.add(r);
+    Assert.assertEquals(2, results.size());
+    Assert.assertEquals(new MatchResult(new int[] { 0, 2, 1, 2 }), results.get(0));
+    Assert.assertEquals(3, results.get(1).start());
+    Assert.assertEquals(5, results.get(1).end(1));
+    Assert.assertEquals(1, results.get(1).groupCount());
+    Assert.assertTrue(m.find()); // the matcher itself was not used
+    Assert.assertEquals(0, m.start());
+    Assert.assertEquals(m.toMatchResult(), results.get(0));
+  }
+
+  @Test
+  public final void testMatcherResultsOfEmptyMatches() {
+    final Pattern<Character> p = Pattern.match(new CharTransition('a')).optional();
+    final Matcher<Character> m = p.matcher(TestPatternMatcher.toCharacterArray("ba"));
+    final Iterator<MatchResult> it = m.results().iterator();
+    Assert.assertEquals(0, it.next().end());
+    Assert.assertEquals(1, it.next().end());
+    Assert.assertEquals(2, it.next().end());
+    Assert.assertFalse(it.hasNext());
+  }
+
+  @Test
+  public final void testStreamMatcherResults() {
+    final Pattern<Character> p = Pattern.match(new CharTransition('a'));
+    final Matcher<Character> m = p.matcher(TestPatternMatcher.toCharacterArray("xaxa").iterator());
+    int count = 0;
+    for (MatchResult r : m.results())
+      Assert.assertEquals(1 + 2 * count++, r.start());
+    Assert.assertEquals(2, count);
+  }
+
+  @Test
+  public final void testMatcherRegion() {
+    final Pattern<Character> p = Pattern.chain(Pattern.match(new CharTransition('a')),
+        Pattern.match(new CharTransition('b'))); // "ab"
+    final Matcher<Character> m = p.matcher(TestPatternMatcher.toCharacterArray("abxabxab"));
+    m.region(1, 7);
+    Assert.assertEquals(1, m.regionStart());
+    Assert.assertEquals(7, m.regionEnd());
+    Assert.assertTrue(m.find());
+    Assert.assertEquals(3, m.start());
+    Assert.assertFalse(m.find());
+    Assert.assertTrue(m.hitEnd()); // the "a" at the region end could start a match
+    Assert.assertFalse(m.lookingAt());
+    m.region(3, 5);
+    Assert.assertTrue(m.lookingAt());
+    Assert.assertTrue(m.matches());
+    Assert.assertEquals(3, m.start());
+    Assert.assertEquals(5, m.end());
+    m.region(3, 6);
+    Assert.assertFalse(m.matches());
+    m.reset();
+    Assert.assertEquals(0, m.regionStart());
+    Assert.assertEquals(8, m.regionEnd());
+    Assert.assertTrue(m.lookingAt());
+  }
+
+  @Test
+  public final void testMatcherRegionWithRuns() {
+    final Pattern<Character> a = Pattern.match(new CharTransition('a'));
+    final Pattern<Character> b = Pattern.capture(Pattern.match(new CharTransition('b')));
+    final Pattern<Character> p = Pattern.chain(Pattern.chain(a.repeat(2, 3),
+        Pattern.<Character> gap(0, 1)), b); // "a{2,3}.?(b)"
+    final Matcher<Character> m = p.matcher(TestPatternMatcher.toCharacterArray("aabxaaaaxbb"));
+    m.region(1, 11);
+    Assert.assertTrue(m.find());
+    Assert.assertEquals(5, m.start());
+    Assert.assertEquals(10, m.end());
+    Assert.assertEquals(9, m.start(1));
+    m.region(0, 9);
+    Assert.assertTrue(m.find());
+    Assert.assertEquals(0, m.start());
+    Assert.assertFalse(m.find());
+    Assert.assertTrue(m.hitEnd());
+    final List<MatchResult> results = new ArrayList<MatchResult>();
+    for (MatchResult r : m.region(2, 11).results())
+      results.add(r);
+    Assert.assertEquals(1, results.size());
+    Assert.assertEquals(5, results.get(0).start());
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public final void testMatcherRegionBounds() {
+    Pattern.match(new CharTransition('a')).matcher(TestPatternMatcher.toCharacterArray("aa"))
+        .region(1, 3);
+  }
+
+  @Test
+  public final void testReplaceAll() {
+    final Pattern<Character> p = Pattern.chain(Pattern.match(new CharTransition('a')),
+        Pattern.match(new CharTransition('b'))); // "ab"
+    final Matcher<Character> m = p.matcher(TestPatternMatcher.toCharacterArray("xabyabz"));
+    Assert.assertEquals(TestPatternMatcher.toCharacterArray("x-y-z"),
+        m.replaceAll(TestPatternMatcher.toCharacterArray("-")));
+    m.region(2, 7);
+    Assert.assertEquals(TestPatternMatcher.toCharacterArray("byz"),
+        m.replaceAll(new ArrayList<Character>()));
+  }
+
+  @Test
+  public final void testReplaceAllWithGroups() {
+    final Pattern<Character> p = Pattern.chain(Pattern.capture(Pattern.match(new CharTransition(
+        'a'))), Pattern.capture(Pattern.match(new CharTransition('b')))); // "(a)(b)"
+    final Matcher<Character> m = p.matcher(TestPatternMatcher.toCharacterArray("abxab"));
+    final List<Character> out = new LinkedList<Character>();
+    m.rewrite(out, new Rewriter<Character>() {
+      public void rewrite(Matcher<Character> match, Collection<? super Character> sink) {
+        match.appendGroup(sink, 2).appendGroup(sink, 1);
+      }
+    });
+    Assert.assertEquals(TestPatternMatcher.toCharacterArray("baxba"), out);
+  }
+
+  @Test
+  public final void testAppendReplacement() {
+    final Pattern<Character> p = Pattern.match(new CharTransition('a')).optional(); // "a?"
+    final Matcher<Character> m = p.matcher(TestPatternMatcher.toCharacterArray("bab"));
+    final List<Character> out = new ArrayList<Character>();
+    final List<Character> dash = TestPatternMatcher.toCharacterArray("-");
+    Assert.assertTrue(m.find(1));
+    m.appendReplacement(out, dash); // empty match at 1
+    Assert.assertEquals(TestPatternMatcher.toCharacterArray("b-"), out);
+    Assert.assertEquals(TestPatternMatcher.toCharacterArray("b-ab"), m.appendTail(out));
+    Assert.assertEquals(TestPatternMatcher.toCharacterArray("-b-a-b-"), m.replaceAll(dash));
+  }
+
+  @Test
+  public final void testSplit() {
+    final Pattern<Character> p = Pattern.match(new CharTransition(',')).repeat(); // ",+"
+    final String[] inputs = { "", ",", "a,b", ",a,,b,,", "a,,,b", "ab" };
+    for (String input : inputs) {
+      for (int limit = -1; limit < 4; limit++) {
+        final List<String> pieces = new ArrayList<String>();
+        for (List<Character> piece : p.split(TestPatternMatcher.toCharacterArray(input), limit))
+          pieces.add(toString(piece));
+        Assert.assertEquals(input + " limit " + limit,
+            Arrays.asList(input.split(",+?", limit)), pieces);
+      }
+    }
+  }
+
+  @Test
+  public final void testSplitOnEmptyMatches() {
+    final Pattern<Character> p = Pattern.match(new CharTransition(',')).optional(); // ",?"
+    final List<String> pieces = new ArrayList<String>();
+    for (List<Character> piece : p.split(TestPatternMatcher.toCharacterArray("ab,c")))
+      pieces.add(toString(piece));
+    Assert.assertEquals(Arrays.asList("ab,c".split(",??")), pieces);
+  }
+
+  private static String toString(List<Character> elements) {
+    final StringBuilder sb = new StringBuilder();
+    for (Character c : elements)
+      sb.append(c);
+    return sb.toString();
+  }
+
   @Test
   public final void testGreedyMode() {
     final Pattern<Character> p = Pattern.match(new CharTransition('a')).repeat();
@@ -0,0 +1,75 @@
+package es.fnl.fsm;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestPrimitiveMatcher {
+  final int[] pattern = new int[] { 'a', 'b', 'c', 'b', 'a' };
+  final String test = "xabcaabcbaabax";
+
+  @Test(expected = IllegalArgumentException.class)
+  public final void testMatcherSetupEmptyArray() {
+    new PrimitiveMatcher(new int[0]);
+  }
+
+  @Test
+  public final void testPatternLengthAndRadix() {
+    final PrimitiveMatcher matcher = new PrimitiveMatcher(pattern);
+    assertEquals(Arrays.asList(97, 98, 99, 98, 97), matcher.pattern());
+    assertEquals(5, matcher.length());
+    assertEquals(3, matcher.radix());
+  }
+
+  @Test
+  public final void testFindInts() {
+    final PrimitiveMatcher matcher = new PrimitiveMatcher(pattern);
+    final int[] s = new int[test.length()];
+    for (int i = 0; i < s.length; i++)
+      s[i] = test.charAt(i);
+    assertEquals(test.indexOf("abcba"), matcher.find(s));
+    assertEquals(-1, matcher.find(s, 6));
+    s[s.length / 2] = 'x';
+    assertEquals(-1, matcher.find(s));
+    assertEquals(-1, matcher.find(new int[0]));
+  }
+
+  @Test
+  public final void testFindBytes() {
+    final PrimitiveMatcher matcher = new PrimitiveMatcher(pattern);
+    final byte[] s = test.getBytes();
+    assertEquals(test.indexOf("abcba"), matcher.find(s));
+    assertEquals(-1, matcher.find(s, 6));
+    s[s.length / 2] = 'x';
+    assertEquals(-1, matcher.find(s));
+    assertEquals(-1, matcher.find(new byte[0]));
+  }
+
+  @Test
+  public final void testFindNegativeBytes() {
+    final PrimitiveMatcher matcher = new PrimitiveMatcher(new int[] { -1, 0, -128 });
+    final byte[] s = new byte[] { 1, -1, 0, 127, -1, 0, -128, 0, 0, 0, 0, 0 };
+    assertEquals(4, matcher.find(s));
+    assertEquals(-1, new PrimitiveMatcher(new int[] { 255 }).find(new byte[] { -1 }));
+  }
+
+  @Test
+  public final void testFindBytesAgreesWithInts() {
+    final Random random = new Random(42);
+    for (int round = 0; round < 200; round++) {
+      final int[] p = new int[1 + random.nextInt(6)];
+      for (int i = 0; i < p.length; i++)
+        p[i] = random.nextInt(3);
+      final byte[] b = new byte[random.nextInt(100)];
+      final int[] s = new int[b.length];
+      for (int i = 0; i < b.length; i++)
+        s[i] = b[i] = (byte) random.nextInt(3);
+      final PrimitiveMatcher matcher = new PrimitiveMatcher(p);
+      for (int offset = 0; offset <= b.length; offset += 7)
+        assertEquals(matcher.find(s, offset), matcher.find(b, offset));
+    }
+  }
+}
@@ -0,0 +1,75 @@
+package es.fnl.fsm;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestSparseScanner extends TestMatcherBase {
+  SparseScanner<Character> scanner;
+
+  @Override
+  @Before
+  public void setUp() {
+    super.setUp();
+    scanner = new SparseScanner<Character>(Arrays.asList(pattern));
+    base = scanner;
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public final void testMatcherSetupEmptyList() {
+    new SparseScanner<Object>(new ArrayList<Object>());
+  }
+
+  @Test
+  public final void testScan() {
+    List<Character> s = newCharacterList(test);
+    assertTrue(scanner.scan(s.iterator()));
+    s.set(s.size() / 2, 'x');
+    assertFalse(scanner.scan(s.iterator()));
+  }
+  
+  @Test
+  public final void testScanDoesNotMatchEmptyLists() {
+    List<Character> s = newCharacterList("");
+    assertFalse(scanner.scan(s.iterator()));
+  }
+
+  @Test
+  public final void testScanNullsCanMatchNulls() {
+    Character[] p = new Character[] { 'a', null, 'a' };
+    List<Character> s = new ArrayList<Character>();
+    s.add('a');
+    s.add(null);
+    s.add('a');
+    scanner = new SparseScanner<Character>(Arrays.asList(p));
+    assertTrue(scanner.scan(s.iterator()));
+  }
+
+  @Test
+  public final void testScanWithNulls() {
+    List<Character> s = newCharacterList(test);
+    s.set(4, null);
+    assertTrue(scanner.scan(s.iterator()));
+  }
+
+  @Test
+  public final void testScanAgreesWithExactScanner() {
+    final Random random = new Random(42);
+    for (int round = 0; round < 500; round++) {
+      final List<Integer> p = new ArrayList<Integer>();
+      for (int i = 1 + random.nextInt(8); i > 0; i--)
+        p.add(random.nextInt(3));
+      final List<Integer> s = new ArrayList<Integer>();
+      for (int i = random.nextInt(40); i > 0; i--)
+        s.add(random.nextInt(4));
+      assertEquals(new ExactScanner<Integer>(p).scan(s.iterator()),
+          new SparseScanner<Integer>(p).scan(s.iterator()));
+    }
+  }
+}